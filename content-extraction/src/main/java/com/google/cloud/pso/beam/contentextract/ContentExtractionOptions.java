@@ -15,6 +15,7 @@
  */
 package com.google.cloud.pso.beam.contentextract;
 
+import com.google.cloud.pso.rag.common.GCPEnvironment;
 import org.apache.beam.runners.dataflow.options.DataflowPipelineOptions;
 import org.apache.beam.sdk.options.Default;
 import org.apache.beam.sdk.options.Description;
@@ -89,6 +90,74 @@ public interface ContentExtractionOptions extends DataflowPipelineOptions {
 
   void setEmbeddingsConfiguration(String value);
 
+  @Description(
+      "The size of the vectors requested from the embeddings model, when not set the model default"
+          + " size is used. The vector storage must hold vectors of the same size.")
+  Integer getEmbeddingsOutputDimensionality();
+
+  void setEmbeddingsOutputDimensionality(Integer value);
+
+  @Description(
+      "The max amount of chunks sent on each embeddings request, chunks from different documents"
+          + " are packed together up to this amount.")
+  @Default.Integer(250)
+  Integer getEmbeddingsBatchMaxInstances();
+
+  void setEmbeddingsBatchMaxInstances(Integer value);
+
+  @Description(
+      "The max amount of tokens, estimated locally, sent on each embeddings request. Keep it below"
+          + " the per request token limit of the model.")
+  @Default.Integer(20000)
+  Integer getEmbeddingsBatchMaxTokens();
+
+  void setEmbeddingsBatchMaxTokens(Integer value);
+
+  @Description(
+      "The max amount of embeddings requests in flight per DoFn instance, new requests wait for"
+          + " the previous ones to complete once reached.")
+  @Default.Integer(4)
+  Integer getMaxInFlightEmbeddingsRequests();
+
+  void setMaxInFlightEmbeddingsRequests(Integer value);
+
+  @Description(
+      "The max amount of chunks a DoFn instance buffers while waiting for their embeddings, once"
+          + " reached the pending requests are awaited before processing more content.")
+  @Default.Integer(5000)
+  Integer getEmbeddingsMaxBufferedChunks();
+
+  void setEmbeddingsMaxBufferedChunks(Integer value);
+
+  @Description(
+      "The concurrent requests sent to each Vertex AI model per worker when starting, the limit"
+          + " then adapts to the quota errors and the latency of the responses.")
+  @Default.Integer(20)
+  Integer getVertexAIConcurrencyInitialLimit();
+
+  void setVertexAIConcurrencyInitialLimit(Integer value);
+
+  @Description("The max concurrent requests sent to each Vertex AI model per worker.")
+  @Default.Integer(200)
+  Integer getVertexAIConcurrencyMaxLimit();
+
+  void setVertexAIConcurrencyMaxLimit(Integer value);
+
+  @Description(
+      "The max amount of Vertex AI requests per model and worker waiting for the concurrency limit,"
+          + " further requests are rejected.")
+  @Default.Integer(1000)
+  Integer getVertexAIMaxQueuedRequests();
+
+  void setVertexAIMaxQueuedRequests(Integer value);
+
+  @Description(
+      "The length in seconds of the video segments embedded separately by multimodal embeddings"
+          + " models, one vector is stored per segment. When not set the model default is used.")
+  Integer getVideoSegmentIntervalSec();
+
+  void setVideoSegmentIntervalSec(Integer value);
+
   @Description("The configuration for Chunker related interactions.")
   @Validation.Required
   String getChunkerConfiguration();
@@ -125,4 +194,80 @@ public interface ContentExtractionOptions extends DataflowPipelineOptions {
 
   void setAlloyPass(String value);
 
+  @Description("The max amount of pooled AlloyDB connections per worker.")
+  @Default.Integer(8)
+  Integer getAlloyPoolMaxSize();
+
+  void setAlloyPoolMaxSize(Integer value);
+
+  @Description("The max amount of AlloyDB requests waiting for a pooled connection per worker.")
+  @Default.Integer(1000)
+  Integer getAlloyPoolMaxQueuedRequests();
+
+  void setAlloyPoolMaxQueuedRequests(Integer value);
+
+  @Description(
+      "When enabled, and using AlloyDB as vector storage, embeddings are stored using binary COPY"
+          + " batches through a staging table instead of multi-row inserts.")
+  @Default.Boolean(false)
+  Boolean getAlloyBulkLoad();
+
+  void setAlloyBulkLoad(Boolean value);
+
+  @Description("The amount of rows sent on each AlloyDB bulk load COPY batch.")
+  @Default.Integer(5000)
+  Integer getAlloyBulkLoadBatchSize();
+
+  void setAlloyBulkLoadBatchSize(Integer value);
+
+  @Description("The amount of AlloyDB bulk load batches running concurrently per worker.")
+  @Default.Integer(4)
+  Integer getAlloyBulkLoadParallelism();
+
+  void setAlloyBulkLoadParallelism(Integer value);
+
+  @Description(
+      "The precision used to send vectors to AlloyDB, FLOAT16 halves the bytes sent on upserts.")
+  @Default.Enum("FLOAT32")
+  GCPEnvironment.VectorEncoding getAlloyVectorEncoding();
+
+  void setAlloyVectorEncoding(GCPEnvironment.VectorEncoding value);
+
+  @Description(
+      "The max amount of vector storage writes in flight per DoFn instance, new writes wait for"
+          + " the previous ones to be acknowledged once reached.")
+  @Default.Integer(4)
+  Integer getMaxInFlightVectorWrites();
+
+  void setMaxInFlightVectorWrites(Integer value);
+
+  @Description(
+      "The max amount of datapoints sent on each vector storage write, Vector Search recommends no"
+          + " more than 20 per upsert request.")
+  @Default.Integer(15)
+  Integer getVectorWriteBatchSize();
+
+  void setVectorWriteBatchSize(Integer value);
+
+  @Description(
+      "The target size in bytes of each vector storage write, estimated from its datapoints.")
+  @Default.Integer(2 * 1024 * 1024)
+  Integer getVectorWriteBatchBytes();
+
+  void setVectorWriteBatchBytes(Integer value);
+
+  @Description(
+      "The max time in milliseconds datapoints wait to be written while the write batch fills up,"
+          + " pending datapoints are always written when the bundle finishes.")
+  @Default.Long(5000)
+  Long getVectorWriteBatchMaxAgeMillis();
+
+  void setVectorWriteBatchMaxAgeMillis(Long value);
+
+  @Description(
+      "The tenant stored with the ingested content embeddings, so searches can be restricted to"
+          + " it. When not set the content is not associated with any tenant.")
+  String getTenant();
+
+  void setTenant(String value);
 }
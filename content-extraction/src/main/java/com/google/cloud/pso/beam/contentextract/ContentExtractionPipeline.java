@@ -55,6 +55,9 @@ public class ContentExtractionPipeline {
     // Create the pipeline
     var pipeline = Pipeline.create(options);
     pipeline.getCoderRegistry().registerCoderForClass(Transport.class, TransportCoder.of());
+    pipeline
+        .getCoderRegistry()
+        .registerCoderForClass(IndexableContent.class, IndexableContentCoder.of());
 
     // Read the events with Google Drive identifiers and extract the documents contents
     var maybeDocsContents =
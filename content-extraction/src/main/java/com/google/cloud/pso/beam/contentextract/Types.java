@@ -15,6 +15,7 @@
  */
 package com.google.cloud.pso.beam.contentextract;
 
+import com.google.cloud.pso.rag.common.Float32Vector;
 import com.google.cloud.pso.rag.common.Ingestion;
 import com.google.cloud.pso.rag.common.Ingestion.GoogleDrive;
 import com.google.cloud.pso.rag.common.InteractionHelper;
@@ -24,16 +25,20 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import org.apache.beam.sdk.coders.AtomicCoder;
 import org.apache.beam.sdk.coders.CoderException;
 import org.apache.beam.sdk.coders.CustomCoder;
 import org.apache.beam.sdk.coders.DefaultCoder;
 import org.apache.beam.sdk.coders.MapCoder;
+import org.apache.beam.sdk.coders.NullableCoder;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
 import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessage;
+import org.apache.beam.sdk.util.VarInt;
 
 /** */
 public class Types {
@@ -127,10 +132,100 @@ public class Types {
   public record Content(String key, List<String> content, Ingestion.SupportedType type)
       implements Serializable {}
 
-  public record ContentChunks(String key, List<String> chunks) implements Serializable {}
+  public record ContentChunks(String key, List<String> chunks, Ingestion.SupportedType type)
+      implements Serializable {
+    public ContentChunks(String key, List<String> chunks) {
+      this(key, chunks, null);
+    }
+  }
 
-  public record IndexableContent(String key, String content, List<Double> embedding)
-      implements Serializable {}
+  /** The mime type, when known, is stored as metadata of the content embeddings. */
+  @DefaultCoder(IndexableContentCoder.class)
+  public record IndexableContent(
+      String key, String content, Float32Vector embedding, String mimeType)
+      implements Serializable {
+    public IndexableContent(String key, String content, Float32Vector embedding) {
+      this(key, content, embedding, null);
+    }
+
+    public IndexableContent(String key, String content, List<Double> embedding) {
+      this(key, content, Float32Vector.fromDoubles(embedding));
+    }
+  }
+
+  /** Encodes the vector dimensions followed by its raw float32 values. */
+  public static class Float32VectorCoder extends AtomicCoder<Float32Vector> {
+
+    private static final Float32VectorCoder INSTANCE = new Float32VectorCoder();
+
+    private Float32VectorCoder() {}
+
+    public static Float32VectorCoder of() {
+      return INSTANCE;
+    }
+
+    @Override
+    public void encode(Float32Vector value, OutputStream outStream)
+        throws CoderException, IOException {
+      var buffer = ByteBuffer.allocate(4 * value.dimensions());
+      for (int i = 0; i < value.dimensions(); i++) {
+        buffer.putFloat(value.get(i));
+      }
+      VarInt.encode(value.dimensions(), outStream);
+      outStream.write(buffer.array());
+    }
+
+    @Override
+    public Float32Vector decode(InputStream inStream) throws CoderException, IOException {
+      var values = new float[VarInt.decodeInt(inStream)];
+      var buffer = ByteBuffer.wrap(inStream.readNBytes(4 * values.length));
+      if (buffer.remaining() != 4 * values.length) {
+        throw new CoderException("Not enough bytes to decode the vector values.");
+      }
+      buffer.asFloatBuffer().get(values);
+      return Float32Vector.wrap(values);
+    }
+
+    @Override
+    public void verifyDeterministic() {}
+  }
+
+  public static class IndexableContentCoder extends CustomCoder<IndexableContent> {
+
+    private static final IndexableContentCoder INSTANCE = new IndexableContentCoder();
+    static final StringUtf8Coder stringCoder = StringUtf8Coder.of();
+    static final Float32VectorCoder vectorCoder = Float32VectorCoder.of();
+    static final NullableCoder<String> mimeTypeCoder = NullableCoder.of(StringUtf8Coder.of());
+
+    private IndexableContentCoder() {}
+
+    public static IndexableContentCoder of() {
+      return INSTANCE;
+    }
+
+    @Override
+    public void encode(IndexableContent value, OutputStream outStream)
+        throws CoderException, IOException {
+      stringCoder.encode(value.key(), outStream);
+      stringCoder.encode(value.content(), outStream);
+      vectorCoder.encode(value.embedding(), outStream);
+      mimeTypeCoder.encode(value.mimeType(), outStream);
+    }
+
+    @Override
+    public IndexableContent decode(InputStream inStream) throws CoderException, IOException {
+      return new IndexableContent(
+          stringCoder.decode(inStream),
+          stringCoder.decode(inStream),
+          vectorCoder.decode(inStream),
+          mimeTypeCoder.decode(inStream));
+    }
+
+    @Override
+    public void verifyDeterministic() throws NonDeterministicException {
+      stringCoder.verifyDeterministic();
+    }
+  }
 
   public record IndexableContentOperation(IndexableContent content, Operation operation)
       implements Serializable {}
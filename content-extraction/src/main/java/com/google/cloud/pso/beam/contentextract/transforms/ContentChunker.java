@@ -20,6 +20,7 @@ import com.google.cloud.pso.beam.contentextract.Types.Content;
 import com.google.cloud.pso.beam.contentextract.Types.ContentChunks;
 import com.google.cloud.pso.rag.content.Chunks;
 import com.google.cloud.pso.rag.content.ChunksRequests;
+import com.google.cloud.pso.rag.embeddings.EmbeddingsRequests;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.PTransform;
 import org.apache.beam.sdk.transforms.ParDo;
@@ -37,30 +38,40 @@ public class ContentChunker extends PTransform<PCollection<Content>, PCollection
 
   @Override
   public PCollection<ContentChunks> expand(PCollection<Content> input) {
-    var options = input.getPipeline().getOptions();
-    var chunkerConfig = options.as(ContentExtractionOptions.class).getChunkerConfiguration();
+    var options = input.getPipeline().getOptions().as(ContentExtractionOptions.class);
     return input
         .apply("StableContent", Reshuffle.viaRandomKey())
-        .apply("Chunk", ParDo.of(new ChunkContent(chunkerConfig)));
+        .apply(
+            "Chunk",
+            ParDo.of(
+                new ChunkContent(
+                    options.getChunkerConfiguration(), options.getEmbeddingsConfiguration())));
   }
 
   static class ChunkContent extends DoFn<Content, ContentChunks> {
     private static final Logger LOG = LoggerFactory.getLogger(ChunkContent.class);
 
     private final String chunkerConfig;
+    private final String embeddingsConfig;
 
-    public ChunkContent(String chunkerConfig) {
+    public ChunkContent(String chunkerConfig, String embeddingsConfig) {
       this.chunkerConfig = chunkerConfig;
+      this.embeddingsConfig = embeddingsConfig;
     }
 
     @ProcessElement
     public void process(@Element Content content, OutputReceiver<ContentChunks> receiver) {
+      // multimodal models embed images and videos directly, no need for a text description
+      if (ProcessEmbeddings.isMedia(embeddingsConfig, content.type(), content.content())) {
+        receiver.output(new ContentChunks(content.key(), content.content(), content.type()));
+        return;
+      }
       var chunkResult =
           Chunks.chunk(ChunksRequests.create(chunkerConfig, content.type(), content.content()))
               .join();
       var chunks =
           chunkResult
-              .map(resp -> new ContentChunks(content.key(), resp.chunks()))
+              .map(resp -> new ContentChunks(content.key(), resp.chunks(), content.type()))
               .orElseThrow(error -> new RuntimeException(error.message(), error.cause().get()));
       LOG.info("processed chunks size: {}", chunks, chunks.chunks().size());
       receiver.output(chunks);
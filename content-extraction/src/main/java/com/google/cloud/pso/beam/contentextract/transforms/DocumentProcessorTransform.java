@@ -283,7 +283,7 @@ public class DocumentProcessorTransform
           .map(
               ref ->
                   switch (ref.mimeType()) {
-                    case PDF, PNG, JPEG, WEBP -> {
+                    case PDF, PNG, JPEG, WEBP, MP4 -> {
                       var content =
                           new Types.Content(ref.url(), List.of(ref.url()), ref.mimeType().toLink());
                       context.output(rawContent, content);
@@ -18,22 +18,48 @@ package com.google.cloud.pso.beam.contentextract.transforms;
 import com.google.cloud.pso.beam.contentextract.ContentExtractionOptions;
 import com.google.cloud.pso.beam.contentextract.Types.ContentChunks;
 import com.google.cloud.pso.beam.contentextract.Types.IndexableContent;
+import com.google.cloud.pso.rag.common.ConcurrencyLimiter;
+import com.google.cloud.pso.rag.common.Float32Vector;
+import com.google.cloud.pso.rag.common.Ingestion;
+import com.google.cloud.pso.rag.common.InteractionHelper;
+import com.google.cloud.pso.rag.common.Result;
+import com.google.cloud.pso.rag.common.Result.ErrorResponse;
 import com.google.cloud.pso.rag.common.Utilities;
 import com.google.cloud.pso.rag.embeddings.Embeddings;
 import com.google.cloud.pso.rag.embeddings.EmbeddingsRequests;
+import com.google.cloud.pso.rag.vector.VectorDimensions;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 import java.util.stream.IntStream;
+import org.apache.beam.sdk.metrics.Metrics;
 import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.Filter;
+import org.apache.beam.sdk.transforms.Flatten;
 import org.apache.beam.sdk.transforms.PTransform;
 import org.apache.beam.sdk.transforms.ParDo;
 import org.apache.beam.sdk.transforms.Reshuffle;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
 import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PCollectionList;
+import org.joda.time.Instant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /** */
 public class ProcessEmbeddings
     extends PTransform<PCollection<ContentChunks>, PCollection<List<IndexableContent>>> {
+  private static final String GCS_SCHEME = "gs://";
+  private static final String SIZE_MISMATCH =
+      "Embeddings response size does not match the request.";
+  // the model rejects requests over its token or instance limits as invalid arguments
+  private static final Pattern LIMIT_REJECTION =
+      Pattern.compile(
+          "token count|supports up to|instances|batch size|exceed", Pattern.CASE_INSENSITIVE);
 
   public static ProcessEmbeddings create() {
     return new ProcessEmbeddings();
@@ -41,45 +67,479 @@ public class ProcessEmbeddings
 
   @Override
   public PCollection<List<IndexableContent>> expand(PCollection<ContentChunks> input) {
-    var options = input.getPipeline().getOptions();
-    var embeddingsConfig = options.as(ContentExtractionOptions.class).getEmbeddingsConfiguration();
-    return input
-        .apply("StableChunks", Reshuffle.viaRandomKey())
-        .apply("Embeddings", ParDo.of(new EmbeddingsRetriever(embeddingsConfig)));
+    var options = input.getPipeline().getOptions().as(ContentExtractionOptions.class);
+    // fails the pipeline construction for sizes the model does not support
+    EmbeddingsRequests.dimensions(
+        options.getEmbeddingsConfiguration(),
+        Optional.ofNullable(options.getEmbeddingsOutputDimensionality()));
+    var embeddingsConfig = options.getEmbeddingsConfiguration();
+    var stable = input.apply("StableChunks", Reshuffle.viaRandomKey());
+    var text =
+        stable
+            .apply(
+                "TextChunks",
+                Filter.by(
+                    (ContentChunks content) ->
+                        !isMedia(embeddingsConfig, content.type(), content.chunks())))
+            .apply(
+                "Embeddings",
+                ParDo.of(
+                    new EmbeddingsRetriever(
+                        embeddingsConfig,
+                        options.getEmbeddingsOutputDimensionality(),
+                        options.getVectorConfiguration(),
+                        Math.min(
+                            options.getEmbeddingsBatchMaxInstances(),
+                            EmbeddingsRequests.maxInstances(embeddingsConfig)),
+                        options.getEmbeddingsBatchMaxTokens(),
+                        options.getMaxInFlightEmbeddingsRequests(),
+                        options.getEmbeddingsMaxBufferedChunks())));
+    var media =
+        stable
+            .apply(
+                "MediaContent",
+                Filter.by(
+                    (ContentChunks content) ->
+                        isMedia(embeddingsConfig, content.type(), content.chunks())))
+            .apply(
+                "MediaEmbeddings",
+                ParDo.of(
+                    new MediaEmbeddingsRetriever(
+                        embeddingsConfig,
+                        options.getEmbeddingsOutputDimensionality(),
+                        options.getVideoSegmentIntervalSec(),
+                        options.getMaxInFlightEmbeddingsRequests())));
+    return PCollectionList.of(text).and(media).apply("FlattenEmbeddings", Flatten.pCollections());
   }
 
+  /**
+   * True when the content is an image or a video the embeddings model can embed directly. The model
+   * only reads linked media from Cloud Storage, other links are described by the chunker instead.
+   */
+  static boolean isMedia(
+      String embeddingsConfig, Ingestion.SupportedType type, List<String> content) {
+    return type != null
+        && EmbeddingsRequests.supportsMedia(embeddingsConfig)
+        && EmbeddingsRequests.mediaType(type)
+            .filter(
+                mediaType ->
+                    switch (mediaType) {
+                      case IMAGE_LINK, VIDEO_LINK ->
+                          content.stream().allMatch(link -> link.startsWith(GCS_SCHEME));
+                      default -> true;
+                    })
+            .isPresent();
+  }
+
+  // the limiters are shared by every DoFn in the worker, so their state is reported as gauges
+  static void reportLimiters() {
+    for (var limiter : ConcurrencyLimiter.allMetrics()) {
+      var suffix = "-" + limiter.key();
+      Metrics.gauge(ProcessEmbeddings.class, "vertexai-limit" + suffix).set(limiter.limit());
+      Metrics.gauge(ProcessEmbeddings.class, "vertexai-queued" + suffix).set(limiter.queued());
+      Metrics.gauge(ProcessEmbeddings.class, "vertexai-rejections" + suffix)
+          .set(limiter.rejectedRequests());
+      Metrics.gauge(ProcessEmbeddings.class, "vertexai-overloads" + suffix)
+          .set(limiter.overloads());
+    }
+  }
+
+  /**
+   * Local and conservative estimation of the tokens of a text: about 4 characters per token for
+   * english prose, but never less than a token per word, which covers short words, numbers and
+   * code.
+   */
+  static int estimateTokens(String text) {
+    var characters = (text.length() + 3) / 4;
+    var words = text.isBlank() ? 0 : text.trim().split("\\s+").length;
+    return Math.max(1, Math.max(characters, words));
+  }
+
+  /**
+   * True when the model rejected the request for exceeding its token or instance limits, or when
+   * it returned less embeddings than the chunks sent. Other invalid requests are not retried.
+   */
+  static boolean isSizeRejection(ErrorResponse error) {
+    return error.message().equals(SIZE_MISMATCH)
+        || (error.statusCode().filter(code -> code == 400).isPresent()
+            && LIMIT_REJECTION.matcher(error.message()).find());
+  }
+
+  /** A chunk of a document, its embeddings values are set at its position once retrieved. */
+  record ChunkRef(PendingDocument document, int chunk, String text) {}
+
+  record PendingDocument(
+      ContentChunks content,
+      Instant timestamp,
+      BoundedWindow window,
+      Float32Vector[] embeddings,
+      AtomicInteger remaining) {
+
+    PendingDocument(ContentChunks content, Instant timestamp, BoundedWindow window) {
+      this(
+          content,
+          timestamp,
+          window,
+          new Float32Vector[content.chunks().size()],
+          new AtomicInteger(content.chunks().size()));
+    }
+
+    void set(int chunk, Float32Vector values) {
+      embeddings[chunk] = values;
+      remaining.decrementAndGet();
+    }
+
+    boolean resolved() {
+      return remaining.get() == 0;
+    }
+
+    List<IndexableContent> indexable() {
+      return IntStream.range(0, content.chunks().size())
+          .mapToObj(
+              idx ->
+                  new IndexableContent(
+                      content.key() + Utilities.CONTENT_KEY_SEPARATOR + idx,
+                      content.chunks().get(idx),
+                      embeddings[idx],
+                      Optional.ofNullable(content.type())
+                          .map(Ingestion.SupportedType::mimeType)
+                          .orElse(null)))
+          .toList();
+    }
+  }
+
+  /**
+   * Packs the chunks of the documents in a bundle into embeddings requests bounded by the amount of
+   * instances and the estimated tokens, so large documents are split across requests and small ones
+   * share them. A request rejected as too large is split in halves and retried, other failures fail
+   * the bundle so it is retried as a whole. A document is output once all its chunks embeddings
+   * are back, right away when it shares the window of the element being processed and otherwise
+   * when the bundle finishes. Once the buffered chunks exceed a cap the pending requests are
+   * awaited before taking more chunks.
+   */
   static class EmbeddingsRetriever extends DoFn<ContentChunks, List<IndexableContent>> {
     private static final Logger LOG = LoggerFactory.getLogger(EmbeddingsRetriever.class);
     private final String embeddingsConfig;
+    private final Integer outputDimensionality;
+    private final String vectorConfig;
+    private final Integer maxInstances;
+    private final Integer maxTokens;
+    private final Integer maxInFlightRequests;
+    private final Integer maxBufferedChunks;
+    private transient List<PendingDocument> documents;
+    private transient int bufferedChunks;
+    private transient List<ChunkRef> batch;
+    private transient int batchTokens;
+    private transient Semaphore permits;
+    private transient List<CompletableFuture<Result<Integer, ErrorResponse>>> requests;
 
-    public EmbeddingsRetriever(String embeddingsConfig) {
+    public EmbeddingsRetriever(
+        String embeddingsConfig,
+        Integer outputDimensionality,
+        String vectorConfig,
+        Integer maxInstances,
+        Integer maxTokens,
+        Integer maxInFlightRequests,
+        Integer maxBufferedChunks) {
       this.embeddingsConfig = embeddingsConfig;
+      this.outputDimensionality = outputDimensionality;
+      this.vectorConfig = vectorConfig;
+      this.maxInstances = maxInstances;
+      this.maxTokens = maxTokens;
+      this.maxInFlightRequests = maxInFlightRequests;
+      this.maxBufferedChunks = maxBufferedChunks;
+    }
+
+    // embeddings of a different size than the storage ones would fail on every write
+    @Setup
+    public void setup() {
+      VectorDimensions.validate(
+              vectorConfig,
+              EmbeddingsRequests.dimensions(
+                  embeddingsConfig, Optional.ofNullable(outputDimensionality)))
+          .join()
+          .orElseThrow(
+              error -> new IllegalStateException(error.message(), error.cause().orElse(null)));
+    }
+
+    @StartBundle
+    public void startBundle() {
+      documents = new ArrayList<>();
+      bufferedChunks = 0;
+      batch = new ArrayList<>();
+      batchTokens = 0;
+      permits = new Semaphore(maxInFlightRequests);
+      requests = new ArrayList<>();
     }
 
     @ProcessElement
     public void process(
-        @Element ContentChunks content, OutputReceiver<List<IndexableContent>> receiver) {
-      var embResult =
-          Embeddings.retrieveEmbeddings(
-                  EmbeddingsRequests.create(
-                      embeddingsConfig, Embeddings.Types.TEXT, content.chunks()))
-              .join();
-      var embeddings =
-          embResult
-              .map(embs -> Embeddings.extractValuesFromEmbeddings(embs))
-              .map(
-                  embValues ->
-                      IntStream.range(0, content.chunks().size())
-                          .mapToObj(
-                              idx ->
-                                  new IndexableContent(
-                                      content.key() + Utilities.CONTENT_KEY_SEPARATOR + idx,
-                                      content.chunks().get(idx),
-                                      embValues.get(idx)))
-                          .toList())
-              .orElseThrow(error -> new RuntimeException(error.message(), error.cause().get()));
-      LOG.info("processed embeddings size: {}", embeddings, embeddings.size());
-      receiver.output(embeddings);
+        @Element ContentChunks content,
+        @Timestamp Instant timestamp,
+        BoundedWindow window,
+        OutputReceiver<List<IndexableContent>> receiver) {
+      var document = new PendingDocument(content, timestamp, window);
+      documents.add(document);
+      bufferedChunks += content.chunks().size();
+      for (int idx = 0; idx < content.chunks().size(); idx++) {
+        add(new ChunkRef(document, idx, content.chunks().get(idx)));
+      }
+      var full = bufferedChunks > maxBufferedChunks;
+      if (full) {
+        send();
+      }
+      collect(full);
+      // outputs can only go to the current window, and not before the current timestamp
+      var iterator = documents.iterator();
+      while (iterator.hasNext()) {
+        var pending = iterator.next();
+        if (pending.resolved() && pending.window().equals(window)) {
+          output(pending);
+          receiver.outputWithTimestamp(
+              pending.indexable(),
+              pending.timestamp().isBefore(timestamp) ? timestamp : pending.timestamp());
+          iterator.remove();
+        }
+      }
+    }
+
+    void add(ChunkRef chunk) {
+      var tokens = estimateTokens(chunk.text());
+      if (!batch.isEmpty()
+          && (batch.size() >= maxInstances || batchTokens + tokens > maxTokens)) {
+        send();
+      }
+      batch.add(chunk);
+      batchTokens += tokens;
+    }
+
+    void send() {
+      if (batch.isEmpty()) {
+        return;
+      }
+      var chunks = batch;
+      batch = new ArrayList<>();
+      batchTokens = 0;
+      requests.add(retrieve(chunks));
+    }
+
+    // completed requests are dropped as they keep their chunks, a failed one fails the bundle
+    void collect(boolean wait) {
+      var iterator = requests.iterator();
+      while (iterator.hasNext()) {
+        var request = iterator.next();
+        if (wait || request.isDone()) {
+          request
+              .join()
+              .orElseThrow(
+                  error -> new RuntimeException(error.message(), error.cause().orElse(null)));
+          iterator.remove();
+        }
+      }
+    }
+
+    void output(PendingDocument document) {
+      bufferedChunks -= document.content().chunks().size();
+      LOG.info(
+          "processed embeddings for {}, size: {}",
+          document.content().key(),
+          document.content().chunks().size());
+    }
+
+    void acquire() {
+      try {
+        permits.acquire();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while waiting for in flight requests.", ex);
+      }
+    }
+
+    CompletableFuture<Result<? extends Embeddings.Response, ErrorResponse>> request(
+        List<ChunkRef> chunks) {
+      return Embeddings.retrieveEmbeddings(
+          EmbeddingsRequests.create(
+              embeddingsConfig,
+              Embeddings.Types.TEXT,
+              chunks.stream().map(ChunkRef::text).toList(),
+              Optional.ofNullable(outputDimensionality)));
+    }
+
+    // every request, including the halves of a split one, holds a permit until its response
+    CompletableFuture<Result<Integer, ErrorResponse>> retrieve(List<ChunkRef> chunks) {
+      acquire();
+      CompletableFuture<Result<? extends Embeddings.Response, ErrorResponse>> response;
+      try {
+        response = request(chunks);
+      } catch (RuntimeException ex) {
+        response = CompletableFuture.failedFuture(ex);
+      }
+      return response
+          .exceptionally(error -> Result.failure("Embeddings request failed.", error))
+          .whenComplete((result, error) -> permits.release())
+          .thenApply(result -> result.map(Embeddings::extractValuesFromEmbeddings))
+          // splitting waits for permits, so it does not run on the thread completing the response
+          .<Result<Integer, ErrorResponse>>thenComposeAsync(
+              result -> {
+                if (result instanceof Result.Success<List<Float32Vector>, ErrorResponse>(var values)
+                    && values.size() == chunks.size()) {
+                  for (int i = 0; i < chunks.size(); i++) {
+                    var chunk = chunks.get(i);
+                    chunk.document().set(chunk.chunk(), values.get(i));
+                  }
+                  return CompletableFuture.completedFuture(Result.success(chunks.size()));
+                }
+                var error =
+                    switch (result) {
+                      case Result.Failure<List<Float32Vector>, ErrorResponse>(var failure) ->
+                          failure;
+                      case Result.Success<List<Float32Vector>, ErrorResponse> __ ->
+                          new ErrorResponse(SIZE_MISMATCH);
+                    };
+                // overload and shed requests fail the bundle, retrying them would add more load
+                if (chunks.size() == 1 || !isSizeRejection(error)) {
+                  return CompletableFuture.completedFuture(Result.failure(error));
+                }
+                // the request may exceed a model limit the estimation missed, retry its halves
+                LOG.warn(
+                    "embeddings request of {} chunks rejected, retrying it split: {}",
+                    chunks.size(),
+                    error.message());
+                var half = chunks.size() / 2;
+                return retrieve(chunks.subList(0, half))
+                    .thenCombine(
+                        retrieve(chunks.subList(half, chunks.size())),
+                        (first, second) -> first.flatMap(__ -> second).map(__ -> chunks.size()));
+              },
+              InteractionHelper.EXEC);
+    }
+
+    @FinishBundle
+    public void finishBundle(FinishBundleContext context) {
+      send();
+      collect(true);
+      for (var document : documents) {
+        output(document);
+        context.output(document.indexable(), document.timestamp(), document.window());
+      }
+      reportLimiters();
+      documents = new ArrayList<>();
+    }
+  }
+
+  record PendingMedia(
+      ContentChunks content,
+      Instant timestamp,
+      BoundedWindow window,
+      List<CompletableFuture<Result<List<Embeddings.MediaEmbedding>, ErrorResponse>>> requests) {}
+
+  /**
+   * Embeds each image or video of the content with a single multimodal request, the model does not
+   * accept more than one instance per request. Images get one vector and videos one per segment,
+   * stored with the media location and the segment offsets as their content.
+   */
+  static class MediaEmbeddingsRetriever extends DoFn<ContentChunks, List<IndexableContent>> {
+    private static final Logger LOG = LoggerFactory.getLogger(MediaEmbeddingsRetriever.class);
+    private final String embeddingsConfig;
+    private final Integer outputDimensionality;
+    private final Integer videoIntervalSec;
+    private final Integer maxInFlightRequests;
+    private transient List<PendingMedia> pending;
+    private transient Semaphore permits;
+
+    public MediaEmbeddingsRetriever(
+        String embeddingsConfig,
+        Integer outputDimensionality,
+        Integer videoIntervalSec,
+        Integer maxInFlightRequests) {
+      this.embeddingsConfig = embeddingsConfig;
+      this.outputDimensionality = outputDimensionality;
+      this.videoIntervalSec = videoIntervalSec;
+      this.maxInFlightRequests = maxInFlightRequests;
+    }
+
+    @StartBundle
+    public void startBundle() {
+      pending = new ArrayList<>();
+      permits = new Semaphore(maxInFlightRequests);
+    }
+
+    @ProcessElement
+    public void process(
+        @Element ContentChunks content, @Timestamp Instant timestamp, BoundedWindow window) {
+      var type = EmbeddingsRequests.mediaType(content.type()).get();
+      pending.add(
+          new PendingMedia(
+              content,
+              timestamp,
+              window,
+              content.chunks().stream().map(data -> retrieve(type, data)).toList()));
+    }
+
+    CompletableFuture<Result<List<Embeddings.MediaEmbedding>, ErrorResponse>> retrieve(
+        Embeddings.Types type, String data) {
+      try {
+        permits.acquire();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while waiting for in flight requests.", ex);
+      }
+      CompletableFuture<Result<? extends Embeddings.Response, ErrorResponse>> response;
+      try {
+        response =
+            Embeddings.retrieveEmbeddings(
+                EmbeddingsRequests.media(
+                    embeddingsConfig,
+                    type,
+                    data,
+                    Optional.ofNullable(outputDimensionality),
+                    Optional.ofNullable(videoIntervalSec)));
+      } catch (RuntimeException ex) {
+        response = CompletableFuture.failedFuture(ex);
+      }
+      return response
+          .exceptionally(error -> Result.failure("Media embeddings request failed.", error))
+          .thenApply(result -> result.map(Embeddings::extractMediaEmbeddings))
+          .whenComplete((result, error) -> permits.release());
+    }
+
+    static String describe(String data, Embeddings.MediaEmbedding embedding) {
+      if (embedding.startOffsetSec().isEmpty() && embedding.endOffsetSec().isEmpty()) {
+        return data;
+      }
+      return String.format(
+          "%s [%ds-%ds]",
+          data, embedding.startOffsetSec().orElse(0), embedding.endOffsetSec().orElse(0));
+    }
+
+    @FinishBundle
+    public void finishBundle(FinishBundleContext context) {
+      for (var media : pending) {
+        var content = media.content();
+        var embeddings = new ArrayList<IndexableContent>();
+        for (int idx = 0; idx < content.chunks().size(); idx++) {
+          var data = content.chunks().get(idx);
+          var values =
+              media
+                  .requests()
+                  .get(idx)
+                  .join()
+                  .orElseThrow(
+                      error -> new RuntimeException(error.message(), error.cause().orElse(null)));
+          for (var value : values) {
+            embeddings.add(
+                new IndexableContent(
+                    content.key() + Utilities.CONTENT_KEY_SEPARATOR + embeddings.size(),
+                    describe(data, value),
+                    value.values(),
+                    content.type().mimeType()));
+          }
+        }
+        LOG.info("processed media embeddings for {}, size: {}", content.key(), embeddings.size());
+        context.output(embeddings, media.timestamp(), media.window());
+      }
+      reportLimiters();
+      pending = new ArrayList<>();
     }
   }
 }
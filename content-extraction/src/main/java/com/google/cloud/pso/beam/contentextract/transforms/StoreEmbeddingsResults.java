@@ -22,6 +22,8 @@ import com.google.cloud.bigtable.data.v2.models.Query;
 import com.google.cloud.pso.beam.contentextract.ContentExtractionOptions;
 import com.google.cloud.pso.beam.contentextract.Types.IndexableContent;
 import com.google.cloud.pso.beam.contentextract.utils.DocContentRetriever;
+import com.google.cloud.pso.rag.common.Result;
+import com.google.cloud.pso.rag.common.Result.ErrorResponse;
 import com.google.cloud.pso.rag.common.Utilities;
 import com.google.cloud.pso.rag.drive.GoogleDriveClient;
 import com.google.cloud.pso.rag.vector.VectorRequests;
@@ -29,8 +31,20 @@ import com.google.cloud.pso.rag.vector.VectorRequests.Vector;
 import com.google.cloud.pso.rag.vector.Vectors;
 import com.google.common.collect.Lists;
 import com.google.protobuf.ByteString;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import org.apache.beam.sdk.io.gcp.bigtable.BigtableIO;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.PTransform;
@@ -56,6 +70,7 @@ public class StoreEmbeddingsResults extends PTransform<PCollection<List<Indexabl
     var options = input.getPipeline().getOptions().as(ContentExtractionOptions.class);
     var fetcher = DocContentRetriever.create(GoogleDriveClient.create(options.getServiceAccount()));
     var vectorsConfig = options.getVectorConfiguration();
+    var tenant = options.getTenant();
 
     input
         .apply(
@@ -74,9 +89,28 @@ public class StoreEmbeddingsResults extends PTransform<PCollection<List<Indexabl
                     options.getBigTableTableName(),
                     vectorsConfig)));
 
-    // store the embeddings into Matching Engine for later query
-    input.apply(
-        "UpsertIndexDatapoints", ParDo.of(new MatchingEngineDatapointUpsertDoFn(vectorsConfig)));
+    // store the embeddings into the vector storage for later query
+    if (options.getAlloyBulkLoad() && "alloydb".equals(vectorsConfig)) {
+      input.apply(
+          "BulkUpsertIndexDatapoints",
+          ParDo.of(
+              new AlloyDBBulkUpsertDoFn(
+                  vectorsConfig,
+                  tenant,
+                  options.getAlloyBulkLoadBatchSize(),
+                  options.getAlloyBulkLoadParallelism())));
+    } else {
+      input.apply(
+          "UpsertIndexDatapoints",
+          ParDo.of(
+              new MatchingEngineDatapointUpsertDoFn(
+                  vectorsConfig,
+                  tenant,
+                  options.getMaxInFlightVectorWrites(),
+                  options.getVectorWriteBatchSize(),
+                  options.getVectorWriteBatchBytes(),
+                  options.getVectorWriteBatchMaxAgeMillis())));
+    }
 
     // also, we need to store the content and its id into BigTable since the content is later
     // needed to set context for the text prediction model
@@ -93,6 +127,22 @@ public class StoreEmbeddingsResults extends PTransform<PCollection<List<Indexabl
     return PDone.in(input.getPipeline());
   }
 
+  /*
+  The stored vectors carry the metadata searches can filter on: the document they come from, its
+  mime type, the ingestion time and the configured tenant.
+  */
+  static Vector vectorWithMetadata(IndexableContent content, String tenant, Long ingestedAt) {
+    return new Vector(
+        content.key(),
+        content.embedding(),
+        new Vectors.Metadata(
+            CheckContentToRemoveFn.contentIdPrefix(content.key()),
+            content.mimeType(),
+            ingestedAt,
+            tenant,
+            content.content()));
+  }
+
   static class RemoveContentFromIndexes extends DoFn<List<String>, Void> {
 
     private final String projectId;
@@ -111,8 +161,13 @@ public class StoreEmbeddingsResults extends PTransform<PCollection<List<Indexabl
     @ProcessElement
     public void processElement(ProcessContext context) {
       LOG.info("ids to remove {}", context.element());
-      // remove data from the matching engine index
-      Vectors.removeVectors(VectorRequests.remove(vectorsConfig, context.element()));
+      // remove data from the matching engine index, content is kept until the vectors are gone
+      var response =
+          Vectors.removeVectors(VectorRequests.remove(vectorsConfig, context.element()))
+              .join()
+              .orElseThrow(
+                  error -> new RuntimeException(error.message(), error.cause().orElse(null)));
+      LOG.info("vectors removed, response: {}", response);
 
       // remove all the content rows with prefix
       try (var tableAdminClient = BigtableTableAdminClient.create(projectId, instanceId)) {
@@ -229,31 +284,283 @@ public class StoreEmbeddingsResults extends PTransform<PCollection<List<Indexabl
     }
   }
 
+  /**
+   * Keeps track of the writes a DoFn instance has in flight. Once the limit is reached new writes
+   * block the DoFn until a previous one is acknowledged, so the pipeline moves at the pace the
+   * storage accepts writes instead of queueing them. Failed writes fail the bundle, so it gets
+   * retried.
+   */
+  static class InFlightWrites {
+    private final Semaphore permits;
+    private final Queue<CompletableFuture<?>> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    InFlightWrites(Integer maxInFlight) {
+      this.permits = new Semaphore(maxInFlight);
+    }
+
+    void submit(
+        Supplier<CompletableFuture<? extends Result<?, ErrorResponse>>> write,
+        Consumer<Object> onAcknowledged) {
+      checkFailures();
+      try {
+        permits.acquire();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while waiting for in flight writes.", ex);
+      }
+      CompletableFuture<? extends Result<?, ErrorResponse>> future;
+      try {
+        future = write.get();
+      } catch (RuntimeException ex) {
+        permits.release();
+        throw ex;
+      }
+      pending.add(
+          future.whenComplete(
+              (result, error) -> {
+                permits.release();
+                if (error != null) {
+                  failure.compareAndSet(null, error);
+                  return;
+                }
+                switch (result) {
+                  case Result.Success<?, ErrorResponse>(var value) -> onAcknowledged.accept(value);
+                  case Result.Failure<?, ErrorResponse>(var errorResponse) ->
+                      failure.compareAndSet(
+                          null,
+                          new RuntimeException(
+                              errorResponse.message(), errorResponse.cause().orElse(null)));
+                }
+              }));
+    }
+
+    void awaitAll() {
+      CompletableFuture<?> next;
+      while ((next = pending.poll()) != null) {
+        next.exceptionally(__ -> null).join();
+      }
+      checkFailures();
+    }
+
+    void checkFailures() {
+      var error = failure.getAndSet(null);
+      if (error != null) {
+        throw new RuntimeException("Problems while writing to the vector storage.", error);
+      }
+    }
+  }
+
+  /**
+   * Accumulates the vectors of consecutive elements and writes them in batches, flushed once the
+   * batch reaches the max amount of datapoints, its estimated size in bytes or its max age. Writes
+   * go through the in flight tracker, so several batches can be on their way to the storage. A
+   * batch keeps only the last vector of each id, upserts can not update the same row twice, and a
+   * vector whose id is still being written waits for that write, so versions land in order.
+   */
+  static class VectorWriteBatcher {
+    private final Integer maxDatapoints;
+    private final Integer maxBytes;
+    private final Long maxAgeMillis;
+    private final InFlightWrites writes;
+    private final Function<List<Vector>, CompletableFuture<? extends Result<?, ErrorResponse>>>
+        store;
+    private final Set<String> inFlightIds = ConcurrentHashMap.newKeySet();
+    private Map<String, Vector> batch = new LinkedHashMap<>();
+    private long batchBytes = 0;
+    private long batchStartMillis = 0;
+
+    VectorWriteBatcher(
+        String vectorsConfig,
+        Integer maxDatapoints,
+        Integer maxBytes,
+        Long maxAgeMillis,
+        InFlightWrites writes) {
+      this(
+          maxDatapoints,
+          maxBytes,
+          maxAgeMillis,
+          writes,
+          vectors -> Vectors.storeVector(VectorRequests.store(vectorsConfig, vectors)));
+    }
+
+    VectorWriteBatcher(
+        Integer maxDatapoints,
+        Integer maxBytes,
+        Long maxAgeMillis,
+        InFlightWrites writes,
+        Function<List<Vector>, CompletableFuture<? extends Result<?, ErrorResponse>>> store) {
+      this.maxDatapoints = maxDatapoints;
+      this.maxBytes = maxBytes;
+      this.maxAgeMillis = maxAgeMillis;
+      this.writes = writes;
+      this.store = store;
+    }
+
+    // float values plus the id and metadata text, close enough to size the requests
+    static long estimatedBytes(Vector vector) {
+      var metadata = vector.metadata();
+      return vector.values().dimensions() * 4L
+          + vector.id().map(String::length).orElse(0)
+          + Optional.ofNullable(metadata.sourceId()).map(String::length).orElse(0)
+          + Optional.ofNullable(metadata.mimeType()).map(String::length).orElse(0)
+          + Optional.ofNullable(metadata.tenant()).map(String::length).orElse(0)
+          + Optional.ofNullable(metadata.content()).map(String::length).orElse(0);
+    }
+
+    void add(Vector vector) {
+      var id =
+          vector
+              .id()
+              .orElseThrow(() -> new IllegalArgumentException("Stored vectors should have an id."));
+      if (inFlightIds.contains(id)) {
+        flush();
+        writes.awaitAll();
+      }
+      var replaced = batch.remove(id);
+      if (replaced != null) {
+        batchBytes -= estimatedBytes(replaced);
+      }
+      var bytes = estimatedBytes(vector);
+      if (!batch.isEmpty() && batchBytes + bytes > maxBytes) {
+        flush();
+      }
+      if (batch.isEmpty()) {
+        batchStartMillis = System.currentTimeMillis();
+      }
+      batch.put(id, vector);
+      batchBytes += bytes;
+      if (batch.size() >= maxDatapoints
+          || batchBytes >= maxBytes
+          || System.currentTimeMillis() - batchStartMillis >= maxAgeMillis) {
+        flush();
+      }
+    }
+
+    void flush() {
+      if (batch.isEmpty()) {
+        return;
+      }
+      var ids = List.copyOf(batch.keySet());
+      var vectors = List.copyOf(batch.values());
+      batch = new LinkedHashMap<>();
+      batchBytes = 0;
+      inFlightIds.addAll(ids);
+      writes.submit(
+          () -> store.apply(vectors),
+          response -> {
+            inFlightIds.removeAll(ids);
+            LOG.info("vector stored count: {}, response: {}", vectors.size(), response);
+          });
+    }
+
+    /** Writes the pending vectors and waits for all the writes to be acknowledged. */
+    void finish() {
+      flush();
+      writes.awaitAll();
+    }
+  }
+
   static class MatchingEngineDatapointUpsertDoFn extends DoFn<List<IndexableContent>, Void> {
-    private static final Logger LOG =
-        LoggerFactory.getLogger(MatchingEngineDatapointUpsertDoFn.class);
     private final String vectorsConfig;
+    private final String tenant;
+    private final Integer maxInFlightWrites;
+    private final Integer batchSize;
+    private final Integer batchBytes;
+    private final Long batchMaxAgeMillis;
+    private transient VectorWriteBatcher writer;
+
+    public MatchingEngineDatapointUpsertDoFn(
+        String vectorsConfig,
+        String tenant,
+        Integer maxInFlightWrites,
+        Integer batchSize,
+        Integer batchBytes,
+        Long batchMaxAgeMillis) {
+      this.vectorsConfig = vectorsConfig;
+      this.tenant = tenant;
+      this.maxInFlightWrites = maxInFlightWrites;
+      this.batchSize = batchSize;
+      this.batchBytes = batchBytes;
+      this.batchMaxAgeMillis = batchMaxAgeMillis;
+    }
+
+    @StartBundle
+    public void startBundle() {
+      writer =
+          new VectorWriteBatcher(
+              vectorsConfig,
+              batchSize,
+              batchBytes,
+              batchMaxAgeMillis,
+              new InFlightWrites(maxInFlightWrites));
+    }
+
+    @ProcessElement
+    public void process(ProcessContext context) {
+      var ingestedAt = Instant.now().getMillis();
+      context
+          .element()
+          .forEach(content -> writer.add(vectorWithMetadata(content, tenant, ingestedAt)));
+    }
+
+    // the bundle only commits once all its writes were acknowledged
+    @FinishBundle
+    public void finishBundle() {
+      writer.finish();
+    }
+  }
+
+  static class AlloyDBBulkUpsertDoFn extends DoFn<List<IndexableContent>, Void> {
+    private static final Logger LOG = LoggerFactory.getLogger(AlloyDBBulkUpsertDoFn.class);
+    private final String vectorsConfig;
+    private final String tenant;
+    private final Integer batchSize;
+    private final Integer parallelism;
+    private transient List<Vector> buffer;
 
-    public MatchingEngineDatapointUpsertDoFn(String vectorsConfig) {
+    public AlloyDBBulkUpsertDoFn(
+        String vectorsConfig, String tenant, Integer batchSize, Integer parallelism) {
       this.vectorsConfig = vectorsConfig;
+      this.tenant = tenant;
+      this.batchSize = batchSize;
+      this.parallelism = parallelism;
+    }
+
+    @StartBundle
+    public void startBundle() {
+      buffer = Lists.newArrayList();
     }
 
     @ProcessElement
     public void process(ProcessContext context) {
-      // recommendation is not to send more than 20 datapoints per request to matching engine
-      // index upsert method
-      Lists.partition(context.element(), 15)
-          .forEach(
-              embeddings -> {
-                Vectors.storeVector(
-                        VectorRequests.store(
-                            vectorsConfig,
-                            embeddings.stream()
-                                .map(content -> new Vector(content.key(), content.embedding()))
-                                .toList()))
-                    .join();
-                LOG.info("vector stored count: {}", embeddings.size());
-              });
+      var ingestedAt = Instant.now().getMillis();
+      context.element().stream()
+          .map(content -> vectorWithMetadata(content, tenant, ingestedAt))
+          .forEach(buffer::add);
+      // flush once there is enough data to keep all the parallel batches busy
+      if (buffer.size() >= batchSize * parallelism) {
+        flush();
+      }
+    }
+
+    @FinishBundle
+    public void finishBundle() {
+      flush();
+    }
+
+    void flush() {
+      if (buffer.isEmpty()) {
+        return;
+      }
+      var response =
+          Vectors.storeVector(
+                  VectorRequests.bulkStore(vectorsConfig, buffer, batchSize, parallelism))
+              .join()
+              .orElseThrow(
+                  error -> new RuntimeException(error.message(), error.cause().orElse(null)));
+      LOG.info("vector bulk stored count: {}, response: {}", buffer.size(), response);
+      buffer = Lists.newArrayList();
     }
   }
 }
@@ -28,15 +28,37 @@ public class GCPEnvironmentInitializer implements JvmInitializer {
   @Override
   public void beforeProcessing(PipelineOptions options) {
     var extractionOptions = options.as(ContentExtractionOptions.class);
+    var poolDefaults = GCPEnvironment.ConnectionPoolConfig.defaults();
+    var alloyDBPoolConfig =
+        new GCPEnvironment.ConnectionPoolConfig(
+            extractionOptions.getAlloyPoolMaxSize(),
+            extractionOptions.getAlloyPoolMaxQueuedRequests(),
+            poolDefaults.connectionTimeout(),
+            poolDefaults.keepaliveTime(),
+            poolDefaults.maxLifetime(),
+            poolDefaults.leakDetectionThreshold());
     var alloyDBConfig =
-      new GCPEnvironment.AlloyDBConfig(
-        extractionOptions.getAlloyIpAddress(),
-        extractionOptions.getAlloyDatabaseName(),
-        extractionOptions.getAlloyUser(),
-        extractionOptions.getAlloyPass(),
-        extractionOptions.getAlloySchema(),
-        extractionOptions.getAlloyTableName()
-    );
+        new GCPEnvironment.AlloyDBConfig(
+            extractionOptions.getAlloyIpAddress(),
+            extractionOptions.getAlloyDatabaseName(),
+            extractionOptions.getAlloyUser(),
+            extractionOptions.getAlloyPass(),
+            extractionOptions.getAlloySchema(),
+            extractionOptions.getAlloyTableName(),
+            alloyDBPoolConfig,
+            extractionOptions.getAlloyVectorEncoding(),
+            GCPEnvironment.ReadReplicasConfig.none(),
+            GCPEnvironment.QuantizedSearch.none(),
+            GCPEnvironment.AlloyDBDriver.JDBC);
+    var limitDefaults = GCPEnvironment.ConcurrencyLimitConfig.defaults();
+    var vertexAILimits =
+        new GCPEnvironment.ConcurrencyLimitConfig(
+            extractionOptions.getVertexAIConcurrencyInitialLimit(),
+            limitDefaults.minLimit(),
+            extractionOptions.getVertexAIConcurrencyMaxLimit(),
+            extractionOptions.getVertexAIMaxQueuedRequests(),
+            limitDefaults.maxQueueWait(),
+            limitDefaults.latencyTolerance());
     var config =
         new GCPEnvironment.Config(
             extractionOptions.getProject(),
@@ -47,7 +69,8 @@ public class GCPEnvironmentInitializer implements JvmInitializer {
                 extractionOptions.getMatchingEngineIndexEndpointId(),
                 extractionOptions.getMatchingEngineIndexId(),
                 extractionOptions.getMatchingEngineIndexEndpointDeploymentName()),
-                alloyDBConfig);
+                alloyDBConfig,
+                vertexAILimits);
     GCPEnvironment.trySetup(config);
   }
 }
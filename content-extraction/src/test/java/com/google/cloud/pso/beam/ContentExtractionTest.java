@@ -25,13 +25,18 @@ import com.google.api.services.docs.v1.model.TextRun;
 import com.google.api.services.drive.Drive;
 import com.google.api.services.drive.model.File;
 import com.google.api.services.drive.model.FileList;
+import com.google.cloud.pso.beam.contentextract.Types.IndexableContent;
+import com.google.cloud.pso.beam.contentextract.Types.IndexableContentCoder;
 import com.google.cloud.pso.beam.contentextract.utils.DocContentRetriever;
 import com.google.cloud.pso.beam.contentextract.utils.ExtractionUtils;
+import com.google.cloud.pso.rag.common.Float32Vector;
+import com.google.cloud.pso.rag.common.InteractionHelper;
 import com.google.cloud.pso.rag.common.Utilities;
 import com.google.cloud.pso.rag.drive.GoogleDriveAPIMimeTypes;
 import com.google.cloud.pso.rag.drive.GoogleDriveClient;
 import java.io.IOException;
 import java.util.List;
+import org.apache.beam.sdk.util.CoderUtils;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.ArgumentMatchers;
@@ -115,4 +120,26 @@ public class ContentExtractionTest {
     Assert.assertEquals(
         expected, Utilities.newIdFromTitleAndDriveId("[name] some 2022 info", "18Ds2syb04"));
   }
+
+  @Test
+  public void testIndexableContentCoderRoundTrip() throws IOException {
+    var content =
+        new IndexableContent("some_key", "some content", Float32Vector.of(0.5f, -1.25f, 3e-5f));
+    var decoded =
+        CoderUtils.decodeFromByteArray(
+            IndexableContentCoder.of(),
+            CoderUtils.encodeToByteArray(IndexableContentCoder.of(), content));
+    Assert.assertEquals(content, decoded);
+  }
+
+  @Test
+  public void testFloat32VectorJson() {
+    var vector = Float32Vector.of(0.5f, -1.25f, 2f);
+    var json = InteractionHelper.jsonMapper(vector).orElseThrow(RuntimeException::new);
+    Assert.assertEquals("[0.5,-1.25,2.0]", json);
+    Assert.assertEquals(
+        vector,
+        InteractionHelper.jsonMapper(json, Float32Vector.class)
+            .orElseThrow(RuntimeException::new));
+  }
 }
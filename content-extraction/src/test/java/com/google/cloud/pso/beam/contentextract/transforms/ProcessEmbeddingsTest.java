@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pso.beam.contentextract.transforms;
+
+import com.google.cloud.pso.beam.contentextract.Types.ContentChunks;
+import com.google.cloud.pso.beam.contentextract.Types.IndexableContent;
+import com.google.cloud.pso.beam.contentextract.transforms.ProcessEmbeddings.ChunkRef;
+import com.google.cloud.pso.beam.contentextract.transforms.ProcessEmbeddings.PendingDocument;
+import com.google.cloud.pso.rag.common.Float32Vector;
+import com.google.cloud.pso.rag.common.Ingestion;
+import com.google.cloud.pso.rag.common.Result;
+import com.google.cloud.pso.rag.common.Result.ErrorResponse;
+import com.google.cloud.pso.rag.embeddings.Embeddings;
+import com.google.cloud.pso.rag.embeddings.LocalEmbeddings;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
+import org.joda.time.Instant;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+/** */
+public class ProcessEmbeddingsTest {
+
+  private static final String MULTIMODAL = "multimodalembedding@001";
+  private static final String TEXT = "text-embedding-005";
+  private static final String TOKEN_LIMIT =
+      "Error returned by embeddings model m, code: 400, message: Unable to submit request because"
+          + " the input token count is 21000 but the model supports up to 20000.";
+
+  /**
+   * Records the packed requests instead of sending them, every chunk gets its index as value. The
+   * first requests can be rejected with the given error instead.
+   */
+  static class RecordingRetriever extends ProcessEmbeddings.EmbeddingsRetriever {
+    final List<List<String>> requests = new CopyOnWriteArrayList<>();
+    final AtomicInteger rejections = new AtomicInteger();
+    ErrorResponse rejection;
+
+    RecordingRetriever(int maxInstances, int maxTokens, int maxBufferedChunks) {
+      super(TEXT, null, "unused", maxInstances, maxTokens, 4, maxBufferedChunks);
+      startBundle();
+    }
+
+    @Override
+    CompletableFuture<Result<? extends Embeddings.Response, ErrorResponse>> request(
+        List<ChunkRef> chunks) {
+      requests.add(chunks.stream().map(ChunkRef::text).toList());
+      if (rejections.getAndDecrement() > 0) {
+        return CompletableFuture.completedFuture(Result.failure(rejection));
+      }
+      return CompletableFuture.completedFuture(
+          Result.success(
+              new LocalEmbeddings.Response(
+                  chunks.stream().map(chunk -> Float32Vector.of(chunk.chunk())).toList())));
+    }
+
+    PendingDocument add(String key, List<String> chunks) {
+      var document =
+          new PendingDocument(new ContentChunks(key, chunks), Instant.now(), GlobalWindow.INSTANCE);
+      for (int idx = 0; idx < chunks.size(); idx++) {
+        add(new ChunkRef(document, idx, chunks.get(idx)));
+      }
+      return document;
+    }
+  }
+
+  static List<Integer> sizes(List<List<String>> requests) {
+    return requests.stream().map(List::size).toList();
+  }
+
+  @Test
+  public void testStorageLinksAreEmbeddedAsMedia() {
+    Assert.assertTrue(
+        ProcessEmbeddings.isMedia(
+            MULTIMODAL, Ingestion.SupportedType.PNG_LINK, List.of("gs://bucket/image.png")));
+    Assert.assertTrue(
+        ProcessEmbeddings.isMedia(
+            MULTIMODAL, Ingestion.SupportedType.MP4_LINK, List.of("gs://bucket/video.mp4")));
+  }
+
+  @Test
+  public void testOtherLinksAreDescribed() {
+    Assert.assertFalse(
+        ProcessEmbeddings.isMedia(
+            MULTIMODAL,
+            Ingestion.SupportedType.JPEG_LINK,
+            List.of("https://example.com/image.jpg")));
+    Assert.assertFalse(
+        ProcessEmbeddings.isMedia(
+            MULTIMODAL,
+            Ingestion.SupportedType.MP4_LINK,
+            List.of("gs://bucket/video.mp4", "https://example.com/video.mp4")));
+  }
+
+  @Test
+  public void testRawMediaIsEmbeddedAsMedia() {
+    Assert.assertTrue(
+        ProcessEmbeddings.isMedia(MULTIMODAL, Ingestion.SupportedType.PNG, List.of("iVBORw0KGgo")));
+    Assert.assertTrue(
+        ProcessEmbeddings.isMedia(MULTIMODAL, Ingestion.SupportedType.MP4, List.of("AAAAIGZ0eXA")));
+  }
+
+  @Test
+  public void testTextModelsDescribeMedia() {
+    Assert.assertFalse(
+        ProcessEmbeddings.isMedia(
+            TEXT, Ingestion.SupportedType.PNG_LINK, List.of("gs://bucket/image.png")));
+    Assert.assertFalse(
+        ProcessEmbeddings.isMedia(MULTIMODAL, Ingestion.SupportedType.PDF, List.of("content")));
+    Assert.assertFalse(ProcessEmbeddings.isMedia(MULTIMODAL, null, List.of("content")));
+  }
+
+  @Test
+  public void testEstimateTokens() {
+    Assert.assertEquals(1, ProcessEmbeddings.estimateTokens(""));
+    Assert.assertEquals(1, ProcessEmbeddings.estimateTokens("word"));
+    Assert.assertEquals(5, ProcessEmbeddings.estimateTokens("some english prose"));
+    // short words and numbers are at least a token each
+    Assert.assertEquals(6, ProcessEmbeddings.estimateTokens("1 2 3 4 5 6"));
+    Assert.assertEquals(100, ProcessEmbeddings.estimateTokens("x".repeat(400)));
+  }
+
+  @Test
+  public void testPacksByInstances() {
+    var retriever = new RecordingRetriever(2, 1000, 1000);
+    retriever.add("doc", List.of("a", "b", "c", "d", "e"));
+    retriever.send();
+    retriever.collect(true);
+
+    Assert.assertEquals(List.of(2, 2, 1), sizes(retriever.requests));
+  }
+
+  @Test
+  public void testPacksByTokens() {
+    var retriever = new RecordingRetriever(250, 10, 1000);
+    // 6 tokens each, two of them go over the limit, a larger chunk is still sent on its own
+    retriever.add("doc", List.of("x".repeat(24), "y".repeat(24), "z".repeat(80), "w"));
+    retriever.send();
+    retriever.collect(true);
+
+    Assert.assertEquals(
+        List.of(
+            List.of("x".repeat(24)),
+            List.of("y".repeat(24)),
+            List.of("z".repeat(80)),
+            List.of("w")),
+        retriever.requests);
+  }
+
+  @Test
+  public void testSmallDocumentsShareRequests() {
+    var retriever = new RecordingRetriever(250, 1000, 1000);
+    var first = retriever.add("first", List.of("a", "b"));
+    var second = retriever.add("second", List.of("c"));
+    Assert.assertFalse(first.resolved());
+    retriever.send();
+    retriever.collect(true);
+
+    Assert.assertEquals(List.of(List.of("a", "b", "c")), retriever.requests);
+    Assert.assertTrue(first.resolved());
+    Assert.assertTrue(second.resolved());
+    Assert.assertEquals(
+        List.of("first___0", "first___1"),
+        first.indexable().stream().map(IndexableContent::key).toList());
+    Assert.assertEquals(Float32Vector.of(1f), first.indexable().get(1).embedding());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testOutputsDocumentsOnceResolved() {
+    var retriever = new RecordingRetriever(2, 1000, 3);
+    DoFn.OutputReceiver<List<IndexableContent>> receiver =
+        Mockito.mock(DoFn.OutputReceiver.class);
+    var earlier = new Instant(1000);
+    var later = new Instant(2000);
+
+    retriever.process(
+        new ContentChunks("first", List.of("a", "b", "c")),
+        earlier,
+        GlobalWindow.INSTANCE,
+        receiver);
+    // the first request is back, but the last chunk waits for the next one
+    Mockito.verifyNoInteractions(receiver);
+
+    // over the buffered chunks cap, so the pending requests are sent and awaited
+    retriever.process(
+        new ContentChunks("second", List.of("d")), later, GlobalWindow.INSTANCE, receiver);
+    var outputs = ArgumentCaptor.forClass(List.class);
+    var timestamps = ArgumentCaptor.forClass(Instant.class);
+    Mockito.verify(receiver, Mockito.times(2))
+        .outputWithTimestamp(outputs.capture(), timestamps.capture());
+    Assert.assertEquals(List.of(3, 1), outputs.getAllValues().stream().map(List::size).toList());
+    // outputs can not go before the timestamp of the element being processed
+    Assert.assertEquals(List.of(later, later), timestamps.getAllValues());
+  }
+
+  @Test
+  public void testSizeRejections() {
+    Assert.assertTrue(ProcessEmbeddings.isSizeRejection(new ErrorResponse(TOKEN_LIMIT, 400)));
+    Assert.assertTrue(
+        ProcessEmbeddings.isSizeRejection(
+            new ErrorResponse("Embeddings response size does not match the request.")));
+    // other invalid requests would fail the same way once split
+    Assert.assertFalse(
+        ProcessEmbeddings.isSizeRejection(
+            new ErrorResponse("Error returned by embeddings model m, message: bad model", 400)));
+    // the limit is only trusted from the status, not from the text of the error
+    Assert.assertFalse(ProcessEmbeddings.isSizeRejection(new ErrorResponse(TOKEN_LIMIT)));
+    Assert.assertFalse(
+        ProcessEmbeddings.isSizeRejection(
+            new ErrorResponse("Error returned by embeddings model m, message: exceeded", 429)));
+    Assert.assertFalse(
+        ProcessEmbeddings.isSizeRejection(
+            new ErrorResponse("Error occurred while sending the request.")));
+  }
+
+  @Test
+  public void testSplitsRequestsRejectedBySize() {
+    var retriever = new RecordingRetriever(250, 1000, 1000);
+    retriever.rejection = new ErrorResponse(TOKEN_LIMIT, 400);
+    retriever.rejections.set(1);
+    var first = retriever.add("first", List.of("a", "b"));
+    var second = retriever.add("second", List.of("c", "d"));
+    retriever.send();
+    retriever.collect(true);
+
+    Assert.assertEquals(List.of(4, 2, 2), sizes(retriever.requests));
+    Assert.assertTrue(first.resolved());
+    Assert.assertTrue(second.resolved());
+    Assert.assertEquals(Float32Vector.of(1f), second.indexable().get(1).embedding());
+  }
+
+  @Test
+  public void testOtherRejectionsFailTheBundle() {
+    var retriever = new RecordingRetriever(250, 1000, 1000);
+    retriever.rejection =
+        new ErrorResponse("Error returned by embeddings model m, message: quota exceeded", 429);
+    retriever.rejections.set(1);
+    var document = retriever.add("doc", List.of("a", "b"));
+    retriever.send();
+
+    Assert.assertThrows(RuntimeException.class, () -> retriever.collect(true));
+    Assert.assertEquals(List.of(2), sizes(retriever.requests));
+    Assert.assertFalse(document.resolved());
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pso.beam.contentextract.transforms;
+
+import com.google.cloud.pso.beam.contentextract.transforms.StoreEmbeddingsResults.InFlightWrites;
+import com.google.cloud.pso.beam.contentextract.transforms.StoreEmbeddingsResults.VectorWriteBatcher;
+import com.google.cloud.pso.rag.common.Float32Vector;
+import com.google.cloud.pso.rag.common.Result;
+import com.google.cloud.pso.rag.common.Result.ErrorResponse;
+import com.google.cloud.pso.rag.vector.VectorRequests.Vector;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+/** */
+public class StoreEmbeddingsResultsTest {
+
+  private final List<List<Vector>> writes = new CopyOnWriteArrayList<>();
+  private final List<String> events = new CopyOnWriteArrayList<>();
+
+  static Vector vector(String id, float value) {
+    return new Vector(id, Float32Vector.of(value));
+  }
+
+  static List<String> ids(List<Vector> vectors) {
+    return vectors.stream().map(vector -> vector.id().get()).toList();
+  }
+
+  VectorWriteBatcher batcher(int maxDatapoints) {
+    return new VectorWriteBatcher(
+        maxDatapoints,
+        Integer.MAX_VALUE,
+        Long.MAX_VALUE,
+        new InFlightWrites(4),
+        vectors -> {
+          writes.add(vectors);
+          events.add("start " + ids(vectors));
+          // acknowledged later, so the next batches are sent while this one is in flight
+          return CompletableFuture.supplyAsync(
+              () -> {
+                events.add("end " + ids(vectors));
+                return Result.<Object, ErrorResponse>success(vectors.size());
+              },
+              CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS));
+        });
+  }
+
+  @Test
+  public void testKeepsLastVectorOfEachIdInBatch() {
+    var batcher = batcher(10);
+    // the same document arriving on two elements of the bundle
+    batcher.add(vector("doc___0", 1f));
+    batcher.add(vector("doc___1", 1f));
+    batcher.add(vector("doc___0", 2f));
+    batcher.finish();
+
+    Assert.assertEquals(1, writes.size());
+    Assert.assertEquals(List.of("doc___1", "doc___0"), ids(writes.get(0)));
+    Assert.assertEquals(Float32Vector.of(2f), writes.get(0).get(1).values());
+  }
+
+  @Test
+  public void testWaitsForInFlightWritesOfTheSameId() {
+    var batcher = batcher(2);
+    batcher.add(vector("doc___0", 1f));
+    batcher.add(vector("doc___1", 1f));
+    batcher.add(vector("other___0", 1f));
+    batcher.add(vector("doc___0", 2f));
+    batcher.finish();
+
+    // the second version of the datapoint is only sent once the first one was acknowledged
+    Assert.assertEquals(
+        List.of("start [doc___0, doc___1]", "start [other___0]", "start [doc___0]"),
+        events.stream().filter(event -> event.startsWith("start")).toList());
+    Assert.assertTrue(
+        events.indexOf("end [doc___0, doc___1]") < events.indexOf("start [doc___0]"));
+    Assert.assertEquals(Float32Vector.of(2f), writes.get(2).get(0).values());
+  }
+
+  @Test
+  public void testSendsDistinctIdsWithoutWaiting() {
+    var batcher = batcher(1);
+    batcher.add(vector("doc___0", 1f));
+    batcher.add(vector("doc___1", 1f));
+    batcher.finish();
+
+    Assert.assertEquals(List.of("start [doc___0]", "start [doc___1]"), events.subList(0, 2));
+  }
+}
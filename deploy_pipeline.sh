@@ -56,6 +56,7 @@ LAUNCH_PARAMS=" \
  --matchingEngineIndexEndpointDeploymentName=$INDEX_ENDPOINT_DEPLOYMENT \
  --bigTableInstanceName=$RUN_NAME-instance \
  --embeddingsConfiguration=$EMBEDDINGS_CONFIG \
+ --embeddingsOutputDimensionality=$EMBEDDINGS_DIMENSIONS \
  --vectorConfiguration=$VECTOR_CONFIG \
  --chunkerConfiguration=$CHUNKER_CONFIG \
  --serviceAccount=$DF_SA \
@@ -22,6 +22,7 @@ locals {
         "bot.includeownknowledge" : "${var.bot_include_own_knowledge}",
         "service.account" : "${google_service_account.dataflow_runner_sa.email}",
         "embeddings_models" : ${jsonencode(var.embeddings_models)},
+        "embeddings.outputDimensionality" : ${var.embeddings_dimensions},
         "vector_storages" : ${jsonencode(var.vector_storages)},
         "llms" : ${jsonencode(var.llms)},
         "chunkers" : ${jsonencode(var.chunkers)},
@@ -190,11 +190,17 @@ variable "bot_include_own_knowledge" {
 }
 
 variable "embeddings_models" {
-  description = "A list of embeddings models which will be used as part of the ingestion and query path."
+  description = "A list of embeddings models which will be used as part of the ingestion and query path, \"local\" computes them in process for load tests."
   type        = set(string)
   default     = ["text-embedding-005"]
 }
 
+variable "embeddings_dimensions" {
+  description = "The size of the embeddings vectors, changing it replaces the Vector Search index."
+  type        = number
+  default     = 768
+}
+
 variable "vector_storages" {
   description = "A list of storage engines in use for embeddings vector searches."
   type        = set(string)
@@ -282,6 +288,10 @@ output "embeddings_models" {
   value = one(var.embeddings_models)
 }
 
+output "embeddings_dimensions" {
+  value = var.embeddings_dimensions
+}
+
 output "vector_storages" {
   value = tolist(var.vector_storages)[0]
 }
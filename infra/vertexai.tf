@@ -3,7 +3,7 @@ data "google_project" "project" {
 }
 
 locals {
-  dimensions = 768
+  dimensions = var.embeddings_dimensions
   network    = "projects/${data.google_project.project.number}/global/networks/${google_compute_network.net_priv.name}"
   embeddings = jsonencode(range(local.dimensions))
 }
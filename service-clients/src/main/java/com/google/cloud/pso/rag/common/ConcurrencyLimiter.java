@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pso.rag.common;
+
+import java.net.ConnectException;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adaptive bound on the concurrent requests sent to a backend, shared by all the callers in the
+ * process. The limit grows additively while requests succeed at a steady latency and shrinks
+ * multiplicatively on overload responses or latency spikes, at most once per round trip. Requests
+ * over the limit are queued and shed when the queue is full or they wait for too long, and a
+ * {@code Retry-After} hint holds every new request until it elapses.
+ */
+public class ConcurrencyLimiter {
+  private static final Logger LOG = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+  private static final Map<String, ConcurrencyLimiter> LIMITERS = new ConcurrentHashMap<>();
+  private static final ScheduledExecutorService SCHEDULER =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            var thread = new Thread(runnable, "concurrency-limiter");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private static final double OVERLOAD_BACKOFF = 0.5;
+  private static final double LATENCY_BACKOFF = 0.9;
+  private static final double BASELINE_DRIFT = 0.01;
+  private static final long MIN_DECREASE_INTERVAL_NANOS = Duration.ofMillis(100).toNanos();
+
+  public enum Signal {
+    SUCCESS,
+    OVERLOAD,
+    IGNORE
+  }
+
+  /** How a completed request affects the limit, failures unrelated to load are ignored. */
+  public record Feedback(Signal signal, Optional<Duration> retryAfter) {
+
+    public static Feedback success() {
+      return new Feedback(Signal.SUCCESS, Optional.empty());
+    }
+
+    public static Feedback overload(Optional<Duration> retryAfter) {
+      return new Feedback(Signal.OVERLOAD, retryAfter);
+    }
+
+    public static Feedback ignore() {
+      return new Feedback(Signal.IGNORE, Optional.empty());
+    }
+
+    public static Feedback fromStatus(int statusCode, Optional<String> retryAfter) {
+      return switch (statusCode) {
+        case 429, 503 -> overload(retryAfter.flatMap(Feedback::parseRetryAfter));
+        default -> statusCode < 400 ? success() : ignore();
+      };
+    }
+
+    public static Feedback fromHttp(HttpResponse<?> response) {
+      return fromStatus(response.statusCode(), response.headers().firstValue("Retry-After"));
+    }
+
+    /** Timeouts and refused connections are the backend dropping requests, so they count. */
+    public static Feedback fromError(Throwable error) {
+      var cause = error instanceof CompletionException ? error.getCause() : error;
+      return cause instanceof HttpTimeoutException || cause instanceof ConnectException
+          ? overload(Optional.empty())
+          : ignore();
+    }
+
+    // only the delay in seconds form is used by Google APIs
+    static Optional<Duration> parseRetryAfter(String value) {
+      try {
+        return Optional.of(Duration.ofSeconds(Long.parseLong(value.trim())));
+      } catch (NumberFormatException ex) {
+        return Optional.empty();
+      }
+    }
+  }
+
+  public record LimiterMetrics(
+      String key,
+      Integer limit,
+      Integer inFlight,
+      Integer queued,
+      Long rejectedRequests,
+      Long overloads) {}
+
+  record Waiting(Runnable start, CompletableFuture<?> response) {}
+
+  private final String key;
+  private final GCPEnvironment.ConcurrencyLimitConfig config;
+  // guarded by this
+  private final ArrayDeque<Waiting> queue = new ArrayDeque<>();
+  private double limit;
+  private int inFlight = 0;
+  private long baselineNanos = 0;
+  private long lastDecreaseNanos = 0;
+  private long blockedUntilNanos = 0;
+  private boolean drainScheduled = false;
+  private long rejected = 0;
+  private long overloads = 0;
+
+  ConcurrencyLimiter(String key, GCPEnvironment.ConcurrencyLimitConfig config) {
+    this.key = key;
+    this.config = config;
+    this.limit = config.initialLimit();
+  }
+
+  /** The limiter for the key, created with the configured Vertex AI limits on first use. */
+  public static ConcurrencyLimiter forKey(String key) {
+    return LIMITERS.computeIfAbsent(
+        key, k -> new ConcurrencyLimiter(k, GCPEnvironment.config().vertexAILimits()));
+  }
+
+  public static List<LimiterMetrics> allMetrics() {
+    return LIMITERS.values().stream().map(ConcurrencyLimiter::metrics).toList();
+  }
+
+  public synchronized LimiterMetrics metrics() {
+    return new LimiterMetrics(key, (int) limit, inFlight, queue.size(), rejected, overloads);
+  }
+
+  /**
+   * Sends the request when the limit allows it, otherwise queues it. The feedback functions
+   * classify the response, or the error the request failed with, to adapt the limit. Shed requests
+   * fail with a {@link RejectedExecutionException}.
+   */
+  public <T> CompletableFuture<T> execute(
+      Supplier<CompletableFuture<T>> request,
+      Function<T, Feedback> onResponse,
+      Function<Throwable, Feedback> onError) {
+    var response = new CompletableFuture<T>();
+    var waiting = new Waiting(() -> start(request, onResponse, onError, response), response);
+    var startNow = false;
+    synchronized (this) {
+      if (queue.isEmpty() && canStart(System.nanoTime())) {
+        inFlight++;
+        startNow = true;
+      } else if (queue.size() >= config.maxQueuedRequests()) {
+        rejected++;
+        response.completeExceptionally(
+            new RejectedExecutionException(
+                String.format("Too many requests queued for %s, rejecting.", key)));
+        return response;
+      } else {
+        queue.add(waiting);
+        SCHEDULER.schedule(
+            () -> expire(waiting), config.maxQueueWait().toNanos(), TimeUnit.NANOSECONDS);
+      }
+    }
+    if (startNow) {
+      waiting.start().run();
+    } else {
+      drain();
+    }
+    return response;
+  }
+
+  boolean canStart(long now) {
+    return inFlight < (int) limit && now >= blockedUntilNanos;
+  }
+
+  <T> void start(
+      Supplier<CompletableFuture<T>> request,
+      Function<T, Feedback> onResponse,
+      Function<Throwable, Feedback> onError,
+      CompletableFuture<T> response) {
+    var startNanos = System.nanoTime();
+    CompletableFuture<T> sent;
+    try {
+      sent = request.get();
+    } catch (RuntimeException ex) {
+      release(Feedback.ignore(), 0);
+      response.completeExceptionally(ex);
+      return;
+    }
+    sent.whenComplete(
+        (value, error) -> {
+          release(
+              error != null ? onError.apply(error) : onResponse.apply(value),
+              System.nanoTime() - startNanos);
+          if (error != null) {
+            response.completeExceptionally(error);
+          } else {
+            response.complete(value);
+          }
+        });
+  }
+
+  void release(Feedback feedback, long elapsedNanos) {
+    synchronized (this) {
+      inFlight--;
+      update(feedback, elapsedNanos, System.nanoTime());
+    }
+    drain();
+  }
+
+  // guarded by this
+  void update(Feedback feedback, long elapsedNanos, long now) {
+    switch (feedback.signal()) {
+      case OVERLOAD -> {
+        overloads++;
+        feedback
+            .retryAfter()
+            .ifPresent(
+                wait -> blockedUntilNanos = Math.max(blockedUntilNanos, now + wait.toNanos()));
+        decrease(now, OVERLOAD_BACKOFF);
+      }
+      case SUCCESS -> {
+        // tracks the fastest recent responses, slowly following them when they get slower
+        if (baselineNanos == 0 || elapsedNanos < baselineNanos) {
+          baselineNanos = elapsedNanos;
+        } else {
+          baselineNanos += (long) ((elapsedNanos - baselineNanos) * BASELINE_DRIFT);
+        }
+        if (elapsedNanos > baselineNanos * config.latencyTolerance()) {
+          decrease(now, LATENCY_BACKOFF);
+        } else if (inFlight + 1 >= limit / 2) {
+          // only grows while the current limit is being used
+          limit = Math.min(config.maxLimit(), limit + 1.0 / limit);
+        }
+      }
+      case IGNORE -> {}
+    }
+  }
+
+  // responses to requests sent before a decrease carry the same signal, one decrease per round trip
+  void decrease(long now, double ratio) {
+    if (now - lastDecreaseNanos < Math.max(baselineNanos, MIN_DECREASE_INTERVAL_NANOS)) {
+      return;
+    }
+    lastDecreaseNanos = now;
+    var previous = (int) limit;
+    limit = Math.max(config.minLimit(), limit * ratio);
+    if ((int) limit != previous) {
+      LOG.debug("concurrency limit for {} lowered from {} to {}.", key, previous, (int) limit);
+    }
+  }
+
+  void drain() {
+    var ready = new ArrayList<Waiting>();
+    synchronized (this) {
+      var now = System.nanoTime();
+      while (!queue.isEmpty() && canStart(now)) {
+        var next = queue.poll();
+        if (next.response().isDone()) {
+          continue;
+        }
+        inFlight++;
+        ready.add(next);
+      }
+      // nothing completes while every request is held, so a drain is scheduled for the end of it
+      if (!queue.isEmpty() && now < blockedUntilNanos && !drainScheduled) {
+        drainScheduled = true;
+        SCHEDULER.schedule(
+            () -> {
+              synchronized (this) {
+                drainScheduled = false;
+              }
+              drain();
+            },
+            blockedUntilNanos - now,
+            TimeUnit.NANOSECONDS);
+      }
+    }
+    ready.forEach(waiting -> waiting.start().run());
+  }
+
+  void expire(Waiting waiting) {
+    synchronized (this) {
+      if (!queue.remove(waiting)) {
+        return;
+      }
+      rejected++;
+    }
+    waiting
+        .response()
+        .completeExceptionally(
+            new RejectedExecutionException(
+                String.format(
+                    "Request for %s waited more than %s in the queue, rejecting.",
+                    key, config.maxQueueWait())));
+  }
+}
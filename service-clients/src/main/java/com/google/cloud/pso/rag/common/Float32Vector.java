@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pso.rag.common;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable embedding vector backed by a primitive float array. A 768 dimensions vector takes ~3KB
+ * instead of the ~16KB of a boxed {@code List<Double>}. Serialized as a plain JSON array of numbers,
+ * and its string representation is a valid pgvector literal.
+ */
+@JsonSerialize(using = Float32Vector.Serializer.class)
+@JsonDeserialize(using = Float32Vector.Deserializer.class)
+public final class Float32Vector implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+  private static final Float32Vector EMPTY = new Float32Vector(new float[0]);
+
+  private final float[] values;
+
+  private Float32Vector(float[] values) {
+    this.values = values;
+  }
+
+  public static Float32Vector empty() {
+    return EMPTY;
+  }
+
+  public static Float32Vector of(float... values) {
+    return new Float32Vector(values.clone());
+  }
+
+  /** Takes ownership of the array, callers should not modify it afterwards. */
+  public static Float32Vector wrap(float[] values) {
+    return new Float32Vector(values);
+  }
+
+  public static Float32Vector fromDoubles(List<Double> values) {
+    if (values instanceof DoubleListView view) {
+      return view.vector();
+    }
+    var floats = new float[values.size()];
+    for (int i = 0; i < floats.length; i++) {
+      floats[i] = values.get(i).floatValue();
+    }
+    return new Float32Vector(floats);
+  }
+
+  public int dimensions() {
+    return values.length;
+  }
+
+  public float get(int index) {
+    return values[index];
+  }
+
+  public float[] toArray() {
+    return values.clone();
+  }
+
+  /** Read only list view, values are widened on access instead of copied. */
+  public List<Double> asDoubleList() {
+    return new DoubleListView(this);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof Float32Vector vector && Arrays.equals(values, vector.values);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(values);
+  }
+
+  @Override
+  public String toString() {
+    var builder = new StringBuilder(values.length * 12 + 2).append('[');
+    for (int i = 0; i < values.length; i++) {
+      if (i > 0) {
+        builder.append(',');
+      }
+      builder.append(values[i]);
+    }
+    return builder.append(']').toString();
+  }
+
+  static class DoubleListView extends AbstractList<Double> implements RandomAccess {
+    private final Float32Vector vector;
+
+    DoubleListView(Float32Vector vector) {
+      this.vector = vector;
+    }
+
+    Float32Vector vector() {
+      return vector;
+    }
+
+    @Override
+    public Double get(int index) {
+      return (double) vector.values[index];
+    }
+
+    @Override
+    public int size() {
+      return vector.values.length;
+    }
+  }
+
+  static class Serializer extends JsonSerializer<Float32Vector> {
+    @Override
+    public void serialize(Float32Vector value, JsonGenerator gen, SerializerProvider serializers)
+        throws IOException {
+      gen.writeStartArray(value, value.values.length);
+      for (var v : value.values) {
+        gen.writeNumber(v);
+      }
+      gen.writeEndArray();
+    }
+  }
+
+  static class Deserializer extends JsonDeserializer<Float32Vector> {
+    @Override
+    public Float32Vector deserialize(JsonParser parser, DeserializationContext context)
+        throws IOException {
+      if (!parser.isExpectedStartArrayToken()) {
+        return (Float32Vector) context.handleUnexpectedToken(Float32Vector.class, parser);
+      }
+      // embeddings models commonly return 768 dimensions
+      var buffer = new float[768];
+      var size = 0;
+      JsonToken token;
+      while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+        if (token != JsonToken.VALUE_NUMBER_FLOAT && token != JsonToken.VALUE_NUMBER_INT) {
+          return (Float32Vector) context.handleUnexpectedToken(Float32Vector.class, parser);
+        }
+        if (size == buffer.length) {
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[size++] = parser.getFloatValue();
+      }
+      return new Float32Vector(size == buffer.length ? buffer : Arrays.copyOf(buffer, size));
+    }
+  }
+}
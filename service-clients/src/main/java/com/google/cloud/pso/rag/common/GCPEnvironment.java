@@ -16,6 +16,8 @@
 package com.google.cloud.pso.rag.common;
 
 import com.google.common.base.Preconditions;
+import java.time.Duration;
+import java.util.List;
 import java.util.function.Supplier;
 
 /** */
@@ -23,8 +25,130 @@ public class GCPEnvironment {
 
   private static GCPEnvironment INSTANCE = null;
 
+  /** The deadline bounds each Vector Search call made with the gRPC transport. */
   public record VectorSearchConfig(
-      String indexDomain, String indexPath, String indexId, String deploymentId) {}
+      String indexDomain,
+      String indexPath,
+      String indexId,
+      String deploymentId,
+      Duration requestDeadline) {
+    public VectorSearchConfig(
+        String indexDomain, String indexPath, String indexId, String deploymentId) {
+      this(indexDomain, indexPath, indexId, deploymentId, Duration.ofSeconds(10));
+    }
+  }
+
+  /**
+   * Connections kept to each AlloyDB host. The reactive driver splits the max pool size between
+   * the client that pipelines up to the pipelining limit statements per connection and the pool
+   * running the statements that need their own transaction, with at least one connection each.
+   */
+  public record ConnectionPoolConfig(
+      Integer maxPoolSize,
+      Integer maxQueuedRequests,
+      Duration connectionTimeout,
+      Duration keepaliveTime,
+      Duration maxLifetime,
+      Duration leakDetectionThreshold,
+      Integer prepareThreshold,
+      Integer statementCacheSize,
+      Integer pipeliningLimit) {
+
+    public ConnectionPoolConfig(
+        Integer maxPoolSize,
+        Integer maxQueuedRequests,
+        Duration connectionTimeout,
+        Duration keepaliveTime,
+        Duration maxLifetime,
+        Duration leakDetectionThreshold,
+        Integer prepareThreshold,
+        Integer statementCacheSize) {
+      this(
+          maxPoolSize,
+          maxQueuedRequests,
+          connectionTimeout,
+          keepaliveTime,
+          maxLifetime,
+          leakDetectionThreshold,
+          prepareThreshold,
+          statementCacheSize,
+          256);
+    }
+
+    public ConnectionPoolConfig(
+        Integer maxPoolSize,
+        Integer maxQueuedRequests,
+        Duration connectionTimeout,
+        Duration keepaliveTime,
+        Duration maxLifetime,
+        Duration leakDetectionThreshold) {
+      this(
+          maxPoolSize,
+          maxQueuedRequests,
+          connectionTimeout,
+          keepaliveTime,
+          maxLifetime,
+          leakDetectionThreshold,
+          1,
+          256);
+    }
+
+    public static ConnectionPoolConfig defaults() {
+      return new ConnectionPoolConfig(
+          10,
+          1000,
+          Duration.ofSeconds(10),
+          Duration.ofMinutes(2),
+          Duration.ofMinutes(30),
+          Duration.ofMinutes(1));
+    }
+  }
+
+  /**
+   * Client used to talk with AlloyDB, JDBC blocks a thread per in flight statement while REACTIVE
+   * uses a non blocking client that pipelines statements on its connections.
+   */
+  public enum AlloyDBDriver {
+    JDBC,
+    REACTIVE
+  }
+
+  /** Precision used to send vectors to the database, FLOAT16 halves the bytes sent. */
+  public enum VectorEncoding {
+    FLOAT32,
+    FLOAT16
+  }
+
+  /** Precision of the stored vector copies that indexed searches scan before re-ranking. */
+  public enum Quantization {
+    NONE,
+    HALFVEC,
+    BIT
+  }
+
+  /**
+   * Indexed searches over a quantized copy of the vectors retrieve the requested neighbors times
+   * the oversampling factor as candidates, and then re-rank them using the full precision vectors.
+   */
+  public record QuantizedSearch(Quantization quantization, Integer oversampling) {
+
+    public static QuantizedSearch none() {
+      return new QuantizedSearch(Quantization.NONE, 1);
+    }
+  }
+
+  /**
+   * Read pool instances used for searches, writes always go to the primary. Replicas lagging behind
+   * the primary more than the max lag are not used until they catch up, the lag is checked at most
+   * once per check interval.
+   */
+  public record ReadReplicasConfig(
+      List<String> ipAddresses, Duration maxLag, Duration lagCheckInterval) {
+
+    public static ReadReplicasConfig none() {
+      return new ReadReplicasConfig(List.of(), Duration.ofSeconds(5), Duration.ofSeconds(10));
+    }
+  }
 
   public record AlloyDBConfig(
       String ipAddressDB,
@@ -32,14 +156,78 @@ public class GCPEnvironment {
       String user,
       String password,
       String schema,
-      String table) {}
+      String table,
+      ConnectionPoolConfig poolConfig,
+      VectorEncoding vectorEncoding,
+      ReadReplicasConfig readReplicas,
+      QuantizedSearch quantizedSearch,
+      AlloyDBDriver driver) {
+
+    /** Default pool, encoding, replicas, search quantization and driver. */
+    public AlloyDBConfig(
+        String ipAddressDB,
+        String databaseName,
+        String user,
+        String password,
+        String schema,
+        String table) {
+      this(
+          ipAddressDB,
+          databaseName,
+          user,
+          password,
+          schema,
+          table,
+          ConnectionPoolConfig.defaults(),
+          VectorEncoding.FLOAT32,
+          ReadReplicasConfig.none(),
+          QuantizedSearch.none(),
+          AlloyDBDriver.JDBC);
+    }
+  }
+
+  /**
+   * Bounds the concurrent requests sent to each Vertex AI model. The limit starts at the initial
+   * value and adapts between the min and max ones. Requests over the limit wait in a queue of up
+   * to the max queued ones for at most the max queue wait, the rest are rejected. Responses slower
+   * than the latency tolerance times the fastest recent ones lower the limit, as quota errors do.
+   */
+  public record ConcurrencyLimitConfig(
+      Integer initialLimit,
+      Integer minLimit,
+      Integer maxLimit,
+      Integer maxQueuedRequests,
+      Duration maxQueueWait,
+      Double latencyTolerance) {
+
+    public static ConcurrencyLimitConfig defaults() {
+      return new ConcurrencyLimitConfig(20, 1, 200, 1000, Duration.ofMinutes(1), 4.0);
+    }
+  }
 
   public record Config(
       String project,
       String region,
       Supplier<String> serviceAccountEmailSupplier,
       VectorSearchConfig vectorSearchConfig,
-      AlloyDBConfig alloyDBConfig) {}
+      AlloyDBConfig alloyDBConfig,
+      ConcurrencyLimitConfig vertexAILimits) {
+
+    public Config(
+        String project,
+        String region,
+        Supplier<String> serviceAccountEmailSupplier,
+        VectorSearchConfig vectorSearchConfig,
+        AlloyDBConfig alloyDBConfig) {
+      this(
+          project,
+          region,
+          serviceAccountEmailSupplier,
+          vectorSearchConfig,
+          alloyDBConfig,
+          ConcurrencyLimitConfig.defaults());
+    }
+  }
 
   private final Config config;
 
@@ -23,13 +23,18 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.google.api.core.ApiFuture;
 import com.spotify.futures.ApiFuturesExtra;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
 /** */
 public class InteractionHelper {
@@ -67,6 +72,40 @@ public class InteractionHelper {
     }
   }
 
+  public static <T> Result<T, Exception> jsonMapper(InputStream value, Class<T> valueType) {
+    try (value) {
+      return Result.success(JSON_MAPPER.readValue(value, valueType));
+    } catch (IOException ex) {
+      return Result.failure(
+          new IllegalArgumentException("Problems trying to marshall streamed response.", ex));
+    }
+  }
+
+  /**
+   * Body of a JSON response. Successful responses are decoded from the bytes as they arrive, with
+   * no intermediate String or tree, while any other response keeps its text for error reporting.
+   */
+  public sealed interface JsonBody<T> {
+    /** Reads and decodes the body, blocking until it is received. */
+    record Streamed<T>(Supplier<Result<T, Exception>> decoder) implements JsonBody<T> {}
+
+    record Error<T>(String text) implements JsonBody<T> {}
+  }
+
+  public static <T> HttpResponse.BodyHandler<JsonBody<T>> jsonBodyHandler(
+      Class<? extends T> valueType) {
+    return responseInfo ->
+        responseInfo.statusCode() == 200
+            ? HttpResponse.BodySubscribers.<InputStream, JsonBody<T>>mapping(
+                HttpResponse.BodySubscribers.ofInputStream(),
+                stream ->
+                    new JsonBody.Streamed<T>(
+                        () -> jsonMapper(stream, valueType).<T>map(value -> value)))
+            : HttpResponse.BodySubscribers.<String, JsonBody<T>>mapping(
+                HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8),
+                text -> new JsonBody.Error<T>(text));
+  }
+
   public static Result<String, Exception> jsonMapper(Object value) {
     try {
       return Result.success(JSON_MAPPER.writeValueAsString(value));
@@ -85,6 +124,14 @@ public class InteractionHelper {
         .build();
   }
 
+  public static HttpRequest createHTTPBasedGetRequest(URI uri, String accessToken) {
+    return HttpRequest.newBuilder()
+        .uri(uri)
+        .header("Authorization", "Bearer " + accessToken)
+        .GET()
+        .build();
+  }
+
   public static <T> CompletableFuture<T> toCompletableFuture(ApiFuture<T> future) {
     return ApiFuturesExtra.toCompletableFuture(future, EXEC);
   }
@@ -15,63 +15,304 @@
  */
 package com.google.cloud.pso.rag.common;
 
+import com.google.cloud.pso.rag.common.GCPEnvironment.ConnectionPoolConfig;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.pgvector.PGvector;
-import org.postgresql.PGConnection;
-
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
 import java.sql.*;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class JDBCHelper {
-  private static final ExecutorService databaseExecutor = Executors.newFixedThreadPool(1);
+  private static final Logger LOG = LoggerFactory.getLogger(JDBCHelper.class);
+
+  private static final Map<String, ConnectionPool> POOLS = new ConcurrentHashMap<>();
+
+  /**
+   * Snapshot of the state of a connection pool and its executor. Wait times are measured from the
+   * moment a statement asks for a connection until the pool hands one over.
+   */
+  public record PoolMetrics(
+      Integer activeConnections,
+      Integer idleConnections,
+      Integer totalConnections,
+      Integer threadsAwaitingConnection,
+      Integer queuedRequests,
+      Long connectionsAcquired,
+      Double averageWaitMillis,
+      Double maxWaitMillis,
+      Long connectionTimeouts,
+      Long rejectedRequests) {}
+
+  static class PoolMetricsTracker implements IMetricsTracker {
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder acquiredNanos = new LongAdder();
+    private final LongAccumulator maxAcquiredNanos = new LongAccumulator(Long::max, 0L);
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    @Override
+    public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+      acquired.increment();
+      acquiredNanos.add(elapsedAcquiredNanos);
+      maxAcquiredNanos.accumulate(elapsedAcquiredNanos);
+    }
+
+    @Override
+    public void recordConnectionTimeout() {
+      timeouts.increment();
+    }
+
+    void recordRejection() {
+      rejections.increment();
+    }
+  }
+
+  static class ConnectionPool {
+    private final HikariDataSource dataSource;
+    private final ThreadPoolExecutor executor;
+    private final PoolMetricsTracker tracker;
+    // physical connections that already have the custom data types registered
+    private final Set<PGConnection> typedConnections =
+        Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    ConnectionPool(String jdbcUrl, String user, String password, ConnectionPoolConfig config) {
+      this.tracker = new PoolMetricsTracker();
+      var hikariConfig = new HikariConfig();
+      hikariConfig.setPoolName("jdbc-pool-" + POOLS.size());
+      hikariConfig.setJdbcUrl(jdbcUrl);
+      hikariConfig.setUsername(user);
+      hikariConfig.setPassword(password);
+      hikariConfig.setMaximumPoolSize(config.maxPoolSize());
+      hikariConfig.setConnectionTimeout(config.connectionTimeout().toMillis());
+      // connections are validated on borrow and also while idle, every keepalive period
+      hikariConfig.setKeepaliveTime(config.keepaliveTime().toMillis());
+      hikariConfig.setMaxLifetime(config.maxLifetime().toMillis());
+      hikariConfig.setLeakDetectionThreshold(config.leakDetectionThreshold().toMillis());
+      // statements get server side prepared from their first execution and cached per connection,
+      // so SQL texts that do not depend on the request size are parsed and planned only once
+      hikariConfig.addDataSourceProperty("prepareThreshold", config.prepareThreshold());
+      hikariConfig.addDataSourceProperty(
+          "preparedStatementCacheQueries", config.statementCacheSize());
+      hikariConfig.setMetricsTrackerFactory((poolName, poolStats) -> tracker);
+      // do not fail on creation if the database is not reachable, errors will surface per request
+      hikariConfig.setInitializationFailTimeout(-1);
+      this.dataSource = new HikariDataSource(hikariConfig);
+      // there is no gain on having more threads than connections, extra requests wait on the
+      // bounded queue and get rejected once that is full.
+      this.executor =
+          new ThreadPoolExecutor(
+              config.maxPoolSize(),
+              config.maxPoolSize(),
+              0L,
+              TimeUnit.MILLISECONDS,
+              new ArrayBlockingQueue<>(config.maxQueuedRequests()),
+              new ThreadFactoryBuilder()
+                  .setNameFormat(hikariConfig.getPoolName() + "-exec-%d")
+                  .setDaemon(true)
+                  .build(),
+              (runnable, executor) -> {
+                tracker.recordRejection();
+                throw new RejectedExecutionException(
+                    String.format(
+                        "Database executor queue is full (%d requests waiting).",
+                        executor.getQueue().size()));
+              });
+    }
+
+    Connection connection() throws SQLException {
+      var connection = dataSource.getConnection();
+      var pgConnection = connection.unwrap(PGConnection.class);
+      if (!typedConnections.contains(pgConnection)) {
+        // binary capable types, also enables their binary transfer on this connection
+        pgConnection.addDataType("vector", PGvector.class);
+        pgConnection.addDataType(PGvectorArray.VECTOR_ARRAY, PGvectorArray.class);
+        pgConnection.addDataType(PGvectorArray.HALFVEC_ARRAY, PGvectorArray.class);
+        typedConnections.add(pgConnection);
+      }
+      return connection;
+    }
+
+    <T> CompletableFuture<T> submit(DatabaseOperation<T> operation) {
+      try {
+        return CompletableFuture.supplyAsync(
+            () -> {
+              try (var connection = connection()) {
+                return operation.execute(connection);
+              } catch (SQLException e) {
+                throw new RuntimeException("Database error during query: " + e.getMessage(), e);
+              }
+            },
+            executor);
+      } catch (RejectedExecutionException ex) {
+        return CompletableFuture.failedFuture(ex);
+      }
+    }
+
+    PoolMetrics metrics() {
+      var mxBean = dataSource.getHikariPoolMXBean();
+      var acquired = tracker.acquired.sum();
+      return new PoolMetrics(
+          mxBean.getActiveConnections(),
+          mxBean.getIdleConnections(),
+          mxBean.getTotalConnections(),
+          mxBean.getThreadsAwaitingConnection(),
+          executor.getQueue().size(),
+          acquired,
+          acquired == 0 ? 0.0 : tracker.acquiredNanos.sum() / (acquired * 1_000_000.0),
+          tracker.maxAcquiredNanos.get() / 1_000_000.0,
+          tracker.timeouts.sum(),
+          tracker.rejections.sum());
+    }
+
+    void close() {
+      executor.shutdown();
+      dataSource.close();
+    }
+  }
+
+  public interface DatabaseOperation<T> {
+    T execute(Connection connection) throws SQLException;
+  }
+
+  static String poolKey(String jdbcUrl, String user) {
+    return user + "@" + jdbcUrl;
+  }
+
+  static ConnectionPool pool(
+      String jdbcUrl, String user, String password, ConnectionPoolConfig config) {
+    return POOLS.computeIfAbsent(
+        poolKey(jdbcUrl, user),
+        key -> {
+          LOG.info(
+              "creating connection pool for {} with max size {}", jdbcUrl, config.maxPoolSize());
+          return new ConnectionPool(jdbcUrl, user, password, config);
+        });
+  }
+
+  public static Optional<PoolMetrics> poolMetrics(String jdbcUrl, String user) {
+    return Optional.ofNullable(POOLS.get(poolKey(jdbcUrl, user))).map(ConnectionPool::metrics);
+  }
+
+  public static List<PoolMetrics> allPoolMetrics() {
+    return POOLS.values().stream().map(ConnectionPool::metrics).toList();
+  }
+
+  public static void closePools() {
+    POOLS.values().forEach(ConnectionPool::close);
+    POOLS.clear();
+  }
+
+  /** Runs the operation on a pooled connection, the connection is released once it completes. */
+  public static <T> CompletableFuture<T> executeAsync(
+      String jdbcUrl,
+      String user,
+      String password,
+      ConnectionPoolConfig poolConfig,
+      DatabaseOperation<T> operation) {
+    return pool(jdbcUrl, user, password, poolConfig).submit(operation);
+  }
 
   public static CompletableFuture<Integer> executeUpdateAsync(
       String jdbcUrl,
       String user,
       String password,
+      ConnectionPoolConfig poolConfig,
       String sql,
       Consumer<PreparedStatement> paramSetter) {
-    return CompletableFuture.supplyAsync(
-        () -> {
-          try (Connection connection = DriverManager.getConnection(jdbcUrl, user, password); ) {
-            PreparedStatement pstmt = connection.prepareStatement(sql);
-            paramSetter.accept(pstmt);
-            ;
-            return pstmt.executeUpdate();
-          } catch (SQLException e) {
-            throw new RuntimeException("Database error during query: " + e.getMessage(), e);
-          }
-        },
-        databaseExecutor);
+    return pool(jdbcUrl, user, password, poolConfig)
+        .submit(
+            connection -> {
+              try (var pstmt = connection.prepareStatement(sql)) {
+                paramSetter.accept(pstmt);
+                return pstmt.executeUpdate();
+              }
+            });
   }
 
-  public static CompletableFuture<ResultSet> executeQueryAsync(
+  /**
+   * Executes the query on a pooled connection and maps its results with the provided mapper. The
+   * mapping happens on the database executor so the connection is returned to the pool as soon as
+   * the results are consumed.
+   */
+  public static <T> CompletableFuture<T> executeQueryAsync(
       String jdbcUrl,
       String user,
       String password,
+      ConnectionPoolConfig poolConfig,
       String sql,
-      Consumer<PreparedStatement> paramSetter) {
-    return CompletableFuture.supplyAsync(
-        () -> {
-          try {
-            Connection connection = DriverManager.getConnection(jdbcUrl, user, password);
-            PreparedStatement pstmt = connection.prepareStatement(sql);
-            paramSetter.accept(pstmt);
-            pstmt.execute();
-            return pstmt.getResultSet();
-          } catch (SQLException e) {
-            throw new RuntimeException("Database error during query: " + e.getMessage(), e);
-          }
-        },
-        databaseExecutor);
+      Consumer<PreparedStatement> paramSetter,
+      ResultSetMapper<T> resultSetMapper) {
+    return executeQueryAsync(
+        jdbcUrl, user, password, poolConfig, List.of(), sql, paramSetter, resultSetMapper);
+  }
+
+  /**
+   * Same as above, but when local settings are provided (like {@code SET LOCAL ...} statements)
+   * those are applied in the same transaction the query runs, so they do not leak into other usages
+   * of the pooled connection.
+   */
+  public static <T> CompletableFuture<T> executeQueryAsync(
+      String jdbcUrl,
+      String user,
+      String password,
+      ConnectionPoolConfig poolConfig,
+      List<String> localSettings,
+      String sql,
+      Consumer<PreparedStatement> paramSetter,
+      ResultSetMapper<T> resultSetMapper) {
+    return pool(jdbcUrl, user, password, poolConfig)
+        .submit(
+            connection -> {
+              if (localSettings.isEmpty()) {
+                return query(connection, sql, paramSetter, resultSetMapper);
+              }
+              connection.setAutoCommit(false);
+              try (var stmt = connection.createStatement()) {
+                for (var setting : localSettings) {
+                  stmt.execute(setting);
+                }
+              }
+              var result = query(connection, sql, paramSetter, resultSetMapper);
+              connection.commit();
+              return result;
+            });
+  }
+
+  static <T> T query(
+      Connection connection,
+      String sql,
+      Consumer<PreparedStatement> paramSetter,
+      ResultSetMapper<T> resultSetMapper)
+      throws SQLException {
+    try (var pstmt = connection.prepareStatement(sql)) {
+      paramSetter.accept(pstmt);
+      pstmt.execute();
+      try (var resultSet = pstmt.getResultSet()) {
+        return resultSetMapper.map(resultSet);
+      }
+    }
   }
 
   public static <T> Stream<T> streamResultSet(ResultSet rs, ResultSetMapper<T> mapper)
@@ -106,15 +347,13 @@ public class JDBCHelper {
         };
 
     Iterable<T> iterable = () -> iterator;
+    // statement and connection are owned by the caller executing the query, here we only release
+    // the result set.
     return StreamSupport.stream(iterable.spliterator(), false)
         .onClose(
             () -> {
               try {
                 rs.close();
-                Statement stmt = rs.getStatement();
-                Connection conn = stmt.getConnection();
-                stmt.close();
-                conn.close();
               } catch (SQLException e) {
                 throw new RuntimeException(e);
               }
@@ -126,9 +365,6 @@ public class JDBCHelper {
   }
 
   public static List<Double> pGvectorToListDouble(PGvector pGvector) {
-    return IntStream.range(0, pGvector.toArray().length)
-        .mapToDouble(i -> pGvector.toArray()[i])
-        .boxed()
-        .collect(Collectors.toList());
+    return Float32Vector.wrap(pGvector.toArray()).asDoubleList();
   }
 }
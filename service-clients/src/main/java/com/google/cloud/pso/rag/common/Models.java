@@ -16,10 +16,15 @@
 package com.google.cloud.pso.rag.common;
 
 import com.google.genai.Client;
+import com.google.genai.errors.ApiException;
 import com.google.genai.types.GenerateContentConfig;
 import com.google.genai.types.SafetySetting;
 import com.google.genai.types.Schema;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 /** */
 public class Models {
@@ -47,6 +52,14 @@ public class Models {
           .safetySettings(SAFETY_SETTINGS)
           .build();
 
+  /** Plain text answers, used when streaming since partial JSON can not be shown as it arrives. */
+  public static final GenerateContentConfig TEXT_CONFIG =
+      GenerateContentConfig.builder()
+          .responseMimeType("text/plain")
+          .candidateCount(1)
+          .safetySettings(SAFETY_SETTINGS)
+          .build();
+
   private static Client GEMINI = null;
 
   public static Client gemini(GCPEnvironment.Config config) {
@@ -68,6 +81,27 @@ public class Models {
     return GEMINI;
   }
 
+  /** Vertex AI quotas apply per region and model, and so do the concurrency limits. */
+  public static ConcurrencyLimiter limiter(String model) {
+    return ConcurrencyLimiter.forKey(GCPEnvironment.config().region() + "/" + model);
+  }
+
+  /** Runs the blocking model call on a virtual thread within the concurrency limit of the model. */
+  public static <T> CompletableFuture<T> execute(String model, Supplier<T> call) {
+    return limiter(model)
+        .execute(
+            () -> CompletableFuture.supplyAsync(call, InteractionHelper.EXEC),
+            __ -> ConcurrencyLimiter.Feedback.success(),
+            Models::feedback);
+  }
+
+  static ConcurrencyLimiter.Feedback feedback(Throwable error) {
+    var cause = error instanceof CompletionException ? error.getCause() : error;
+    return cause instanceof ApiException apiError
+        ? ConcurrencyLimiter.Feedback.fromStatus(apiError.code(), Optional.empty())
+        : ConcurrencyLimiter.Feedback.fromError(error);
+  }
+
   public static GenerateContentConfig setupParameters(
       GenerateContentConfig config,
       Integer topK,
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pso.rag.common;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.postgresql.core.BaseConnection;
+import org.postgresql.util.PGBinaryObject;
+import org.postgresql.util.PGobject;
+
+/**
+ * A {@code vector[]} or {@code halfvec[]} statement parameter. When the type is registered on the
+ * connection the driver sends it using the binary wire format, avoiding the text encoding and
+ * parsing of every vector value; halfvec elements are sent as float16.
+ */
+public class PGvectorArray extends PGobject implements PGBinaryObject {
+
+  public static final String VECTOR_ARRAY = "_vector";
+  public static final String HALFVEC_ARRAY = "_halfvec";
+
+  private List<Float32Vector> vectors = List.of();
+  private boolean halfPrecision;
+  private int elementOid;
+
+  /** Used by the driver when registering the type. */
+  public PGvectorArray() {}
+
+  PGvectorArray(List<Float32Vector> vectors, boolean halfPrecision, int elementOid) {
+    this.type = halfPrecision ? HALFVEC_ARRAY : VECTOR_ARRAY;
+    this.vectors = vectors;
+    this.halfPrecision = halfPrecision;
+    this.elementOid = elementOid;
+  }
+
+  public static PGvectorArray of(
+      Connection connection, List<Float32Vector> vectors, GCPEnvironment.VectorEncoding encoding)
+      throws SQLException {
+    var halfPrecision = encoding == GCPEnvironment.VectorEncoding.FLOAT16;
+    var elementOid =
+        connection
+            .unwrap(BaseConnection.class)
+            .getTypeInfo()
+            .getPGType(halfPrecision ? "halfvec" : "vector");
+    return new PGvectorArray(vectors, halfPrecision, elementOid);
+  }
+
+  int elementLength(Float32Vector vector) {
+    return 4 + vector.dimensions() * (halfPrecision ? 2 : 4);
+  }
+
+  @Override
+  public int lengthInBytes() {
+    // header (dimensions, null flag, element type), array dimension (size, lower bound) and
+    // each element length and value
+    return 12
+        + (vectors.isEmpty() ? 0 : 8)
+        + vectors.stream().mapToInt(vector -> 4 + elementLength(vector)).sum();
+  }
+
+  @Override
+  public void toBytes(byte[] bytes, int offset) {
+    var buffer = ByteBuffer.wrap(bytes, offset, lengthInBytes());
+    buffer.putInt(vectors.isEmpty() ? 0 : 1).putInt(0).putInt(elementOid);
+    if (!vectors.isEmpty()) {
+      buffer.putInt(vectors.size()).putInt(1);
+    }
+    for (var vector : vectors) {
+      // element values follow pgvector's binary representation: dimensions, unused and values
+      buffer.putInt(elementLength(vector));
+      buffer.putShort((short) vector.dimensions()).putShort((short) 0);
+      for (int i = 0; i < vector.dimensions(); i++) {
+        if (halfPrecision) {
+          buffer.putShort(Float.floatToFloat16(vector.get(i)));
+        } else {
+          buffer.putFloat(vector.get(i));
+        }
+      }
+    }
+  }
+
+  @Override
+  public void setByteValue(byte[] value, int offset) throws SQLException {
+    throw new SQLFeatureNotSupportedException("Vector arrays are only supported as parameters.");
+  }
+
+  @Override
+  public String getValue() {
+    return textValue(vectors);
+  }
+
+  /** Text representation of the array, for clients that can not send it in binary format. */
+  public static String textValue(List<Float32Vector> vectors) {
+    return vectors.stream()
+        .map(vector -> "\"" + vector + "\"")
+        .collect(Collectors.joining(",", "{", "}"));
+  }
+}
@@ -85,9 +85,18 @@ public sealed interface Result<T, E> {
     };
   }
 
-  record ErrorResponse(String message, Optional<Throwable> cause) {
+  /** The status code is set when the error comes from a response of a remote service. */
+  record ErrorResponse(String message, Optional<Throwable> cause, Optional<Integer> statusCode) {
+    public ErrorResponse(String message, Optional<Throwable> cause) {
+      this(message, cause, Optional.empty());
+    }
+
     public ErrorResponse(String message) {
       this(message, Optional.empty());
     }
+
+    public ErrorResponse(String message, int statusCode) {
+      this(message, Optional.empty(), Optional.of(statusCode));
+    }
   }
 }
@@ -46,6 +46,7 @@ public class ChunksRequests {
       case PDF, PDF_LINK -> new Gemini.PDFChunkRequest(configurationEntry, dataToChunk, type);
       case JPEG, JPEG_LINK, PNG, PNG_LINK, WEBP, WEBP_LINK ->
           new Gemini.ImageChunkRequest(configurationEntry, dataToChunk, type);
+      case MP4, MP4_LINK -> new Gemini.VideoChunkRequest(configurationEntry, dataToChunk, type);
       case TEXT -> new Gemini.TextChunkRequest(configurationEntry, dataToChunk);
       default -> throw new IllegalArgumentException("Type is not supported: " + type);
     };
@@ -20,7 +20,6 @@ import static com.google.cloud.pso.rag.common.InteractionHelper.jsonMapper;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.cloud.pso.rag.common.GCPEnvironment;
 import com.google.cloud.pso.rag.common.Ingestion;
-import com.google.cloud.pso.rag.common.InteractionHelper;
 import com.google.cloud.pso.rag.common.Models;
 import com.google.cloud.pso.rag.common.Result;
 import com.google.cloud.pso.rag.common.Result.ErrorResponse;
@@ -67,6 +66,12 @@ public class Gemini {
       Then, use that description and divide it into chunks which will be used to generate text embeddings.
       """
           + CHUNKING_INSTRUCTIONS;
+  static final String VIDEO_CHUNKING_PROMPT =
+      """
+      Analyze the provided video and generate a non-formatted description of what is shown and said in it with a deep level of detail.
+      Then, use that description and divide it into chunks which will be used to generate text embeddings.
+      """
+          + CHUNKING_INSTRUCTIONS;
 
   private static final Content SYSTEM_INSTRUCTION =
       Content.fromParts(
@@ -75,7 +80,7 @@ public class Gemini {
   private Gemini() {}
 
   public sealed interface ChunkRequest extends Chunks.ChunkRequest
-      permits TextChunkRequest, PDFChunkRequest, ImageChunkRequest {}
+      permits TextChunkRequest, PDFChunkRequest, ImageChunkRequest, VideoChunkRequest {}
 
   public sealed interface ChunkResponse extends Chunks.ChunkResponse permits TextChunkResponse {}
 
@@ -87,16 +92,20 @@ public class Gemini {
   public record ImageChunkRequest(String model, List<String> contents, Ingestion.SupportedType type)
       implements ChunkRequest {}
 
+  public record VideoChunkRequest(String model, List<String> contents, Ingestion.SupportedType type)
+      implements ChunkRequest {}
+
   public record TextChunkResponse(List<String> chunks) implements ChunkResponse {}
 
   static Part partFromType(Ingestion.SupportedType type, String content) {
     return switch (type) {
-      case PDF, JPEG, PNG, WEBP -> Part.fromBytes(content.getBytes(), type.mimeType());
+      case PDF, JPEG, PNG, WEBP, MP4 -> Part.fromBytes(content.getBytes(), type.mimeType());
       case PDF_LINK -> Part.fromUri(content, Ingestion.SupportedType.PDF.mimeType());
       case TEXT -> Part.fromText(content);
       case JPEG_LINK -> Part.fromUri(content, Ingestion.SupportedType.JPEG.mimeType());
       case PNG_LINK -> Part.fromUri(content, Ingestion.SupportedType.PNG.mimeType());
       case WEBP_LINK -> Part.fromUri(content, Ingestion.SupportedType.WEBP.mimeType());
+      case MP4_LINK -> Part.fromUri(content, Ingestion.SupportedType.MP4.mimeType());
       default -> throw new IllegalArgumentException("Type not supported: " + type);
     };
   }
@@ -127,11 +136,11 @@ public class Gemini {
                     .systemInstruction(SYSTEM_INSTRUCTION)
                     .responseSchema(Models.STRING_ARRAY_SCHEMA)
                     .build());
-    return CompletableFuture.supplyAsync(
+    return Models.execute(
+            model,
             () ->
                 gemini.models.generateContent(
-                    model, Content.builder().role("user").parts(parts).build(), safeConfig),
-            InteractionHelper.EXEC)
+                    model, Content.builder().role("user").parts(parts).build(), safeConfig))
         .thenApply(Gemini::response)
         .exceptionally(error -> Result.failure("Error while generating chunks.", error));
   }
@@ -160,6 +169,13 @@ public class Gemini {
                       contents.stream().map(item -> partFromType(type, item)),
                       Stream.of(Part.fromText(IMAGE_CHUNKING_PROMPT)))
                   .toList());
+      case VideoChunkRequest(var model, var contents, var type) ->
+          internalExec(
+              model,
+              Stream.concat(
+                      contents.stream().map(item -> partFromType(type, item)),
+                      Stream.of(Part.fromText(VIDEO_CHUNKING_PROMPT)))
+                  .toList());
     };
   }
 }
@@ -15,10 +15,13 @@
  */
 package com.google.cloud.pso.rag.embeddings;
 
+import com.google.cloud.pso.rag.common.Float32Vector;
 import com.google.cloud.pso.rag.common.Result;
 import com.google.cloud.pso.rag.common.Result.ErrorResponse;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 /** */
 public interface Embeddings {
@@ -33,27 +36,79 @@ public interface Embeddings {
 
   sealed interface Parameters permits VertexAi.Parameters {}
 
-  sealed interface Request permits VertexAi.Request {}
+  sealed interface Request permits VertexAi.Request, LocalEmbeddings.Request {}
 
-  sealed interface Response permits VertexAi.Response {
+  sealed interface Response permits VertexAi.Response, LocalEmbeddings.Response {
     ResponseMetadata metadata();
   }
 
-  sealed interface ResponseMetadata permits VertexAi.ResponseMetadata {}
+  sealed interface ResponseMetadata
+      permits VertexAi.ResponseMetadata, LocalEmbeddings.ResponseMetadata {}
+
+  /** An embedding of an image or a video, segments carry their offsets in the video. */
+  record MediaEmbedding(
+      Float32Vector values, Optional<Integer> startOffsetSec, Optional<Integer> endOffsetSec) {
+    public MediaEmbedding(Float32Vector values) {
+      this(values, Optional.empty(), Optional.empty());
+    }
+  }
 
   static CompletableFuture<Result<? extends Response, ErrorResponse>> retrieveEmbeddings(
       Request request) {
     return switch (request) {
       case VertexAi.Request vertexRequest -> VertexAi.retrieveEmbeddings(vertexRequest);
+      case LocalEmbeddings.Request localRequest -> LocalEmbeddings.retrieveEmbeddings(localRequest);
     };
   }
 
-  static List<List<Double>> extractValuesFromEmbeddings(Embeddings.Response embResponse) {
+  /** Text embeddings response carrying already computed values (ex: cached ones), no statistics. */
+  static Response textResponse(List<Float32Vector> values) {
+    return new VertexAi.TextResponse(
+        values.stream()
+            .map(value -> new VertexAi.TextPrediction(new VertexAi.TextEmbeddings(null, value)))
+            .toList());
+  }
+
+  static List<Float32Vector> extractValuesFromEmbeddings(Embeddings.Response embResponse) {
     return switch (embResponse) {
       case VertexAi.TextResponse(var predictions) ->
           predictions.stream().map(emb -> emb.embeddings().values()).toList();
       case VertexAi.MultimodalResponse(var predictions) ->
-          predictions.stream().flatMap(mmEmb -> mmEmb.textEmbedding().stream()).toList();
+          predictions.stream()
+              .flatMap(
+                  mmEmb ->
+                      Stream.of(
+                              mmEmb.textEmbedding().stream(),
+                              mmEmb.imageEmbedding().stream(),
+                              mmEmb.videoEmbeddings().stream()
+                                  .flatMap(List::stream)
+                                  .map(VertexAi.VideoEmbedding::embedding))
+                          .flatMap(values -> values))
+              .toList();
+      case LocalEmbeddings.Response(var values) -> values;
+    };
+  }
+
+  /** One embedding per image or video segment, in the order the model returned them. */
+  static List<MediaEmbedding> extractMediaEmbeddings(Embeddings.Response embResponse) {
+    return switch (embResponse) {
+      case VertexAi.MultimodalResponse(var predictions) ->
+          predictions.stream()
+              .flatMap(
+                  mmEmb ->
+                      Stream.concat(
+                          mmEmb.imageEmbedding().stream().map(MediaEmbedding::new),
+                          mmEmb.videoEmbeddings().stream()
+                              .flatMap(List::stream)
+                              .map(
+                                  video ->
+                                      new MediaEmbedding(
+                                          video.embedding(),
+                                          Optional.ofNullable(video.startOffsetSec()),
+                                          Optional.ofNullable(video.endOffsetSec())))))
+              .toList();
+      default ->
+          extractValuesFromEmbeddings(embResponse).stream().map(MediaEmbedding::new).toList();
     };
   }
 }
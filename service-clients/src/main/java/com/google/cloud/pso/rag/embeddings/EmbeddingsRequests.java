@@ -15,28 +15,168 @@
  */
 package com.google.cloud.pso.rag.embeddings;
 
+import com.google.cloud.pso.rag.common.Ingestion;
 import java.util.List;
 import java.util.Optional;
 
 /** */
 public class EmbeddingsRequests {
 
+  private static final List<Integer> MULTIMODAL_DIMENSIONS = List.of(128, 256, 512, 1408);
+  private static final String MULTIMODAL_MODEL = "multimodalembedding@001";
+
   private EmbeddingsRequests() {}
 
   public static Embeddings.Request create(
       String configurationEntry, Embeddings.Types type, List<String> dataToEmbed) {
+    return create(configurationEntry, type, dataToEmbed, Optional.empty());
+  }
+
+  /**
+   * When present, the models return vectors reduced to the output dimensionality instead of their
+   * default size, see {@link #dimensions(String, Optional)} for the supported values.
+   */
+  public static Embeddings.Request create(
+      String configurationEntry,
+      Embeddings.Types type,
+      List<String> dataToEmbed,
+      Optional<Integer> outputDimensionality) {
+    outputDimensionality.ifPresent(dims -> dimensions(configurationEntry, Optional.of(dims)));
+    // local embeddings hash any kind of data the same way
+    if (LocalEmbeddings.isLocal(configurationEntry)) {
+      return LocalEmbeddings.request(
+          configurationEntry, dataToEmbed, dimensions(configurationEntry, outputDimensionality));
+    }
     return switch (type) {
-      case TEXT -> textEmbeddings(configurationEntry, dataToEmbed);
-      case IMAGE_LINK, IMAGE_RAW -> imageEmbeddings(configurationEntry, type, dataToEmbed);
-      case VIDEO_LINK, VIDEO_RAW -> videoEmbeddings(configurationEntry, type, dataToEmbed);
+      case TEXT -> textEmbeddings(configurationEntry, dataToEmbed, outputDimensionality);
+      case IMAGE_LINK, IMAGE_RAW ->
+          imageEmbeddings(configurationEntry, type, dataToEmbed, outputDimensionality);
+      case VIDEO_LINK, VIDEO_RAW ->
+          videoEmbeddings(
+              configurationEntry, type, dataToEmbed, outputDimensionality, Optional.empty());
     };
   }
 
-  static Embeddings.Request textEmbeddings(String configurationEntry, List<String> dataToEmbed) {
+  /**
+   * Request for a single image or video embedded directly by a multimodal model. When the interval
+   * is present videos are split in segments of that length, getting one embedding per segment.
+   */
+  public static Embeddings.Request media(
+      String configurationEntry,
+      Embeddings.Types type,
+      String data,
+      Optional<Integer> outputDimensionality,
+      Optional<Integer> videoIntervalSec) {
+    var video = type == Embeddings.Types.VIDEO_LINK || type == Embeddings.Types.VIDEO_RAW;
+    // local embeddings produce a single vector for any data, segments do not apply
+    if (!video || LocalEmbeddings.isLocal(configurationEntry)) {
+      return create(configurationEntry, type, List.of(data), outputDimensionality);
+    }
+    outputDimensionality.ifPresent(dims -> dimensions(configurationEntry, Optional.of(dims)));
+    return videoEmbeddings(
+        configurationEntry,
+        type,
+        List.of(data),
+        outputDimensionality,
+        videoIntervalSec.map(
+            interval ->
+                new VertexAi.VideoSegment(
+                    Optional.empty(), Optional.empty(), Optional.of(interval))));
+  }
+
+  /** True when the model embeds images and videos in the same space as text. */
+  public static boolean supportsMedia(String configurationEntry) {
+    return MULTIMODAL_MODEL.equals(configurationEntry)
+        || LocalEmbeddings.isLocal(configurationEntry);
+  }
+
+  /** The embeddings type for content a multimodal model can embed directly, if any. */
+  public static Optional<Embeddings.Types> mediaType(Ingestion.SupportedType type) {
+    return switch (type) {
+      case PNG, JPEG, WEBP -> Optional.of(Embeddings.Types.IMAGE_RAW);
+      case PNG_LINK, JPEG_LINK, WEBP_LINK -> Optional.of(Embeddings.Types.IMAGE_LINK);
+      case MP4 -> Optional.of(Embeddings.Types.VIDEO_RAW);
+      case MP4_LINK -> Optional.of(Embeddings.Types.VIDEO_LINK);
+      default -> Optional.empty();
+    };
+  }
+
+  /** Max amount of instances the model accepts on a single request. */
+  public static Integer maxInstances(String configurationEntry) {
+    if (LocalEmbeddings.isLocal(configurationEntry)) {
+      return Integer.MAX_VALUE;
+    }
+    return switch (configurationEntry) {
+      case "text-embedding-005", "text-embedding-004" -> 250;
+      case MULTIMODAL_MODEL -> 1;
+      default ->
+          throw new IllegalArgumentException(
+              String.format(
+                  "Configuration entry (%s) not supported for embedding requests.",
+                  configurationEntry));
+    };
+  }
+
+  /**
+   * Returns the size of the vectors the model produces for the output dimensionality, or its
+   * default size when not present. Text models accept any value up to their default, multimodal
+   * ones only a fixed set of sizes and local ones any positive value.
+   */
+  public static Integer dimensions(
+      String configurationEntry, Optional<Integer> outputDimensionality) {
+    if (LocalEmbeddings.isLocal(configurationEntry)) {
+      var dims = outputDimensionality.orElse(LocalEmbeddings.DEFAULT_DIMENSIONS);
+      if (dims < 1) {
+        throw new IllegalArgumentException(
+            String.format("Output dimensionality %d not supported by local embeddings.", dims));
+      }
+      return dims;
+    }
+    return switch (configurationEntry) {
+      case "text-embedding-005", "text-embedding-004" -> {
+        var dims = outputDimensionality.orElse(768);
+        if (dims < 1 || dims > 768) {
+          throw new IllegalArgumentException(
+              String.format(
+                  "Output dimensionality %d not supported by %s, expected a value in [1, 768].",
+                  dims, configurationEntry));
+        }
+        yield dims;
+      }
+      case MULTIMODAL_MODEL -> {
+        var dims = outputDimensionality.orElse(1408);
+        if (!MULTIMODAL_DIMENSIONS.contains(dims)) {
+          throw new IllegalArgumentException(
+              String.format(
+                  "Output dimensionality %d not supported by %s, expected one of %s.",
+                  dims, configurationEntry, MULTIMODAL_DIMENSIONS));
+        }
+        yield dims;
+      }
+      default ->
+          throw new IllegalArgumentException(
+              String.format(
+                  "Configuration entry (%s) not supported for embedding requests.",
+                  configurationEntry));
+    };
+  }
+
+  static Embeddings.Request textEmbeddings(
+      String configurationEntry,
+      List<String> dataToEmbed,
+      Optional<Integer> outputDimensionality) {
     return switch (configurationEntry) {
       case "text-embedding-005", "text-embedding-004" ->
           new VertexAi.Text(
-              configurationEntry, dataToEmbed.stream().map(VertexAi.TextInstance::new).toList());
+              configurationEntry,
+              dataToEmbed.stream().map(VertexAi.TextInstance::new).toList(),
+              outputDimensionality.map(dims -> new VertexAi.TextParameters(null, dims)));
+      // multimodal text vectors share the space of the image and video ones
+      case MULTIMODAL_MODEL ->
+          new VertexAi.Multimodal(
+              configurationEntry,
+              dataToEmbed.stream().map(VertexAi.MultimodalInstance::new).toList(),
+              outputDimensionality.map(VertexAi.MultimodalParameters::new));
       default ->
           throw new IllegalArgumentException(
               String.format(
@@ -46,9 +186,12 @@ public class EmbeddingsRequests {
   }
 
   static Embeddings.Request imageEmbeddings(
-      String configurationEntry, Embeddings.Types type, List<String> dataToEmbed) {
+      String configurationEntry,
+      Embeddings.Types type,
+      List<String> dataToEmbed,
+      Optional<Integer> outputDimensionality) {
     return switch (configurationEntry) {
-      case "multimodalembedding@001" ->
+      case MULTIMODAL_MODEL ->
           new VertexAi.Multimodal(
               configurationEntry,
               dataToEmbed.stream()
@@ -65,7 +208,8 @@ public class EmbeddingsRequests {
                                 throw new IllegalArgumentException("Image data not supported.");
                           })
                   .map(VertexAi.MultimodalInstance::new)
-                  .toList());
+                  .toList(),
+              outputDimensionality.map(VertexAi.MultimodalParameters::new));
       default ->
           throw new IllegalArgumentException(
               String.format(
@@ -75,9 +219,13 @@ public class EmbeddingsRequests {
   }
 
   static Embeddings.Request videoEmbeddings(
-      String configurationEntry, Embeddings.Types type, List<String> dataToEmbed) {
+      String configurationEntry,
+      Embeddings.Types type,
+      List<String> dataToEmbed,
+      Optional<Integer> outputDimensionality,
+      Optional<VertexAi.VideoSegment> segment) {
     return switch (configurationEntry) {
-      case "multimodalembedding@001" ->
+      case MULTIMODAL_MODEL ->
           new VertexAi.Multimodal(
               configurationEntry,
               dataToEmbed.stream()
@@ -86,19 +234,20 @@ public class EmbeddingsRequests {
                           switch (type) {
                             case VIDEO_LINK ->
                                 new VertexAi.VideoData(
-                                    Optional.empty(), Optional.of(data), Optional.empty());
+                                    Optional.empty(), Optional.of(data), segment);
                             case VIDEO_RAW ->
                                 new VertexAi.VideoData(
-                                    Optional.of(data), Optional.empty(), Optional.empty());
+                                    Optional.of(data), Optional.empty(), segment);
                             default ->
-                                throw new IllegalArgumentException("Image data not supported.");
+                                throw new IllegalArgumentException("Video data not supported.");
                           })
                   .map(VertexAi.MultimodalInstance::new)
-                  .toList());
+                  .toList(),
+              outputDimensionality.map(VertexAi.MultimodalParameters::new));
       default ->
           throw new IllegalArgumentException(
               String.format(
-                  "Configuration entry %s not supported for text embedding requests.",
+                  "Configuration entry %s not supported for video embedding requests.",
                   configurationEntry));
     };
   }
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pso.rag.embeddings;
+
+import static com.google.cloud.pso.rag.common.InteractionHelper.EXEC;
+
+import com.google.cloud.pso.rag.common.Float32Vector;
+import com.google.cloud.pso.rag.common.Result;
+import com.google.cloud.pso.rag.common.Result.ErrorResponse;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Embeddings computed in process, with no calls to remote models, for load tests and benchmarks
+ * that should only measure our own overhead. Vectors are built by hashing the words and character
+ * trigrams of the data into the dimensions (feature hashing) and normalizing the result, so the
+ * same data always gets the same vector and similar texts get close vectors. Responses can be
+ * delayed and fail at a configured rate to mimic a remote model.
+ *
+ * <p>Selected with the {@code local} configuration entry, optionally followed by its settings, ex:
+ * {@code local:latencyMillis=80,jitterMillis=40,errorRate=0.01}.
+ */
+public class LocalEmbeddings {
+
+  static final String CONFIGURATION_PREFIX = "local";
+  static final Integer DEFAULT_DIMENSIONS = 768;
+
+  private LocalEmbeddings() {}
+
+  /**
+   * The latency of each response is the base one plus a random amount up to the jitter. Failed
+   * responses are reported as the remote models report exhausted quota.
+   */
+  public record Settings(Duration latency, Duration jitter, Double errorRate) {
+
+    public static Settings none() {
+      return new Settings(Duration.ZERO, Duration.ZERO, 0.0);
+    }
+  }
+
+  public record Request(String model, List<String> data, Integer dimensions, Settings settings)
+      implements Embeddings.Request {}
+
+  public record Response(List<Float32Vector> values) implements Embeddings.Response {
+
+    @Override
+    public Embeddings.ResponseMetadata metadata() {
+      return new ResponseMetadata();
+    }
+  }
+
+  public record ResponseMetadata() implements Embeddings.ResponseMetadata {}
+
+  static boolean isLocal(String configurationEntry) {
+    return configurationEntry.equals(CONFIGURATION_PREFIX)
+        || configurationEntry.startsWith(CONFIGURATION_PREFIX + ":");
+  }
+
+  static Settings settings(String configurationEntry) {
+    var defaults = Settings.none();
+    var latency = defaults.latency();
+    var jitter = defaults.jitter();
+    var errorRate = defaults.errorRate();
+    var separator = configurationEntry.indexOf(':');
+    if (separator < 0) {
+      return defaults;
+    }
+    for (var setting : configurationEntry.substring(separator + 1).split(",")) {
+      var keyValue = setting.split("=", 2);
+      if (keyValue.length != 2) {
+        throw new IllegalArgumentException(
+            String.format("Local embeddings setting (%s) should be key=value.", setting));
+      }
+      var value = keyValue[1].trim();
+      switch (keyValue[0].trim()) {
+        case "latencyMillis" -> latency = Duration.ofMillis(Long.parseLong(value));
+        case "jitterMillis" -> jitter = Duration.ofMillis(Long.parseLong(value));
+        case "errorRate" -> errorRate = Double.parseDouble(value);
+        default ->
+            throw new IllegalArgumentException(
+                String.format("Local embeddings setting (%s) not supported.", keyValue[0]));
+      }
+    }
+    return new Settings(latency, jitter, errorRate);
+  }
+
+  static Request request(String configurationEntry, List<String> data, Integer dimensions) {
+    return new Request(configurationEntry, data, dimensions, settings(configurationEntry));
+  }
+
+  static void addFeature(float[] values, String feature, float weight) {
+    var hash = Hashing.murmur3_32_fixed().hashString(feature, StandardCharsets.UTF_8).asInt();
+    // the lowest bit picks the sign, so colliding features tend to cancel out instead of adding up
+    var sign = (hash & 1) == 0 ? 1f : -1f;
+    values[Math.floorMod(hash >>> 1, values.length)] += sign * weight;
+  }
+
+  /** Deterministic unit vector for the data, words weigh more than each of their trigrams. */
+  static Float32Vector embed(String data, int dimensions) {
+    var values = new float[dimensions];
+    var text = data.toLowerCase(Locale.ROOT);
+    for (var word : text.split("[^\\p{L}\\p{N}]+")) {
+      if (word.isEmpty()) {
+        continue;
+      }
+      addFeature(values, "w:" + word, 1f);
+      var padded = " " + word + " ";
+      for (int i = 0; i + 3 <= padded.length(); i++) {
+        addFeature(values, "t:" + padded.substring(i, i + 3), 0.5f);
+      }
+    }
+    var norm = 0.0;
+    for (var value : values) {
+      norm += value * value;
+    }
+    if (norm == 0.0) {
+      // data with no words still needs a valid vector for cosine and dot product distances
+      Arrays.fill(values, (float) (1.0 / Math.sqrt(dimensions)));
+      return Float32Vector.wrap(values);
+    }
+    var scale = (float) (1.0 / Math.sqrt(norm));
+    for (int i = 0; i < dimensions; i++) {
+      values[i] *= scale;
+    }
+    return Float32Vector.wrap(values);
+  }
+
+  static CompletableFuture<Result<? extends Embeddings.Response, ErrorResponse>>
+      retrieveEmbeddings(Request request) {
+    var settings = request.settings();
+    var random = ThreadLocalRandom.current();
+    var delayMillis =
+        settings.latency().toMillis()
+            + (settings.jitter().isZero() ? 0 : random.nextLong(settings.jitter().toMillis() + 1));
+    var failed = settings.errorRate() > 0 && random.nextDouble() < settings.errorRate();
+    return CompletableFuture.supplyAsync(
+        () ->
+            failed
+                ? Result.<Response, ErrorResponse>failure(
+                    new ErrorResponse(
+                        String.format(
+                            "Error returned by embeddings model %s, code: %d, message: %s",
+                            request.model(), 429, "Simulated quota exhaustion."),
+                        429))
+                : Result.<Response, ErrorResponse>success(
+                    new Response(
+                        request.data().stream()
+                            .map(data -> embed(data, request.dimensions()))
+                            .toList())),
+        CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS, EXEC));
+  }
+}
@@ -15,13 +15,19 @@
  */
 package com.google.cloud.pso.rag.embeddings;
 
+import static com.google.cloud.pso.rag.common.InteractionHelper.EXEC;
 import static com.google.cloud.pso.rag.common.InteractionHelper.createHTTPBasedRequest;
 import static com.google.cloud.pso.rag.common.InteractionHelper.httpClient;
 import static com.google.cloud.pso.rag.common.InteractionHelper.jsonMapper;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.cloud.pso.rag.common.ConcurrencyLimiter;
+import com.google.cloud.pso.rag.common.Float32Vector;
 import com.google.cloud.pso.rag.common.GCPEnvironment;
 import com.google.cloud.pso.rag.common.GoogleCredentialsCache;
+import com.google.cloud.pso.rag.common.InteractionHelper;
+import com.google.cloud.pso.rag.common.InteractionHelper.JsonBody;
+import com.google.cloud.pso.rag.common.Models;
 import com.google.cloud.pso.rag.common.Result;
 import com.google.cloud.pso.rag.common.Result.ErrorResponse;
 import com.google.cloud.pso.rag.common.Result.Failure;
@@ -32,6 +38,7 @@ import java.net.http.HttpResponse;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /** */
 public class VertexAi {
@@ -110,7 +117,7 @@ public class VertexAi {
 
   record TextPrediction(TextEmbeddings embeddings) {}
 
-  record TextEmbeddings(Stats statistics, List<Double> values) {}
+  record TextEmbeddings(Stats statistics, Float32Vector values) {}
 
   record Stats(Boolean truncated, @JsonProperty("token_count") Integer tokenCount) {}
 
@@ -118,9 +125,16 @@ public class VertexAi {
    Multimodal embeddings requests types.
   */
 
-  public record Multimodal(String model, List<MultimodalInstance> data) implements Request {}
+  public record Multimodal(
+      String model, List<MultimodalInstance> data, Optional<MultimodalParameters> params)
+      implements Request {
+    public Multimodal(String model, List<MultimodalInstance> data) {
+      this(model, data, Optional.empty());
+    }
+  }
 
-  record MultimodalEmbeddingRequest(List<MultimodalInstance> instances) {}
+  record MultimodalEmbeddingRequest(
+      List<MultimodalInstance> instances, Optional<MultimodalParameters> parameters) {}
 
   public record MultimodalInstance(
       Optional<String> text,
@@ -134,6 +148,10 @@ public class VertexAi {
       }
     }
 
+    public MultimodalInstance(String text) {
+      this(Optional.of(text), Optional.empty(), Optional.empty(), Optional.empty());
+    }
+
     public MultimodalInstance(ImageData image) {
       this(Optional.empty(), Optional.of(image), Optional.empty(), Optional.empty());
     }
@@ -184,17 +202,18 @@ public class VertexAi {
   public record MultimodalResponseMetadata() implements ResponseMetadata {}
 
   public record MultimodalPrediction(
-      Optional<List<Double>> textEmbedding,
-      Optional<List<Double>> imageEmbedding,
-      Optional<VideoEmbedding> videoEmbeddings) {}
+      Optional<Float32Vector> textEmbedding,
+      Optional<Float32Vector> imageEmbedding,
+      Optional<List<VideoEmbedding>> videoEmbeddings) {}
 
   public record VideoEmbedding(
-      Integer startOffsetSec, Integer endOffsetSec, List<Double> embedding) {}
+      Integer startOffsetSec, Integer endOffsetSec, Float32Vector embedding) {}
 
   static Result<String, Exception> requestBody(Request request) {
     return switch (request) {
       case Text(var __, var text, var params) -> jsonMapper(new TextEmbeddingRequest(text, params));
-      case Multimodal(var __, var data) -> jsonMapper(new MultimodalEmbeddingRequest(data));
+      case Multimodal(var __, var data, var params) ->
+          jsonMapper(new MultimodalEmbeddingRequest(data, params));
     };
   }
 
@@ -202,56 +221,68 @@ public class VertexAi {
     return new ErrorResponse("Problems unmarshalling the response.", Optional.of(error));
   }
 
-  static Result<? extends Embeddings.Response, ErrorResponse> response(
-      Request request, HttpResponse<String> httpResponse) {
+  static Class<? extends Response> responseType(Request request) {
     return switch (request) {
-      case Text __ when httpResponse.statusCode() == 200 ->
-          jsonMapper(httpResponse.body(), TextResponse.class)
-              .failMap(error -> marshalFailure(error));
-      case Multimodal __ when httpResponse.statusCode() == 200 ->
-          jsonMapper(httpResponse.body(), MultimodalResponse.class)
-              .failMap(error -> marshalFailure(error));
-      default ->
+      case Text __ -> TextResponse.class;
+      case Multimodal __ -> MultimodalResponse.class;
+    };
+  }
+
+  static Result<? extends Embeddings.Response, ErrorResponse> response(
+      Request request, HttpResponse<JsonBody<Response>> httpResponse) {
+    return switch (httpResponse.body()) {
+      case JsonBody.Streamed<Response>(var decoder) ->
+          decoder.get().failMap(error -> marshalFailure(error));
+      case JsonBody.Error<Response>(var text) ->
           Result.failure(
-              String.format(
-                  """
-                  Error returned by embeddings model %s, code: %d, message: %s
-                  Request payload: %s""",
-                  request.model(), httpResponse.statusCode(), httpResponse.body(), request));
+              new ErrorResponse(
+                  String.format(
+                      """
+                      Error returned by embeddings model %s, code: %d, message: %s
+                      Request payload: %s""",
+                      request.model(), httpResponse.statusCode(), text, request),
+                  httpResponse.statusCode()));
     };
   }
 
-  static Result<CompletableFuture<HttpResponse<String>>, Exception> executeRequest(
-      String body, String model) {
+  static Result<CompletableFuture<HttpResponse<JsonBody<Response>>>, Exception> executeRequest(
+      String body, Request request) {
     try {
       var envConfig = GCPEnvironment.config();
       return Result.success(
           httpClient()
               .sendAsync(
                   createHTTPBasedRequest(
-                      uri(envConfig.project(), envConfig.region(), model),
+                      uri(envConfig.project(), envConfig.region(), request.model()),
                       body,
                       GoogleCredentialsCache.retrieveAccessToken(
                           envConfig.serviceAccountEmailSupplier())),
-                  HttpResponse.BodyHandlers.ofString()));
+                  InteractionHelper.<Response>jsonBodyHandler(responseType(request))));
     } catch (URISyntaxException ex) {
       return Result.failure(ex);
     }
   }
 
-  static Result<CompletableFuture<HttpResponse<String>>, Exception> executeInternal(
-      Request request) {
-    return requestBody(request).flatMap(body -> executeRequest(body, request.model()));
-  }
-
   static CompletableFuture<Result<? extends Embeddings.Response, ErrorResponse>> retrieveEmbeddings(
       Request request) {
-    return switch (executeInternal(request)) {
+    return switch (requestBody(request)) {
       case Failure<?, Exception>(var error) ->
           CompletableFuture.completedFuture(
               Result.failure("Error occurred while generating the request.", error));
-      case Success<CompletableFuture<HttpResponse<String>>, ?>(var value) ->
-          value.thenApply(httpResponse -> response(request, httpResponse));
+      // quota errors and slow responses lower the concurrency allowed for the model
+      case Success<String, ?>(var body) ->
+          Models.limiter(request.model())
+              .execute(
+                  () ->
+                      executeRequest(body, request)
+                          .orElseThrow(error -> new CompletionException(error)),
+                  ConcurrencyLimiter.Feedback::fromHttp,
+                  ConcurrencyLimiter.Feedback::fromError)
+              // decoding reads the streamed body, so it runs on a virtual thread
+              .<Result<? extends Embeddings.Response, ErrorResponse>>thenApplyAsync(
+                  httpResponse -> response(request, httpResponse), EXEC)
+              .exceptionally(
+                  error -> Result.failure("Error occurred while sending the request.", error));
     };
   }
 }
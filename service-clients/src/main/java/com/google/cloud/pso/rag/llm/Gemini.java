@@ -18,18 +18,19 @@ package com.google.cloud.pso.rag.llm;
 import static com.google.cloud.pso.rag.common.InteractionHelper.jsonMapper;
 
 import com.google.cloud.pso.rag.common.GCPEnvironment;
-import com.google.cloud.pso.rag.common.InteractionHelper;
 import com.google.cloud.pso.rag.common.Models;
 import com.google.cloud.pso.rag.common.Result;
 import com.google.cloud.pso.rag.common.Result.ErrorResponse;
 import com.google.cloud.pso.rag.llm.LLM.Exchange;
 import com.google.cloud.pso.rag.llm.LLM.Parameters;
 import com.google.genai.types.Content;
+import com.google.genai.types.GenerateContentConfig;
 import com.google.genai.types.GenerateContentResponse;
 import com.google.genai.types.Part;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /** */
@@ -116,46 +117,99 @@ public class Gemini {
         .map(exchange -> new ChatResponse(exchange, extractModelFeedback(generatedResponse)));
   }
 
+  static List<Content> chatContents(ChatRequest request) {
+    return request.exchanges().stream()
+        .map(
+            exch ->
+                Content.builder()
+                    .role(exch.author())
+                    .parts(List.of(Part.fromText(exch.content())))
+                    .build())
+        .toList();
+  }
+
+  static GenerateContentConfig chatConfig(ChatRequest request, GenerateContentConfig base) {
+    return Models.setupParameters(
+            base,
+            request.params().topK(),
+            request.params().topP(),
+            request.params().temperature(),
+            request.params().maxOutputTokens())
+        .toBuilder()
+        .systemInstruction(
+            request
+                .context()
+                .map(context -> Content.fromParts(Part.fromText(context)))
+                .orElse(Content.builder().build()))
+        .build();
+  }
+
   public static CompletableFuture<Result<? extends LLM.ChatResponse, ErrorResponse>> chat(
       ChatRequest request) {
     var gemini = Models.gemini(GCPEnvironment.config());
-    return CompletableFuture.supplyAsync(
+    return Models.execute(
+            request.model(),
             () ->
                 gemini
                     .chats
                     .create(request.model())
                     .sendMessage(
-                        request.exchanges().stream()
-                            .map(
-                                exch ->
-                                    Content.builder()
-                                        .role(exch.author())
-                                        .parts(List.of(Part.fromText(exch.content())))
-                                        .build())
-                            .toList(),
-                        Models.setupParameters(
-                                Models.DEFAULT_CONFIG,
-                                request.params().topK(),
-                                request.params().topP(),
-                                request.params().temperature(),
-                                request.params().maxOutputTokens())
-                            .toBuilder()
-                            .systemInstruction(
-                                request
-                                    .context()
-                                    .map(context -> Content.fromParts(Part.fromText(context)))
-                                    .orElse(Content.builder().build()))
+                        chatContents(request),
+                        chatConfig(request, Models.DEFAULT_CONFIG).toBuilder()
                             .responseSchema(Models.STRING_SCHEMA)
-                            .build()),
-            InteractionHelper.EXEC)
+                            .build()))
         .thenApply(Gemini::chattingResponse)
         .exceptionally(error -> Result.failure("Error while generating chat request.", error));
   }
 
+  static String streamedText(GenerateContentResponse response) {
+    return Optional.ofNullable(response.parts()).stream()
+        .flatMap(List::stream)
+        .flatMap(part -> part.text().stream())
+        .collect(Collectors.joining());
+  }
+
+  /**
+   * Streams the chat answer as plain text, handing each fragment to the consumer as soon as the
+   * model generates it. The returned response carries the complete answer once the stream ends.
+   */
+  public static CompletableFuture<Result<? extends LLM.ChatResponse, ErrorResponse>> chatStream(
+      ChatRequest request, Consumer<String> onText) {
+    var gemini = Models.gemini(GCPEnvironment.config());
+    return Models.execute(
+            request.model(),
+            () -> {
+              var answer = new StringBuilder();
+              var blockReason = Optional.<String>empty();
+              try (var stream =
+                  gemini.models.generateContentStream(
+                      request.model(),
+                      chatContents(request),
+                      chatConfig(request, Models.TEXT_CONFIG))) {
+                for (var response : stream) {
+                  var text = streamedText(response);
+                  if (!text.isEmpty()) {
+                    answer.append(text);
+                    onText.accept(text);
+                  }
+                  var feedback = extractModelFeedback(response);
+                  if (feedback.isPresent()) {
+                    blockReason = feedback;
+                  }
+                }
+              }
+              return new ChatResponse(new Exchange("model", answer.toString()), blockReason);
+            })
+        .<Result<? extends LLM.ChatResponse, ErrorResponse>>thenApply(Result::success)
+        .exceptionally(
+            error -> Result.failure("Error while generating streamed chat request.", error));
+  }
+
   public static CompletableFuture<Result<? extends LLM.SummarizationResponse, ErrorResponse>>
       summarize(SummarizeRequest request) {
     var gemini = Models.gemini(GCPEnvironment.config());
-    return CompletableFuture.supplyAsync(
+    return Models.execute(
+            request.model(),
             () ->
                 gemini.models.generateContent(
                     request.model(),
@@ -176,8 +230,7 @@ public class Gemini {
                         .toBuilder()
                         .systemInstruction(SYSTEM_SUMMARIZATION_INSTRUCTION)
                         .responseSchema(Models.STRING_SCHEMA)
-                        .build()),
-            InteractionHelper.EXEC)
+                        .build()))
         .thenApply(Gemini::summarizeResponse)
         .exceptionally(
             error -> Result.failure("Error while generating summarization request.", error));
@@ -18,6 +18,7 @@ package com.google.cloud.pso.rag.llm;
 import com.google.cloud.pso.rag.common.Result;
 import com.google.cloud.pso.rag.common.Result.ErrorResponse;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /** */
 public interface LLM {
@@ -46,6 +47,14 @@ public interface LLM {
     };
   }
 
+  /** Hands the answer text to the consumer as it is generated, then completes with all of it. */
+  static CompletableFuture<Result<? extends ChatResponse, ErrorResponse>> chatStream(
+      ChatRequest request, Consumer<String> onText) {
+    return switch (request) {
+      case Gemini.ChatRequest geminiRequest -> Gemini.chatStream(geminiRequest, onText);
+    };
+  }
+
   static CompletableFuture<Result<? extends SummarizationResponse, ErrorResponse>> summarize(
       SummarizationRequest request) {
     return switch (request) {
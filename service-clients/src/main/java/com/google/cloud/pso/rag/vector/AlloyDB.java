@@ -15,168 +15,636 @@
  */
 package com.google.cloud.pso.rag.vector;
 
+import com.google.cloud.pso.rag.common.Float32Vector;
 import com.google.cloud.pso.rag.common.GCPEnvironment;
 import com.google.cloud.pso.rag.common.JDBCHelper;
+import com.google.cloud.pso.rag.common.PGvectorArray;
 import com.google.cloud.pso.rag.common.Result;
 import com.google.cloud.pso.rag.common.Result.ErrorResponse;
 import com.pgvector.PGvector;
-import org.postgresql.PGConnection;
 
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import static com.google.cloud.pso.rag.common.JDBCHelper.*;
 
 public class AlloyDB {
 
+  private static final Map<String, String> SQL_TEMPLATES = new ConcurrentHashMap<>();
+  static final String UPSERT_ASSIGNMENTS =
+      "embedding = EXCLUDED.embedding, source_id = EXCLUDED.source_id, "
+          + "mime_type = EXCLUDED.mime_type, ingested_at = EXCLUDED.ingested_at, "
+          + "tenant = EXCLUDED.tenant, content_tsv = EXCLUDED.content_tsv";
+  // text search configuration used for both the stored lexemes and the search queries
+  static final String TEXT_SEARCH_CONFIG = "english";
+  // reciprocal rank fusion constant, dampens the weight of the top ranks of each list
+  static final int RRF_K = 60;
+  // each hybrid search list retrieves this many times the requested neighbors before fusing
+  static final int HYBRID_CANDIDATES_FACTOR = 4;
+
   private AlloyDB() {}
 
-  static PreparedStmtParams searchPstmtParams(SearchRequest request) {
+  /*
+  SQL texts only depend on the configured table and the request options, not on the amount of
+  vectors in it (those are bound as arrays), so they are created once and reused. This also lets
+  the driver reuse the server side prepared statements cached on each connection.
+  */
+  static String sqlTemplate(String operation, Supplier<String> sqlSupplier) {
     var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
-    String singleQuery = "SELECT ? AS internalId, ? AS id, ?::vector AS embedding, ? AS max_nn";
-    String queriesToSearchForStr =
-        String.join(" UNION ALL\n", Collections.nCopies(request.queries().size(), singleQuery));
+    return SQL_TEMPLATES.computeIfAbsent(
+        String.join(
+            ".",
+            alloyDBConfig.schema(),
+            alloyDBConfig.table(),
+            alloyDBConfig.vectorEncoding().name(),
+            operation),
+        __ -> sqlSupplier.get());
+  }
+
+  /*
+  Vectors are bound as a binary vector[] (or halfvec[] when sending float16) parameter.
+  */
+  static String vectorArrayType() {
+    return switch (GCPEnvironment.config().alloyDBConfig().vectorEncoding()) {
+      case FLOAT32 -> "vector[]";
+      case FLOAT16 -> "halfvec[]";
+    };
+  }
 
+  static PGvectorArray vectorArray(Connection connection, List<Float32Vector> vectors)
+      throws SQLException {
+    return PGvectorArray.of(
+        connection, vectors, GCPEnvironment.config().alloyDBConfig().vectorEncoding());
+  }
+
+  static String queryVectorsSql() {
+    return String.format(
+        "SELECT (q.ord - 1)::int AS internalId, q.id, q.embedding::vector AS embedding, q.max_nn\n"
+            + "  FROM unnest(?::text[], ?::%s, ?::int[]) WITH ORDINALITY "
+            + "AS q(id, embedding, max_nn, ord)",
+        vectorArrayType());
+  }
+
+  // hybrid searches also bind the text of each query, parsed as a web search like expression
+  static String hybridQueryVectorsSql() {
+    return String.format(
+        "SELECT (q.ord - 1)::int AS internalId, q.id, q.embedding::vector AS embedding, q.max_nn,\n"
+            + "    websearch_to_tsquery('%s', q.text) AS lexical_query\n"
+            + "  FROM unnest(?::text[], ?::%s, ?::int[], ?::text[]) WITH ORDINALITY "
+            + "AS q(id, embedding, max_nn, text, ord)",
+        TEXT_SEARCH_CONFIG, vectorArrayType());
+  }
+
+  /*
+  Compares every query vector with all the stored vectors, always exact but can not use indexes.
+  */
+  static String exhaustiveSearchSql(SearchRequest request) {
+    var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
+    return String.format(
+        "WITH query_vectors AS (\n"
+            + " %s "
+            + " ), all_neighbors_w_distance as (\n"
+            + "  SELECT \n"
+            + "    t1.internalId, t1.id queryVectorId, \n"
+            + "    t1.embedding query_embedding, t2.id neighborId, \n"
+            + "    t2.embedding neighborEmbedding, t1.max_nn,\n"
+            + "    t1.embedding <=> t2.embedding distance\n"
+            + "  FROM \n"
+            + "    query_vectors t1\n"
+            + "  CROSS JOIN\n"
+            + "    %s.%s t2\n"
+            + "%s"
+            + "), vectors_with_distance AS (\n"
+            + "  SELECT \n"
+            + "    internalId, queryVectorId, query_embedding, \n"
+            + "    neighborId, neighborEmbedding, distance, max_nn,\n"
+            + "    row_number() OVER(PARTITION BY internalId ORDER BY distance) rn\n"
+            + "  FROM \n"
+            + "    all_neighbors_w_distance\n"
+            + ")\n"
+            + "SELECT \n"
+            + "  internalId, queryVectorId, \n"
+            + "  neighborId, %s neighborEmbedding, distance\n"
+            + "FROM\n"
+            + "  vectors_with_distance\n"
+            + "WHERE \n"
+            + "  rn <= max_nn\n"
+            + "ORDER BY\n"
+            + "  internalId asc, distance asc",
+        queryVectorsSql(),
+        alloyDBConfig.schema(),
+        alloyDBConfig.table(),
+        filterClause(filterPredicates(request.filter()), "  WHERE\n    "),
+        neighborEmbeddingColumn(request, "neighborEmbedding"));
+  }
+
+  /*
+  Runs one ORDER BY distance LIMIT k per query vector, which lets the planner use a vector index
+  (HNSW, IVFFlat or ScaNN) when present. Without an index it still returns the exact neighbors.
+  */
+  static String indexedSearchSql(SearchRequest request) {
+    var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
+    return String.format(
+        "WITH query_vectors AS (\n"
+            + " %s "
+            + " )\n"
+            + "SELECT \n"
+            + "  t1.internalId, t1.id queryVectorId, \n"
+            + "  nn.neighborId, %s neighborEmbedding, nn.distance\n"
+            + "FROM\n"
+            + "  query_vectors t1\n"
+            + "CROSS JOIN LATERAL (\n"
+            + "  SELECT \n"
+            + "    t2.id neighborId, t2.embedding neighborEmbedding, \n"
+            + "    t2.embedding <=> t1.embedding distance\n"
+            + "  FROM \n"
+            + "    %s.%s t2\n"
+            + "%s"
+            + "  ORDER BY\n"
+            + "    t2.embedding <=> t1.embedding\n"
+            + "  LIMIT t1.max_nn\n"
+            + ") nn\n"
+            + "ORDER BY\n"
+            + "  t1.internalId asc, nn.distance asc",
+        queryVectorsSql(),
+        neighborEmbeddingColumn(request, "nn.neighborEmbedding"),
+        alloyDBConfig.schema(),
+        alloyDBConfig.table(),
+        filterClause(filterPredicates(request.filter()), "  WHERE\n    "));
+  }
+
+  /*
+  Retrieves the nearest neighbors by vector distance and the best matches of the query text over
+  the stored lexemes, each list ranked on its own, and fuses them with reciprocal rank fusion
+  (sum of 1 / (k + rank) on each list). Both lists run in the same statement, the vector one can
+  use a vector index and the lexical one the GIN index on the lexemes. Fused neighbors keep their
+  cosine distance to the query vector.
+  */
+  static String hybridSearchSql(SearchRequest request) {
+    var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
+    var predicates = filterPredicates(request.filter());
+    return String.format(
+        "WITH query_vectors AS (\n"
+            + " %s "
+            + " )\n"
+            + "SELECT \n"
+            + "  t1.internalId, t1.id queryVectorId, \n"
+            + "  f.neighborId, %s neighborEmbedding, \n"
+            + "  f.neighborEmbedding <=> t1.embedding distance\n"
+            + "FROM\n"
+            + "  query_vectors t1\n"
+            + "CROSS JOIN LATERAL (\n"
+            + "  SELECT \n"
+            + "    r.neighborId, t3.embedding neighborEmbedding, r.score\n"
+            + "  FROM (\n"
+            + "    SELECT \n"
+            + "      COALESCE(v.neighborId, l.neighborId) neighborId, \n"
+            + "      COALESCE(1.0 / (%d + v.rank), 0) + COALESCE(1.0 / (%d + l.rank), 0) score\n"
+            + "    FROM (\n"
+            + "      SELECT c.neighborId, row_number() OVER (ORDER BY c.distance) rank\n"
+            + "      FROM (\n"
+            + "        SELECT t2.id neighborId, t2.embedding <=> t1.embedding distance\n"
+            + "        FROM %s.%s t2\n"
+            + "%s"
+            + "        ORDER BY t2.embedding <=> t1.embedding\n"
+            + "        LIMIT t1.max_nn * %d\n"
+            + "      ) c\n"
+            + "    ) v\n"
+            + "    FULL OUTER JOIN (\n"
+            + "      SELECT c.neighborId, row_number() OVER (ORDER BY c.lexicalRank DESC) rank\n"
+            + "      FROM (\n"
+            + "        SELECT t2.id neighborId, \n"
+            + "          ts_rank_cd(t2.content_tsv, t1.lexical_query) lexicalRank\n"
+            + "        FROM %s.%s t2\n"
+            + "        WHERE t2.content_tsv @@ t1.lexical_query\n"
+            + "%s"
+            + "        ORDER BY lexicalRank DESC\n"
+            + "        LIMIT t1.max_nn * %d\n"
+            + "      ) c\n"
+            + "    ) l ON v.neighborId = l.neighborId\n"
+            + "    ORDER BY score DESC\n"
+            + "    LIMIT t1.max_nn\n"
+            + "  ) r\n"
+            + "  JOIN %s.%s t3 ON t3.id = r.neighborId\n"
+            + ") f\n"
+            + "ORDER BY\n"
+            + "  t1.internalId asc, f.score desc",
+        hybridQueryVectorsSql(),
+        neighborEmbeddingColumn(request, "f.neighborEmbedding"),
+        RRF_K,
+        RRF_K,
+        alloyDBConfig.schema(),
+        alloyDBConfig.table(),
+        filterClause(predicates, "        WHERE "),
+        HYBRID_CANDIDATES_FACTOR,
+        alloyDBConfig.schema(),
+        alloyDBConfig.table(),
+        filterClause(predicates, "          AND "),
+        HYBRID_CANDIDATES_FACTOR,
+        alloyDBConfig.schema(),
+        alloyDBConfig.table());
+  }
+
+  /*
+  Search filters are applied on the stored metadata columns, each one binds its value as a
+  parameter after the query vectors ones.
+  */
+  record FilterPredicate(String sql, Object value) {}
+
+  static List<FilterPredicate> filterPredicates(Vectors.Filter filter) {
+    var predicates = new ArrayList<FilterPredicate>();
+    Optional.ofNullable(filter.sourceId())
+        .ifPresent(value -> predicates.add(new FilterPredicate("t2.source_id = ?", value)));
+    Optional.ofNullable(filter.mimeType())
+        .ifPresent(value -> predicates.add(new FilterPredicate("t2.mime_type = ?", value)));
+    Optional.ofNullable(filter.ingestedFrom())
+        .ifPresent(
+            value ->
+                predicates.add(
+                    new FilterPredicate(
+                        "t2.ingested_at >= to_timestamp(?::bigint / 1000.0)", value)));
+    Optional.ofNullable(filter.ingestedTo())
+        .ifPresent(
+            value ->
+                predicates.add(
+                    new FilterPredicate(
+                        "t2.ingested_at < to_timestamp(?::bigint / 1000.0)", value)));
+    Optional.ofNullable(filter.tenant())
+        .ifPresent(value -> predicates.add(new FilterPredicate("t2.tenant = ?", value)));
+    return predicates;
+  }
+
+  static String filterClause(List<FilterPredicate> predicates, String prefix) {
+    return predicates.isEmpty()
+        ? ""
+        : predicates.stream()
+            .map(FilterPredicate::sql)
+            .collect(Collectors.joining(" AND ", prefix, "\n"));
+  }
+
+  /*
+  Generic plans can not tell which partial indexes match the filter values, so filtered searches
+  are planned with their bound values instead.
+  */
+  static List<String> searchLocalSettings(SearchRequest request) {
+    var settings =
+        new ArrayList<>(request.tuning().map(SearchTuning::localSettings).orElse(List.of()));
+    if (!request.filter().isEmpty()) {
+      settings.add("SET LOCAL plan_cache_mode = force_custom_plan");
+    }
+    return settings;
+  }
+
+  static GCPEnvironment.QuantizedSearch quantizedSearch(SearchRequest request) {
+    return request
+        .quantization()
+        .orElse(GCPEnvironment.config().alloyDBConfig().quantizedSearch());
+  }
+
+  /*
+  Quantized copies are stored as generated columns of the embeddings table (see ALLOY.md), an index
+  on them is smaller than the full precision one but its distances are approximate.
+  */
+  static String quantizedDistance(GCPEnvironment.Quantization quantization) {
+    return switch (quantization) {
+      case NONE -> "t2.embedding <=> t1.embedding";
+      case HALFVEC -> "t2.embedding_half <=> t1.embedding::halfvec";
+      case BIT -> "t2.embedding_bit <~> binary_quantize(t1.embedding)";
+    };
+  }
+
+  /*
+  Same as the indexed search, but candidates are retrieved ordering by the quantized copy distance
+  and then re-ranked with the exact distance of their full precision vectors, all in the same
+  statement.
+  */
+  static String quantizedSearchSql(
+      SearchRequest request, GCPEnvironment.QuantizedSearch quantizedSearch) {
+    var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
+    return String.format(
+        "WITH query_vectors AS (\n"
+            + " %s "
+            + " )\n"
+            + "SELECT \n"
+            + "  t1.internalId, t1.id queryVectorId, \n"
+            + "  nn.neighborId, %s neighborEmbedding, nn.distance\n"
+            + "FROM\n"
+            + "  query_vectors t1\n"
+            + "CROSS JOIN LATERAL (\n"
+            + "  SELECT \n"
+            + "    c.neighborId, c.neighborEmbedding, \n"
+            + "    c.neighborEmbedding <=> t1.embedding distance\n"
+            + "  FROM (\n"
+            + "    SELECT \n"
+            + "      t2.id neighborId, t2.embedding neighborEmbedding\n"
+            + "    FROM \n"
+            + "      %s.%s t2\n"
+            + "%s"
+            + "    ORDER BY\n"
+            + "      %s\n"
+            + "    LIMIT t1.max_nn * %d\n"
+            + "  ) c\n"
+            + "  ORDER BY\n"
+            + "    c.neighborEmbedding <=> t1.embedding\n"
+            + "  LIMIT t1.max_nn\n"
+            + ") nn\n"
+            + "ORDER BY\n"
+            + "  t1.internalId asc, nn.distance asc",
+        queryVectorsSql(),
+        neighborEmbeddingColumn(request, "nn.neighborEmbedding"),
+        alloyDBConfig.schema(),
+        alloyDBConfig.table(),
+        filterClause(filterPredicates(request.filter()), "    WHERE\n      "),
+        quantizedDistance(quantizedSearch.quantization()),
+        quantizedSearch.oversampling());
+  }
+
+  // avoids transferring and decoding the neighbor vectors when not requested
+  static String neighborEmbeddingColumn(SearchRequest request, String column) {
+    return request.returnEmbeddings() ? column : "NULL::vector";
+  }
+
+  static PreparedStmtParams searchPstmtParams(SearchRequest request) {
+    var predicates = filterPredicates(request.filter());
+    // exhaustive searches are always exact, quantization only applies to the indexed ones
+    var quantizedSearch =
+        request.mode() == SearchMode.INDEXED
+            ? quantizedSearch(request)
+            : GCPEnvironment.QuantizedSearch.none();
     String searchSql =
-        String.format(
-            "WITH query_vectors AS (\n"
-                + " %s "
-                + " ), all_neighbors_w_distance as (\n"
-                + "  SELECT \n"
-                + "    t1.internalId, t1.id queryVectorId, \n"
-                + "    t1.embedding query_embedding, t2.id neighborId, \n"
-                + "    t2.embedding neighborEmbedding, t1.max_nn,\n"
-                + "    t1.embedding <=> t2.embedding distance\n"
-                + "  FROM \n"
-                + "    query_vectors t1\n"
-                + "  CROSS JOIN\n"
-                + "    %s.%s t2\n"
-                + "), vectors_with_distance AS (\n"
-                + "  SELECT \n"
-                + "    internalId, queryVectorId, query_embedding, \n"
-                + "    neighborId, neighborEmbedding, distance, max_nn,\n"
-                + "    row_number() OVER(PARTITION BY internalId ORDER BY distance) rn\n"
-                + "  FROM \n"
-                + "    all_neighbors_w_distance\n"
-                + ")\n"
-                + "SELECT \n"
-                + "  internalId, queryVectorId, \n"
-                + "  neighborId, neighborEmbedding, distance\n"
-                + "FROM\n"
-                + "  vectors_with_distance\n"
-                + "WHERE \n"
-                + "  rn <= max_nn\n"
-                + "ORDER BY\n"
-                + "  internalId asc",
-            queriesToSearchForStr, alloyDBConfig.schema(), alloyDBConfig.table());
+        sqlTemplate(
+            "search."
+                + request.mode()
+                + "."
+                + request.returnEmbeddings()
+                + "."
+                + quantizedSearch.quantization()
+                + "."
+                + quantizedSearch.oversampling()
+                + filterClause(predicates, "."),
+            () ->
+                switch (request.mode()) {
+                  case EXHAUSTIVE -> exhaustiveSearchSql(request);
+                  case HYBRID -> hybridSearchSql(request);
+                  case INDEXED ->
+                      quantizedSearch.quantization() == GCPEnvironment.Quantization.NONE
+                          ? indexedSearchSql(request)
+                          : quantizedSearchSql(request, quantizedSearch);
+                });
 
-    return new PreparedStmtParams(
-        searchSql,
-        pstmt -> {
-          IntStream.range(0, request.queries().size())
-              .forEach(
-                  i -> {
-                    Query query = request.queries().get(i);
-                    try {
-                      pstmt.setInt(i * 4 + 1, i);
-                      pstmt.setString(i * 4 + 2, query.datapoint().datapointId());
-                      pstmt.setString(i * 4 + 3, query.datapoint().featureVector().toString());
-                      pstmt.setInt(i * 4 + 4, query.neighborCount());
-                    } catch (SQLException e) {
-                      throw new RuntimeException(e);
-                    }
-                  });
-        });
+    var queries = request.queries();
+    var parameters = new ArrayList<Object>();
+    parameters.add(queries.stream().map(q -> q.datapoint().datapointId()).toArray(String[]::new));
+    parameters.add(
+        queries.stream().map(q -> q.datapoint().featureVector()).toArray(Float32Vector[]::new));
+    parameters.add(queries.stream().map(Query::neighborCount).toArray(Integer[]::new));
+    // hybrid searches bind the query texts and apply the filters on both of their lists
+    var filterLists = 1;
+    if (request.mode() == SearchMode.HYBRID) {
+      parameters.add(queries.stream().map(Query::text).toArray(String[]::new));
+      filterLists = 2;
+    }
+    for (int list = 0; list < filterLists; list++) {
+      predicates.forEach(predicate -> parameters.add(predicate.value()));
+    }
+    return new PreparedStmtParams(searchSql, parameters, searchLocalSettings(request));
   }
 
   static PreparedStmtParams upsertPstmtParams(UpsertRequest request) {
     var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
-    String singleInsertValue = "(? ,CAST(? as vector))";
-    String insertValues =
-        String.join(",\n", Collections.nCopies(request.datapoints().size(), singleInsertValue));
     String upsertSql =
-        String.format(
-            "INSERT INTO %s.%s (id, embedding) VALUES %s ON CONFLICT "
-                + "(id) DO UPDATE SET embedding = EXCLUDED.embedding; ",
-            alloyDBConfig.schema(), alloyDBConfig.table(), insertValues);
+        sqlTemplate(
+            "upsert",
+            () ->
+                String.format(
+                    "INSERT INTO %s.%s "
+                        + "(id, embedding, source_id, mime_type, ingested_at, tenant, content_tsv) "
+                        + "SELECT u.id, u.embedding::vector, u.source_id, u.mime_type, "
+                        + "to_timestamp(u.ingested_at / 1000.0), u.tenant, "
+                        + "to_tsvector('%s', u.content) "
+                        + "FROM unnest(?::text[], ?::%s, ?::text[], ?::text[], ?::bigint[], "
+                        + "?::text[], ?::text[]) "
+                        + "AS u(id, embedding, source_id, mime_type, ingested_at, tenant, content) "
+                        + "ON CONFLICT (id) DO UPDATE SET %s",
+                    alloyDBConfig.schema(),
+                    alloyDBConfig.table(),
+                    TEXT_SEARCH_CONFIG,
+                    vectorArrayType(),
+                    UPSERT_ASSIGNMENTS));
 
+    var datapoints = request.datapoints();
+    var metadata = datapoints.stream().map(Vectors.Datapoint::metadata).toList();
     return new PreparedStmtParams(
         upsertSql,
-        pstmt -> {
-          IntStream.range(0, request.datapoints().size())
-              .forEach(
-                  i -> {
-                    Vectors.Datapoint datapoint = request.datapoints.get(i);
-                    try {
-                      pstmt.setString(i * 2 + 1, datapoint.datapointId());
-                      pstmt.setString(i * 2 + 2, datapoint.featureVector().toString());
-                    } catch (SQLException e) {
-                      throw new RuntimeException(e);
-                    }
-                  });
-        });
+        List.of(
+            datapoints.stream().map(Vectors.Datapoint::datapointId).toArray(String[]::new),
+            datapoints.stream().map(Vectors.Datapoint::featureVector).toArray(Float32Vector[]::new),
+            metadata.stream().map(Vectors.Metadata::sourceId).toArray(String[]::new),
+            metadata.stream().map(Vectors.Metadata::mimeType).toArray(String[]::new),
+            metadata.stream().map(Vectors.Metadata::ingestedAt).toArray(Long[]::new),
+            metadata.stream().map(Vectors.Metadata::tenant).toArray(String[]::new),
+            metadata.stream().map(Vectors.Metadata::content).toArray(String[]::new)));
   }
 
   static PreparedStmtParams removePstmtParams(RemoveRequest request) {
     var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
     String removeSql =
-        String.format(
-            "DELETE FROM %s.%s WHERE id = ANY(?);", alloyDBConfig.schema(), alloyDBConfig.table());
+        sqlTemplate(
+            "remove",
+            () ->
+                String.format(
+                    "DELETE FROM %s.%s WHERE id = ANY(?)",
+                    alloyDBConfig.schema(), alloyDBConfig.table()));
     return new PreparedStmtParams(
-        removeSql,
-        ptsmt -> {
-          try {
-            ptsmt.setArray(
-                1, ptsmt.getConnection().createArrayOf("TEXT", request.datapointIds.toArray()));
-          } catch (Exception e) {
-            throw new RuntimeException(e);
-          }
-        });
+        removeSql, List.of(request.datapointIds().toArray(String[]::new)));
   }
 
   static String alloyJDBCUrl() {
-    var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
+    return alloyJDBCUrl(GCPEnvironment.config().alloyDBConfig().ipAddressDB());
+  }
+
+  static String alloyJDBCUrl(String ipAddress) {
     return String.format(
-        "jdbc:postgresql://%s:5432/%s", alloyDBConfig.ipAddressDB(), alloyDBConfig.databaseName());
+        "jdbc:postgresql://%s:5432/%s",
+        ipAddress, GCPEnvironment.config().alloyDBConfig().databaseName());
   }
 
+  public record ReadReplicaStatus(
+      String ipAddress, Boolean usable, Long lagMillis, Integer outstandingRequests) {}
+
+  /** State of the configured read replicas, as seen by the searches routing. */
+  public static List<ReadReplicaStatus> readReplicas() {
+    return AlloyDBReadRouter.status();
+  }
+
+  /*
+  Statement parameters do not depend on the driver executing them: text, int and bigint arrays are
+  kept as String[], Integer[] and Long[], vector arrays as Float32Vector[] and any other value as
+  is.
+  */
   public record PreparedStmtParams(
-      String sqlString, Consumer<PreparedStatement> pstmtParamSetter) {}
-  ;
+      String sqlString, List<Object> parameters, List<String> localSettings) {
+    public PreparedStmtParams(String sqlString, List<Object> parameters) {
+      this(sqlString, parameters, List.of());
+    }
+
+    public Consumer<PreparedStatement> pstmtParamSetter() {
+      return pstmt -> {
+        try {
+          bindParameters(pstmt, parameters);
+        } catch (SQLException e) {
+          throw new RuntimeException(e);
+        }
+      };
+    }
+  }
+
+  static void bindParameters(PreparedStatement pstmt, List<Object> parameters)
+      throws SQLException {
+    var connection = pstmt.getConnection();
+    for (int i = 0; i < parameters.size(); i++) {
+      var index = i + 1;
+      switch (parameters.get(i)) {
+        case String[] values -> pstmt.setArray(index, connection.createArrayOf("text", values));
+        case Integer[] values -> pstmt.setArray(index, connection.createArrayOf("int4", values));
+        case Long[] values -> pstmt.setArray(index, connection.createArrayOf("int8", values));
+        case Float32Vector[] vectors ->
+            pstmt.setObject(index, vectorArray(connection, Arrays.asList(vectors)));
+        case Object value -> pstmt.setObject(index, value);
+      }
+    }
+  }
 
   /*
-  Nearest neighbor search types.
+  Nearest neighbor search types, hybrid searches also match the query text with the stored content.
   */
-  public record SearchRequest(List<Query> queries) implements Vectors.Search {}
+  public enum SearchMode {
+    EXHAUSTIVE,
+    INDEXED,
+    HYBRID
+  }
 
-  public record NeighborsResponse(List<Vectors.Neighbors> nearestNeighbors)
-      implements Vectors.SearchResponse {}
+  /*
+  Index query time settings, only the ones matching the existing index type take effect.
+  */
+  public record SearchTuning(
+      Optional<Integer> efSearch, Optional<Integer> probes, Optional<Integer> numLeavesToSearch) {
+
+    Map<String, Integer> settings() {
+      var settings = new LinkedHashMap<String, Integer>();
+      efSearch.ifPresent(value -> settings.put("hnsw.ef_search", value));
+      probes.ifPresent(value -> settings.put("ivfflat.probes", value));
+      numLeavesToSearch.ifPresent(value -> settings.put("scann.num_leaves_to_search", value));
+      return settings;
+    }
+
+    List<String> localSettings() {
+      return settings().entrySet().stream()
+          .map(setting -> String.format("SET LOCAL %s = %d", setting.getKey(), setting.getValue()))
+          .toList();
+    }
+  }
+
+  /**
+   * When no quantization is provided indexed searches use the one configured for the deployment,
+   * see {@link GCPEnvironment.AlloyDBConfig#quantizedSearch()}.
+   */
+  public record SearchRequest(
+      List<Query> queries,
+      SearchMode mode,
+      Optional<SearchTuning> tuning,
+      Boolean returnEmbeddings,
+      Vectors.Filter filter,
+      Optional<GCPEnvironment.QuantizedSearch> quantization)
+      implements Vectors.Search {
+    public SearchRequest {
+      filter = filter == null ? Vectors.Filter.none() : filter;
+      quantization = quantization == null ? Optional.empty() : quantization;
+    }
+
+    public SearchRequest(
+        List<Query> queries,
+        SearchMode mode,
+        Optional<SearchTuning> tuning,
+        Boolean returnEmbeddings,
+        Vectors.Filter filter) {
+      this(queries, mode, tuning, returnEmbeddings, filter, Optional.empty());
+    }
+
+    public SearchRequest(
+        List<Query> queries,
+        SearchMode mode,
+        Optional<SearchTuning> tuning,
+        Boolean returnEmbeddings) {
+      this(queries, mode, tuning, returnEmbeddings, Vectors.Filter.none());
+    }
+
+    public SearchRequest(List<Query> queries, SearchMode mode, Optional<SearchTuning> tuning) {
+      this(queries, mode, tuning, false);
+    }
 
-  public record Query(Vectors.Datapoint datapoint, Integer neighborCount) {}
+    public SearchRequest(List<Query> queries, Boolean returnEmbeddings, Vectors.Filter filter) {
+      this(queries, SearchMode.INDEXED, Optional.empty(), returnEmbeddings, filter);
+    }
 
-  record NNSearchSQLResultCompID(int internalId, String queryVectorId) {}
-  ;
+    public SearchRequest(List<Query> queries, Boolean returnEmbeddings) {
+      this(queries, SearchMode.INDEXED, Optional.empty(), returnEmbeddings);
+    }
+
+    public SearchRequest(List<Query> queries) {
+      this(queries, false);
+    }
+  }
+
+  public record NeighborsResponse(List<Vectors.Neighbors> nearestNeighbors)
+      implements Vectors.SearchResponse {}
 
-  record NNSearchResultRow(NNSearchSQLResultCompID compID, Vectors.Neighbor neighbor) {}
-  ;
+  /** The text is only used by hybrid searches, queries without it only match by vector. */
+  public record Query(Vectors.Datapoint datapoint, Integer neighborCount, String text) {
+    public Query(Vectors.Datapoint datapoint, Integer neighborCount) {
+      this(datapoint, neighborCount, null);
+    }
+  }
 
   /*
   Index datapoint store types.
   */
   public record UpsertRequest(List<Vectors.Datapoint> datapoints) implements Vectors.Store {}
 
-  public record UpsertResponse() implements Vectors.StoreResponse {}
+  /** Completed once the database acknowledged the write, with the amount of affected rows. */
+  public record UpsertResponse(Integer rows) implements Vectors.StoreResponse {}
+
+  public record BulkUpsertOptions(Integer batchSize, Integer parallelism) {
+    public static BulkUpsertOptions defaults() {
+      return new BulkUpsertOptions(5000, 4);
+    }
+  }
+
+  public record BulkUpsertRequest(List<Vectors.Datapoint> datapoints, BulkUpsertOptions options)
+      implements Vectors.Store {
+    public BulkUpsertRequest(List<Vectors.Datapoint> datapoints) {
+      this(datapoints, BulkUpsertOptions.defaults());
+    }
+  }
+
+  public record BulkUpsertResponse(Long rows, Long elapsedMillis)
+      implements Vectors.StoreResponse {
+    public Double rowsPerSecond() {
+      return elapsedMillis == 0 ? 0.0 : rows * 1000.0 / elapsedMillis;
+    }
+  }
 
   /*
   Remove datapoint types.
   */
   public record RemoveRequest(List<String> datapointIds) implements Vectors.Delete {}
 
-  public record RemoveResponse() implements Vectors.DeleteResponse {}
+  public record RemoveResponse(Integer rows) implements Vectors.DeleteResponse {}
 
   static PreparedStmtParams getPstmtParams(Vectors.Request request) {
     return switch (request) {
@@ -192,41 +660,57 @@ public class AlloyDB {
   /*
   Nearest neighbor search helpers.
   */
-  static NNSearchResultRow nnSearchResultRowFromResultSet(ResultSet rs) throws SQLException {
-    ((PGConnection) rs.getStatement().getConnection()).addDataType("vector", PGvector.class);
-    int internalId = rs.getInt("internalId");
-    String queryVectorId = rs.getString("queryVectorId");
-    NNSearchSQLResultCompID compID = new NNSearchSQLResultCompID(internalId, queryVectorId);
-    String neighborId = rs.getString("neighborId");
-    PGvector neighborEmbedding = (PGvector) rs.getObject("neighborEmbedding");
-    Double distance = (Double) rs.getDouble("distance");
-    Vectors.Datapoint datapoint =
-        new Vectors.Datapoint(neighborId, pGvectorToListDouble(neighborEmbedding));
-    Vectors.Neighbor neighbor = new Vectors.Neighbor(distance, datapoint);
-    return new NNSearchResultRow(compID, neighbor);
+  static Vectors.Neighbor neighborFromResultSet(ResultSet rs) throws SQLException {
+    // columns: internalId, queryVectorId, neighborId, neighborEmbedding, distance
+    var embedding = (PGvector) rs.getObject(4);
+    return new Vectors.Neighbor(
+        rs.getDouble(5),
+        new Vectors.Datapoint(
+            rs.getString(3),
+            embedding == null ? Float32Vector.empty() : Float32Vector.wrap(embedding.toArray())));
+  }
+
+  // queries without rows keep their slot in the response, with no neighbors
+  static void addEmptyNeighbors(
+      List<Vectors.Neighbors> nearestNeighbors, SearchRequest request, int untilQuery) {
+    for (int i = nearestNeighbors.size(); i < untilQuery; i++) {
+      nearestNeighbors.add(
+          new Vectors.Neighbors(request.queries().get(i).datapoint().datapointId(), List.of()));
+    }
   }
 
   static Result<NeighborsResponse, ErrorResponse> neighborsResponseFromResultSet(
-      ResultSet resultSet) {
+      SearchRequest request, ResultSet resultSet) {
     /*
      * result from DB has <internalId, queryVectorId, neighborId, neighborEmbedding, distance>
-     * this has to be mapped to <vectorQueryId,<distance, neighborId, neighborEmbedding>[]>[]
-     * respecting the order of the queries in the request
+     * ordered by internalId, the position of the query in the request, so the neighbors of each
+     * query are contiguous and can be mapped to
+     * <vectorQueryId,<distance, neighborId, neighborEmbedding>[]>[] in a single pass, respecting
+     * the order of the queries in the request
      */
     try {
-      NeighborsResponse neighborsResponse =
-          new NeighborsResponse(
-              streamResultSet(resultSet, AlloyDB::nnSearchResultRowFromResultSet)
-                  .collect(Collectors.groupingBy(NNSearchResultRow::compID))
-                  .entrySet()
-                  .stream()
-                  .map(
-                      entry ->
-                          new Vectors.Neighbors(
-                              entry.getKey().queryVectorId(),
-                              entry.getValue().stream().map(NNSearchResultRow::neighbor).toList()))
-                  .toList());
-      return Result.success(neighborsResponse);
+      var nearestNeighbors = new ArrayList<Vectors.Neighbors>(request.queries().size());
+      var currentInternalId = -1;
+      String currentQueryVectorId = null;
+      var currentNeighbors = new ArrayList<Vectors.Neighbor>();
+      while (resultSet.next()) {
+        var internalId = resultSet.getInt(1);
+        if (internalId != currentInternalId) {
+          if (currentInternalId >= 0) {
+            nearestNeighbors.add(new Vectors.Neighbors(currentQueryVectorId, currentNeighbors));
+            currentNeighbors = new ArrayList<>();
+          }
+          addEmptyNeighbors(nearestNeighbors, request, internalId);
+          currentInternalId = internalId;
+          currentQueryVectorId = resultSet.getString(2);
+        }
+        currentNeighbors.add(neighborFromResultSet(resultSet));
+      }
+      if (currentInternalId >= 0) {
+        nearestNeighbors.add(new Vectors.Neighbors(currentQueryVectorId, currentNeighbors));
+      }
+      addEmptyNeighbors(nearestNeighbors, request, request.queries().size());
+      return Result.success(new NeighborsResponse(nearestNeighbors));
     } catch (SQLException e) {
       return Result.failure("Errors occurred while parsing search results", e);
     }
@@ -242,40 +726,70 @@ public class AlloyDB {
             jdbcUrl,
             alloyDBConfig.user(),
             alloyDBConfig.password(),
+            alloyDBConfig.poolConfig(),
             pstmtParams.sqlString(),
             pstmtParams.pstmtParamSetter()));
   }
 
-  static Result<CompletableFuture<ResultSet>, Exception> executeQueryInternal(
-      Vectors.Request request) {
+  // queries are read only, so they can run on the read replicas, updates stay on the primary
+  static <T> Result<CompletableFuture<T>, Exception> executeQueryInternal(
+      Vectors.Request request, ResultSetMapper<T> resultSetMapper) {
     PreparedStmtParams pstmtParams = getPstmtParams(request);
-    String jdbcUrl = alloyJDBCUrl();
     var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
     return Result.success(
-        executeQueryAsync(
-            jdbcUrl,
-            alloyDBConfig.user(),
-            alloyDBConfig.password(),
-            pstmtParams.sqlString(),
-            pstmtParams.pstmtParamSetter()));
+        AlloyDBReadRouter.route(
+            ipAddress ->
+                executeQueryAsync(
+                    alloyJDBCUrl(ipAddress),
+                    alloyDBConfig.user(),
+                    alloyDBConfig.password(),
+                    alloyDBConfig.poolConfig(),
+                    pstmtParams.localSettings(),
+                    pstmtParams.sqlString(),
+                    pstmtParams.pstmtParamSetter(),
+                    resultSetMapper)));
   }
 
   static CompletableFuture<Result<? extends Vectors.SearchResponse, ErrorResponse>> search(
       SearchRequest request) {
-    return switch (executeQueryInternal(request)) {
+    return switch (GCPEnvironment.config().alloyDBConfig().driver()) {
+      case JDBC -> jdbcSearch(request);
+      case REACTIVE -> AlloyDBReactiveClient.search(request);
+    };
+  }
+
+  static CompletableFuture<Result<? extends Vectors.SearchResponse, ErrorResponse>> jdbcSearch(
+      SearchRequest request) {
+    return switch (executeQueryInternal(
+        request, resultSet -> neighborsResponseFromResultSet(request, resultSet))) {
       case Result.Failure<?, Exception>(var error) ->
           CompletableFuture.completedFuture(
               Result.failure(
                   new ErrorResponse(
                       "Errors occurred while executing search SQL statement.",
                       Optional.of(error))));
-      case Result.Success<CompletableFuture<ResultSet>, ?>(var value) ->
-          value.thenApply(rs -> neighborsResponseFromResultSet(rs));
+      case Result.Success<CompletableFuture<Result<NeighborsResponse, ErrorResponse>>, ?>(
+              var value) ->
+          value
+              .<Result<? extends Vectors.SearchResponse, ErrorResponse>>thenApply(
+                  response -> response)
+              .exceptionally(
+                  error -> Result.failure("Errors occurred while executing search.", error));
     };
   }
 
   static CompletableFuture<Result<? extends Vectors.StoreResponse, ErrorResponse>> store(
       UpsertRequest request) {
+    return switch (GCPEnvironment.config().alloyDBConfig().driver()) {
+      case JDBC -> jdbcStore(request);
+      case REACTIVE ->
+          AlloyDBReactiveClient.update(request)
+              .thenApply(result -> result.map(UpsertResponse::new));
+    };
+  }
+
+  static CompletableFuture<Result<? extends Vectors.StoreResponse, ErrorResponse>> jdbcStore(
+      UpsertRequest request) {
     return switch (executeUpdateInternal(request)) {
       case Result.Failure<?, Exception>(var error) ->
           CompletableFuture.completedFuture(
@@ -284,12 +798,39 @@ public class AlloyDB {
                       "Errors occurred while executing upsert SQL statement.",
                       Optional.of(error))));
       case Result.Success<CompletableFuture<Integer>, ?>(var value) ->
-          CompletableFuture.completedFuture(Result.success(new UpsertResponse()));
+          value
+              .<Result<? extends Vectors.StoreResponse, ErrorResponse>>thenApply(
+                  rows -> Result.success(new UpsertResponse(rows)))
+              .exceptionally(
+                  error -> Result.failure("Errors occurred while executing upsert.", error));
     };
   }
 
+  static CompletableFuture<Result<? extends Vectors.StoreResponse, ErrorResponse>> bulkStore(
+      BulkUpsertRequest request) {
+    var startMillis = System.currentTimeMillis();
+    return AlloyDBBulkLoader.load(request.datapoints(), request.options())
+        .<Result<? extends Vectors.StoreResponse, ErrorResponse>>thenApply(
+            rows -> {
+              var elapsedMillis = System.currentTimeMillis() - startMillis;
+              AlloyDBBulkLoader.logThroughput(rows, elapsedMillis);
+              return Result.success(new BulkUpsertResponse(rows, elapsedMillis));
+            })
+        .exceptionally(error -> Result.failure("Errors occurred while bulk loading.", error));
+  }
+
   static CompletableFuture<Result<? extends Vectors.DeleteResponse, ErrorResponse>> remove(
       RemoveRequest request) {
+    return switch (GCPEnvironment.config().alloyDBConfig().driver()) {
+      case JDBC -> jdbcRemove(request);
+      case REACTIVE ->
+          AlloyDBReactiveClient.update(request)
+              .thenApply(result -> result.map(RemoveResponse::new));
+    };
+  }
+
+  static CompletableFuture<Result<? extends Vectors.DeleteResponse, ErrorResponse>> jdbcRemove(
+      RemoveRequest request) {
     return switch (executeUpdateInternal(request)) {
       case Result.Failure<?, Exception>(var error) ->
           CompletableFuture.completedFuture(
@@ -298,7 +839,11 @@ public class AlloyDB {
                       "Errors occurred while executing delete SQL statement.",
                       Optional.of(error))));
       case Result.Success<CompletableFuture<Integer>, ?>(var value) ->
-          CompletableFuture.completedFuture(Result.success(new RemoveResponse()));
+          value
+              .<Result<? extends Vectors.DeleteResponse, ErrorResponse>>thenApply(
+                  rows -> Result.success(new RemoveResponse(rows)))
+              .exceptionally(
+                  error -> Result.failure("Errors occurred while executing delete.", error));
     };
   }
 }
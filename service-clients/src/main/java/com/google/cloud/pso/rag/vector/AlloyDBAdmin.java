@@ -0,0 +1,631 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pso.rag.vector;
+
+import static com.google.cloud.pso.rag.common.InteractionHelper.jsonMapper;
+
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.cloud.pso.rag.common.Float32Vector;
+import com.google.cloud.pso.rag.common.GCPEnvironment;
+import com.google.cloud.pso.rag.common.JDBCHelper;
+import com.google.cloud.pso.rag.common.Result;
+import com.google.cloud.pso.rag.common.Result.ErrorResponse;
+import com.pgvector.PGvector;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/** Administrative operations for the vector indexes of the AlloyDB embeddings table. */
+public class AlloyDBAdmin {
+
+  private static final Pattern VALID_IDENTIFIER = Pattern.compile("[a-zA-Z_][a-zA-Z0-9_]{0,62}");
+  private static final Pattern VALID_TENANT = Pattern.compile("[a-zA-Z0-9_.@-]{1,128}");
+
+  private AlloyDBAdmin() {}
+
+  static String checkIdentifier(String name) {
+    if (name == null || !VALID_IDENTIFIER.matcher(name).matches()) {
+      throw new IllegalArgumentException("Not a valid index name: " + name);
+    }
+    return name;
+  }
+
+  static String checkTenant(String tenant) {
+    if (tenant != null && !VALID_TENANT.matcher(tenant).matches()) {
+      throw new IllegalArgumentException("Not a valid tenant: " + tenant);
+    }
+    return tenant;
+  }
+
+  /*
+  Index definition types, distances are computed as cosine distance (<=> operator) by the searches.
+  When a tenant is set the index only covers that tenant rows, and it is used by the searches
+  filtering by it. HNSW and IVFFlat indexes can be built on a quantized copy of the vectors instead.
+  */
+
+  @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, property = "type")
+  @JsonSubTypes({
+    @JsonSubTypes.Type(value = Hnsw.class, name = "hnsw"),
+    @JsonSubTypes.Type(value = IvfFlat.class, name = "ivfflat"),
+    @JsonSubTypes.Type(value = ScaNN.class, name = "scann")
+  })
+  public sealed interface IndexDefinition permits Hnsw, IvfFlat, ScaNN {
+    String name();
+
+    String tenant();
+  }
+
+  public record Hnsw(
+      String name,
+      Integer m,
+      Integer efConstruction,
+      String tenant,
+      GCPEnvironment.Quantization quantization)
+      implements IndexDefinition {
+    public Hnsw {
+      checkIdentifier(name);
+      checkTenant(tenant);
+      quantization = quantization == null ? GCPEnvironment.Quantization.NONE : quantization;
+    }
+
+    public Hnsw(String name, Integer m, Integer efConstruction) {
+      this(name, m, efConstruction, null, GCPEnvironment.Quantization.NONE);
+    }
+  }
+
+  public record IvfFlat(
+      String name, Integer lists, String tenant, GCPEnvironment.Quantization quantization)
+      implements IndexDefinition {
+    public IvfFlat {
+      checkIdentifier(name);
+      checkTenant(tenant);
+      quantization = quantization == null ? GCPEnvironment.Quantization.NONE : quantization;
+    }
+
+    public IvfFlat(String name, Integer lists) {
+      this(name, lists, null, GCPEnvironment.Quantization.NONE);
+    }
+  }
+
+  public record ScaNN(String name, Integer numLeaves, String tenant) implements IndexDefinition {
+    public ScaNN {
+      checkIdentifier(name);
+      checkTenant(tenant);
+    }
+
+    public ScaNN(String name, Integer numLeaves) {
+      this(name, numLeaves, null);
+    }
+  }
+
+  public record IndexInfo(String name, String definition) {}
+
+  public record SearchPlan(List<String> indexesUsed, String plan) {}
+
+  /** Compares the searches over each quantization level against the exact ones. */
+  public record QuantizationEvaluation(
+      Integer sampleSize, Integer neighborCount, List<GCPEnvironment.QuantizedSearch> levels) {}
+
+  public record QuantizationReport(
+      GCPEnvironment.Quantization quantization,
+      Integer oversampling,
+      Double recall,
+      Double averageLatencyMillis,
+      Double p95LatencyMillis) {}
+
+  public record QuantizationEvaluationResult(
+      Integer samples,
+      Integer neighborCount,
+      Double exactAverageLatencyMillis,
+      List<QuantizationReport> reports) {}
+
+  record TimedSearch(List<String> neighborIds, Long elapsedNanos) {}
+
+  // the operator class the index uses for each stored copy of the vectors
+  static String indexedColumn(GCPEnvironment.Quantization quantization) {
+    return switch (quantization) {
+      case NONE -> "embedding vector_cosine_ops";
+      case HALFVEC -> "embedding_half halfvec_cosine_ops";
+      case BIT -> "embedding_bit bit_hamming_ops";
+    };
+  }
+
+  static String createIndexSql(IndexDefinition definition) {
+    var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
+    var method =
+        switch (definition) {
+          case Hnsw(var __, var m, var efConstruction, var ___, var quantization) ->
+              String.format(
+                  "hnsw (%s) WITH (m = %d, ef_construction = %d)",
+                  indexedColumn(quantization), m, efConstruction);
+          case IvfFlat(var __, var lists, var ___, var quantization) ->
+              String.format(
+                  "ivfflat (%s) WITH (lists = %d)", indexedColumn(quantization), lists);
+          case ScaNN(var __, var numLeaves, var ___) ->
+              String.format("scann (embedding cosine) WITH (num_leaves = %d)", numLeaves);
+        };
+    return String.format(
+        "CREATE INDEX CONCURRENTLY IF NOT EXISTS %s ON %s.%s USING %s%s",
+        definition.name(),
+        alloyDBConfig.schema(),
+        alloyDBConfig.table(),
+        method,
+        Optional.ofNullable(definition.tenant())
+            .map(tenant -> String.format(" WHERE tenant = '%s'", tenant))
+            .orElse(""));
+  }
+
+  static <T> CompletableFuture<Result<T, ErrorResponse>> query(
+      String sql, Consumer<PreparedStatement> paramSetter, JDBCHelper.ResultSetMapper<T> mapper) {
+    var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
+    return JDBCHelper.executeQueryAsync(
+            AlloyDB.alloyJDBCUrl(),
+            alloyDBConfig.user(),
+            alloyDBConfig.password(),
+            alloyDBConfig.poolConfig(),
+            sql,
+            paramSetter,
+            mapper)
+        .thenApply(Result::<T, ErrorResponse>success)
+        .exceptionally(error -> Result.failure("Errors occurred while executing: " + sql, error));
+  }
+
+  static CompletableFuture<Result<Integer, ErrorResponse>> update(String sql) {
+    var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
+    return JDBCHelper.executeUpdateAsync(
+            AlloyDB.alloyJDBCUrl(),
+            alloyDBConfig.user(),
+            alloyDBConfig.password(),
+            alloyDBConfig.poolConfig(),
+            sql,
+            pstmt -> {})
+        .thenApply(Result::<Integer, ErrorResponse>success)
+        .exceptionally(error -> Result.failure("Errors occurred while executing: " + sql, error));
+  }
+
+  /** Creates the index without blocking writes on the table, noop if it already exists. */
+  public static CompletableFuture<Result<Integer, ErrorResponse>> createIndex(
+      IndexDefinition definition) {
+    return update(createIndexSql(definition));
+  }
+
+  public static CompletableFuture<Result<Integer, ErrorResponse>> dropIndex(String name) {
+    var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
+    return update(
+        String.format(
+            "DROP INDEX CONCURRENTLY IF EXISTS %s.%s",
+            alloyDBConfig.schema(), checkIdentifier(name)));
+  }
+
+  public static CompletableFuture<Result<List<IndexInfo>, ErrorResponse>> listIndexes() {
+    var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
+    return query(
+        "SELECT indexname, indexdef FROM pg_indexes WHERE schemaname = ? AND tablename = ?",
+        pstmt -> {
+          try {
+            pstmt.setString(1, alloyDBConfig.schema());
+            pstmt.setString(2, alloyDBConfig.table());
+          } catch (SQLException e) {
+            throw new RuntimeException(e);
+          }
+        },
+        rs -> {
+          var indexes = new ArrayList<IndexInfo>();
+          while (rs.next()) {
+            indexes.add(new IndexInfo(rs.getString("indexname"), rs.getString("indexdef")));
+          }
+          return indexes;
+        });
+  }
+
+  /**
+   * Stores the index search settings as the database defaults. Only new sessions pick them up, so
+   * pooled connections will use them once recycled; use {@link AlloyDB.SearchRequest#tuning()} to
+   * apply them on a specific search.
+   */
+  public static CompletableFuture<Result<Integer, ErrorResponse>> setDefaultTuning(
+      AlloyDB.SearchTuning tuning) {
+    var databaseName = checkIdentifier(GCPEnvironment.config().alloyDBConfig().databaseName());
+    return tuning.settings().entrySet().stream()
+        .map(
+            setting ->
+                update(
+                    String.format(
+                        "ALTER DATABASE %s SET %s = %d",
+                        databaseName, setting.getKey(), setting.getValue())))
+        .reduce(
+            CompletableFuture.completedFuture(Result.success(0)),
+            (previous, next) ->
+                previous.thenCombine(
+                    next,
+                    (prevResult, nextResult) ->
+                        prevResult.flatMap(count -> nextResult.map(__ -> count + 1))));
+  }
+
+  /** Returns the plan the database would use for the search and the indexes involved in it. */
+  public static CompletableFuture<Result<SearchPlan, ErrorResponse>> explainSearch(
+      AlloyDB.SearchRequest request) {
+    var pstmtParams = AlloyDB.searchPstmtParams(request);
+    var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
+    return JDBCHelper.executeQueryAsync(
+            AlloyDB.alloyJDBCUrl(),
+            alloyDBConfig.user(),
+            alloyDBConfig.password(),
+            alloyDBConfig.poolConfig(),
+            pstmtParams.localSettings(),
+            "EXPLAIN (FORMAT JSON) " + pstmtParams.sqlString(),
+            pstmtParams.pstmtParamSetter(),
+            rs -> rs.next() ? rs.getString(1) : "[]")
+        .thenApply(
+            plan ->
+                jsonMapper(plan, new TypeReference<List<Map<String, Object>>>() {})
+                    .map(nodes -> new SearchPlan(indexesInPlan(nodes).distinct().toList(), plan))
+                    .failMap(
+                        error ->
+                            new ErrorResponse(
+                                "Problems parsing the search plan.", Optional.of(error))))
+        .exceptionally(error -> Result.failure("Errors occurred while explaining search.", error));
+  }
+
+  static String quantizedColumnName(GCPEnvironment.Quantization quantization) {
+    return switch (quantization) {
+      case HALFVEC -> "embedding_half";
+      case BIT -> "embedding_bit";
+      case NONE -> "embedding";
+    };
+  }
+
+  static String quantizedColumnSql(GCPEnvironment.Quantization quantization, Integer dimensions) {
+    return switch (quantization) {
+      case HALFVEC ->
+          String.format(
+              "embedding_half halfvec(%d) GENERATED ALWAYS AS (embedding::halfvec(%d))",
+              dimensions, dimensions);
+      case BIT ->
+          String.format(
+              "embedding_bit bit(%d) GENERATED ALWAYS AS (binary_quantize(embedding)::bit(%d))",
+              dimensions, dimensions);
+      case NONE -> throw new IllegalArgumentException("A quantization level should be provided.");
+    };
+  }
+
+  /**
+   * Adds the quantized copy of the vectors as a generated column, so every write path keeps it in
+   * sync. Adding a stored generated column rewrites the table, so this takes a lock for as long as
+   * the rewrite lasts.
+   */
+  public static CompletableFuture<Result<Integer, ErrorResponse>> addQuantizedColumn(
+      GCPEnvironment.Quantization quantization, Integer dimensions) {
+    var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
+    return update(
+        String.format(
+            "ALTER TABLE %s.%s ADD COLUMN IF NOT EXISTS %s STORED",
+            alloyDBConfig.schema(),
+            alloyDBConfig.table(),
+            quantizedColumnSql(quantization, dimensions)));
+  }
+
+  static String qualifiedTable() {
+    var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
+    return alloyDBConfig.schema() + "." + alloyDBConfig.table();
+  }
+
+  static Integer embeddingDimensions(Connection connection) throws SQLException {
+    try (var pstmt =
+        connection.prepareStatement(
+            "SELECT atttypmod FROM pg_attribute "
+                + "WHERE attrelid = to_regclass(?) AND attname = 'embedding'")) {
+      pstmt.setString(1, qualifiedTable());
+      try (var rs = pstmt.executeQuery()) {
+        // pgvector keeps the declared dimensions as the column type modifier
+        return rs.next() ? rs.getInt(1) : -1;
+      }
+    }
+  }
+
+  /** Returns the dimensions declared by the embedding column of the table. */
+  public static CompletableFuture<Result<Integer, ErrorResponse>> embeddingDimensions() {
+    var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
+    return JDBCHelper.executeAsync(
+            AlloyDB.alloyJDBCUrl(),
+            alloyDBConfig.user(),
+            alloyDBConfig.password(),
+            alloyDBConfig.poolConfig(),
+            AlloyDBAdmin::embeddingDimensions)
+        .thenApply(
+            dims ->
+                dims > 0
+                    ? Result.<Integer, ErrorResponse>success(dims)
+                    : Result.<Integer, ErrorResponse>failure(
+                        String.format(
+                            "The embedding column of %s does not declare its dimensions.",
+                            qualifiedTable())))
+        .exceptionally(
+            error ->
+                Result.failure("Errors occurred while reading the embedding dimensions.", error));
+  }
+
+  public record DimensionsMigration(
+      Integer previousDimensions,
+      Integer dimensions,
+      List<GCPEnvironment.Quantization> rebuiltColumns,
+      List<String> rebuiltIndexes) {}
+
+  /**
+   * Reduces the stored vectors to the new dimensions, for embeddings models trained to keep their
+   * leading dimensions meaningful (like the text-embedding ones) this matches requesting the output
+   * dimensionality from the model, up to the normalization applied here. The quantized columns and
+   * the vector indexes are dropped and rebuilt at the new size, all in a single transaction that
+   * locks the table until it completes. Increasing the dimensions requires ingesting the content
+   * again.
+   */
+  public static CompletableFuture<Result<DimensionsMigration, ErrorResponse>> reduceDimensions(
+      Integer dimensions) {
+    var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
+    return JDBCHelper.executeAsync(
+            AlloyDB.alloyJDBCUrl(),
+            alloyDBConfig.user(),
+            alloyDBConfig.password(),
+            alloyDBConfig.poolConfig(),
+            connection -> reduceDimensions(connection, dimensions))
+        .exceptionally(
+            error -> Result.failure("Errors occurred while reducing the dimensions.", error));
+  }
+
+  static Result<DimensionsMigration, ErrorResponse> reduceDimensions(
+      Connection connection, Integer dimensions) throws SQLException {
+    var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
+    var table = qualifiedTable();
+    connection.setAutoCommit(false);
+    var previous = embeddingDimensions(connection);
+    if (previous <= 0 || dimensions < 1 || dimensions > previous) {
+      return Result.failure(
+          String.format(
+              "Can not migrate %s from %d to %d dimensions, only reductions are supported.",
+              table, previous, dimensions));
+    }
+    if (dimensions.equals(previous)) {
+      return Result.success(new DimensionsMigration(previous, dimensions, List.of(), List.of()));
+    }
+    var columns = new ArrayList<GCPEnvironment.Quantization>();
+    var indexes = new ArrayList<IndexInfo>();
+    try (var pstmt =
+        connection.prepareStatement(
+            "SELECT column_name FROM information_schema.columns WHERE table_schema = ? "
+                + "AND table_name = ? AND column_name IN ('embedding_half', 'embedding_bit')")) {
+      pstmt.setString(1, alloyDBConfig.schema());
+      pstmt.setString(2, alloyDBConfig.table());
+      try (var rs = pstmt.executeQuery()) {
+        while (rs.next()) {
+          columns.add(
+              quantizedColumnName(GCPEnvironment.Quantization.HALFVEC).equals(rs.getString(1))
+                  ? GCPEnvironment.Quantization.HALFVEC
+                  : GCPEnvironment.Quantization.BIT);
+        }
+      }
+    }
+    try (var pstmt =
+        connection.prepareStatement(
+            "SELECT indexname, indexdef FROM pg_indexes WHERE schemaname = ? AND tablename = ? "
+                + "AND indexdef ~ 'USING (hnsw|ivfflat|scann)'")) {
+      pstmt.setString(1, alloyDBConfig.schema());
+      pstmt.setString(2, alloyDBConfig.table());
+      try (var rs = pstmt.executeQuery()) {
+        while (rs.next()) {
+          indexes.add(new IndexInfo(rs.getString("indexname"), rs.getString("indexdef")));
+        }
+      }
+    }
+    try (var stmt = connection.createStatement()) {
+      for (var index : indexes) {
+        stmt.execute(String.format("DROP INDEX %s.%s", alloyDBConfig.schema(), index.name()));
+      }
+      for (var column : columns) {
+        stmt.execute(
+            String.format("ALTER TABLE %s DROP COLUMN %s", table, quantizedColumnName(column)));
+      }
+      stmt.execute(
+          String.format(
+              "ALTER TABLE %s ALTER COLUMN embedding TYPE vector(%d) "
+                  + "USING l2_normalize(subvector(embedding, 1, %d))::vector(%d)",
+              table, dimensions, dimensions, dimensions));
+      for (var column : columns) {
+        stmt.execute(
+            String.format(
+                "ALTER TABLE %s ADD COLUMN %s STORED",
+                table, quantizedColumnSql(column, dimensions)));
+      }
+      // the stored definitions are plain CREATE INDEX statements, valid inside the transaction
+      for (var index : indexes) {
+        stmt.execute(index.definition());
+      }
+    }
+    connection.commit();
+    return Result.success(
+        new DimensionsMigration(
+            previous, dimensions, columns, indexes.stream().map(IndexInfo::name).toList()));
+  }
+
+  /**
+   * Uses a random sample of the stored vectors as queries and measures, for each quantization
+   * level, the recall of its neighbors against the exhaustive search ones and the search latency.
+   * Searches run one at a time to keep their latencies comparable.
+   */
+  public static CompletableFuture<Result<QuantizationEvaluationResult, ErrorResponse>>
+      evaluateQuantization(QuantizationEvaluation evaluation) {
+    return sampleVectors(evaluation.sampleSize())
+        .thenCompose(
+            samplesResult ->
+                switch (samplesResult) {
+                  case Result.Failure<List<Float32Vector>, ErrorResponse>(var error) ->
+                      CompletableFuture.completedFuture(Result.failure(error));
+                  case Result.Success<List<Float32Vector>, ErrorResponse>(var samples) ->
+                      evaluateQuantization(samples, evaluation);
+                })
+        .exceptionally(
+            error -> Result.failure("Errors occurred while evaluating quantization.", error));
+  }
+
+  static CompletableFuture<Result<QuantizationEvaluationResult, ErrorResponse>>
+      evaluateQuantization(List<Float32Vector> samples, QuantizationEvaluation evaluation) {
+    var exactFuture =
+        timedSearches(
+            samples,
+            evaluation.neighborCount(),
+            AlloyDB.SearchMode.EXHAUSTIVE,
+            GCPEnvironment.QuantizedSearch.none());
+    var reportsFuture =
+        exactFuture.thenApply(__ -> new ArrayList<QuantizationReport>());
+    for (var level : evaluation.levels()) {
+      reportsFuture =
+          reportsFuture.thenCompose(
+              reports ->
+                  timedSearches(
+                          samples, evaluation.neighborCount(), AlloyDB.SearchMode.INDEXED, level)
+                      .thenApply(
+                          searches -> {
+                            reports.add(
+                                new QuantizationReport(
+                                    level.quantization(),
+                                    level.oversampling(),
+                                    recall(exactFuture.join(), searches),
+                                    averageMillis(searches),
+                                    percentileMillis(searches, 0.95)));
+                            return reports;
+                          }));
+    }
+    return reportsFuture.thenApply(
+        reports ->
+            Result.success(
+                new QuantizationEvaluationResult(
+                    samples.size(),
+                    evaluation.neighborCount(),
+                    averageMillis(exactFuture.join()),
+                    reports)));
+  }
+
+  static CompletableFuture<Result<List<Float32Vector>, ErrorResponse>> sampleVectors(
+      Integer sampleSize) {
+    var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
+    return query(
+        String.format(
+            "SELECT embedding FROM %s.%s ORDER BY random() LIMIT ?",
+            alloyDBConfig.schema(), alloyDBConfig.table()),
+        pstmt -> {
+          try {
+            pstmt.setInt(1, sampleSize);
+          } catch (SQLException e) {
+            throw new RuntimeException(e);
+          }
+        },
+        rs -> {
+          var samples = new ArrayList<Float32Vector>();
+          while (rs.next()) {
+            samples.add(Float32Vector.wrap(((PGvector) rs.getObject(1)).toArray()));
+          }
+          return samples;
+        });
+  }
+
+  static CompletableFuture<List<TimedSearch>> timedSearches(
+      List<Float32Vector> samples,
+      Integer neighborCount,
+      AlloyDB.SearchMode mode,
+      GCPEnvironment.QuantizedSearch quantizedSearch) {
+    var searchesFuture = CompletableFuture.completedFuture(new ArrayList<TimedSearch>());
+    for (var sample : samples) {
+      searchesFuture =
+          searchesFuture.thenCompose(
+              searches -> {
+                var startNanos = System.nanoTime();
+                return AlloyDB.search(
+                        new AlloyDB.SearchRequest(
+                            List.of(
+                                new AlloyDB.Query(new Vectors.Datapoint(sample), neighborCount)),
+                            mode,
+                            Optional.empty(),
+                            false,
+                            Vectors.Filter.none(),
+                            Optional.of(quantizedSearch)))
+                    .thenApply(
+                        result -> {
+                          var elapsedNanos = System.nanoTime() - startNanos;
+                          var neighbors =
+                              result.orElseThrow(
+                                  error ->
+                                      new RuntimeException(
+                                          error.message(), error.cause().orElse(null)));
+                          searches.add(
+                              new TimedSearch(
+                                  neighbors.nearestNeighbors().stream()
+                                      .flatMap(nn -> nn.neighbors().stream())
+                                      .map(neighbor -> neighbor.datapoint().datapointId())
+                                      .toList(),
+                                  elapsedNanos));
+                          return searches;
+                        });
+              });
+    }
+    return searchesFuture.thenApply(searches -> searches);
+  }
+
+  // fraction of the exact neighbors found by the approximate searches
+  static Double recall(List<TimedSearch> exact, List<TimedSearch> approximate) {
+    var expected = 0L;
+    var found = 0L;
+    for (int i = 0; i < exact.size(); i++) {
+      var approximateIds = new HashSet<>(approximate.get(i).neighborIds());
+      expected += exact.get(i).neighborIds().size();
+      found += exact.get(i).neighborIds().stream().filter(approximateIds::contains).count();
+    }
+    return expected == 0 ? 1.0 : (double) found / expected;
+  }
+
+  static Double averageMillis(List<TimedSearch> searches) {
+    return searches.stream().mapToLong(TimedSearch::elapsedNanos).average().orElse(0) / 1_000_000;
+  }
+
+  static Double percentileMillis(List<TimedSearch> searches, Double percentile) {
+    if (searches.isEmpty()) {
+      return 0.0;
+    }
+    var sorted = searches.stream().mapToLong(TimedSearch::elapsedNanos).sorted().toArray();
+    var index = (int) Math.ceil(percentile * sorted.length) - 1;
+    return sorted[Math.max(0, index)] / 1_000_000.0;
+  }
+
+  static Stream<String> indexesInPlan(Object node) {
+    return switch (node) {
+      case Map<?, ?> map ->
+          Stream.concat(
+              Stream.ofNullable(map.get("Index Name")).map(Object::toString),
+              map.values().stream().flatMap(AlloyDBAdmin::indexesInPlan));
+      case List<?> list -> list.stream().flatMap(AlloyDBAdmin::indexesInPlan);
+      default -> Stream.empty();
+    };
+  }
+}
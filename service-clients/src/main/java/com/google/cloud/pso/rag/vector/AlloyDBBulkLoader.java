@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pso.rag.vector;
+
+import com.google.cloud.pso.rag.common.GCPEnvironment;
+import com.google.cloud.pso.rag.common.JDBCHelper;
+import com.google.common.collect.Lists;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads datapoints into the AlloyDB embeddings table by streaming them in binary COPY format into
+ * a transaction scoped staging table and then merging them into the target table. Each batch
+ * commits on its own, so a failed load may leave some of its batches already stored.
+ */
+class AlloyDBBulkLoader {
+  private static final Logger LOG = LoggerFactory.getLogger(AlloyDBBulkLoader.class);
+
+  // binary COPY signature, followed by the flags and header extension length (both 0)
+  private static final byte[] COPY_SIGNATURE = {
+    'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0
+  };
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+  // binary timestamps count microseconds since 2000-01-01 UTC
+  private static final long POSTGRES_EPOCH_MILLIS = 946_684_800_000L;
+  private static final String COLUMNS = "id, embedding, source_id, mime_type, ingested_at, tenant";
+  // the content is only staged, the target table stores its lexemes
+  private static final String STAGING_COLUMNS = COLUMNS + ", content";
+
+  private AlloyDBBulkLoader() {}
+
+  static CompletableFuture<Long> load(
+      List<Vectors.Datapoint> datapoints, AlloyDB.BulkUpsertOptions options) {
+    // a single merge statement can not update the same row twice, also parallel batches should
+    // not race on the same ids, so we keep only the last occurrence of each id.
+    var uniqueDatapoints = new LinkedHashMap<String, Vectors.Datapoint>();
+    datapoints.forEach(datapoint -> uniqueDatapoints.put(datapoint.datapointId(), datapoint));
+    var batches = Lists.partition(new ArrayList<>(uniqueDatapoints.values()), options.batchSize());
+    var lanes = new ArrayList<CompletableFuture<Long>>();
+    for (int lane = 0; lane < Math.min(options.parallelism(), batches.size()); lane++) {
+      var laneFuture = CompletableFuture.completedFuture(0L);
+      for (int i = lane; i < batches.size(); i += options.parallelism()) {
+        var batch = batches.get(i);
+        laneFuture = laneFuture.thenCompose(count -> loadBatch(batch).thenApply(c -> count + c));
+      }
+      lanes.add(laneFuture);
+    }
+    return CompletableFuture.allOf(lanes.toArray(CompletableFuture[]::new))
+        .thenApply(__ -> lanes.stream().mapToLong(CompletableFuture::join).sum());
+  }
+
+  static CompletableFuture<Long> loadBatch(List<Vectors.Datapoint> batch) {
+    var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
+    return JDBCHelper.executeAsync(
+        AlloyDB.alloyJDBCUrl(),
+        alloyDBConfig.user(),
+        alloyDBConfig.password(),
+        alloyDBConfig.poolConfig(),
+        connection -> copyAndMerge(connection, batch));
+  }
+
+  static String stagingTable() {
+    return "staging_" + GCPEnvironment.config().alloyDBConfig().table();
+  }
+
+  static long copyAndMerge(Connection connection, List<Vectors.Datapoint> batch)
+      throws SQLException {
+    var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
+    var staging = stagingTable();
+    connection.setAutoCommit(false);
+    try (var stmt = connection.createStatement()) {
+      // created on each transaction, so it always follows the current schema of the target table
+      stmt.execute(
+          String.format(
+              "CREATE TEMPORARY TABLE %s "
+                  + "(LIKE %s.%s INCLUDING DEFAULTS, content text) ON COMMIT DROP",
+              staging, alloyDBConfig.schema(), alloyDBConfig.table()));
+    }
+    try (var copyStream =
+        new PGCopyOutputStream(
+            connection.unwrap(PGConnection.class),
+            String.format("COPY %s (%s) FROM STDIN (FORMAT binary)", staging, STAGING_COLUMNS),
+            COPY_BUFFER_SIZE)) {
+      var out = new DataOutputStream(copyStream);
+      writeHeader(out);
+      for (var datapoint : batch) {
+        writeRow(out, datapoint);
+      }
+      writeTrailer(out);
+      out.flush();
+      copyStream.endCopy();
+    } catch (IOException ex) {
+      throw new SQLException("Problems while streaming rows to the staging table.", ex);
+    }
+    try (var stmt = connection.createStatement()) {
+      var merged =
+          stmt.executeUpdate(
+              String.format(
+                  "INSERT INTO %s.%s (%s, content_tsv) SELECT %s, to_tsvector('%s', content) "
+                      + "FROM %s ON CONFLICT (id) DO UPDATE SET %s",
+                  alloyDBConfig.schema(),
+                  alloyDBConfig.table(),
+                  COLUMNS,
+                  COLUMNS,
+                  AlloyDB.TEXT_SEARCH_CONFIG,
+                  staging,
+                  AlloyDB.UPSERT_ASSIGNMENTS));
+      connection.commit();
+      return merged;
+    }
+  }
+
+  static void writeHeader(DataOutputStream out) throws IOException {
+    out.write(COPY_SIGNATURE);
+    out.writeInt(0);
+    out.writeInt(0);
+  }
+
+  static void writeTrailer(DataOutputStream out) throws IOException {
+    out.writeShort(-1);
+  }
+
+  /*
+  Each tuple has the field count and then each field as length and bytes (-1 for nulls), the vector
+  field follows pgvector's binary representation: dimensions (int16), unused (int16) and the float4
+  values.
+  */
+  static void writeRow(DataOutputStream out, Vectors.Datapoint datapoint) throws IOException {
+    var values = datapoint.featureVector();
+    var metadata = datapoint.metadata();
+    out.writeShort(7);
+    writeText(out, datapoint.datapointId());
+    out.writeInt(4 + 4 * values.dimensions());
+    out.writeShort(values.dimensions());
+    out.writeShort(0);
+    for (int i = 0; i < values.dimensions(); i++) {
+      out.writeFloat(values.get(i));
+    }
+    writeText(out, metadata.sourceId());
+    writeText(out, metadata.mimeType());
+    if (metadata.ingestedAt() == null) {
+      out.writeInt(-1);
+    } else {
+      out.writeInt(8);
+      out.writeLong((metadata.ingestedAt() - POSTGRES_EPOCH_MILLIS) * 1000);
+    }
+    writeText(out, metadata.tenant());
+    writeText(out, metadata.content());
+  }
+
+  static void writeText(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    var bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static void logThroughput(long rows, long elapsedMillis) {
+    LOG.info(
+        "bulk loaded {} rows in {} ms ({} rows/sec)",
+        rows,
+        elapsedMillis,
+        String.format("%.1f", elapsedMillis == 0 ? 0.0 : rows * 1000.0 / elapsedMillis));
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pso.rag.vector;
+
+import com.google.cloud.pso.rag.common.Float32Vector;
+import com.google.cloud.pso.rag.common.GCPEnvironment;
+import com.google.cloud.pso.rag.common.PGvectorArray;
+import com.google.cloud.pso.rag.common.Result;
+import com.google.cloud.pso.rag.common.Result.ErrorResponse;
+import com.pgvector.PGvector;
+import io.vertx.core.Vertx;
+import io.vertx.pgclient.PgBuilder;
+import io.vertx.pgclient.PgConnectOptions;
+import io.vertx.sqlclient.Pool;
+import io.vertx.sqlclient.PoolOptions;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.SqlClient;
+import io.vertx.sqlclient.Tuple;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes the AlloyDB statements with the non blocking Vert.x Postgres client, so in flight
+ * statements do not hold a thread. Statements without local settings go through a pipelined
+ * client, which sends them on its pooled connections without waiting for the previous responses.
+ * Statements with local settings run in a transaction, where the settings and the statement are
+ * pipelined on the same connection.
+ */
+class AlloyDBReactiveClient {
+
+  private static final Map<String, Clients> CLIENTS = new ConcurrentHashMap<>();
+  private static final Map<String, String> NUMBERED_SQL = new ConcurrentHashMap<>();
+
+  private AlloyDBReactiveClient() {}
+
+  record Clients(SqlClient pipelined, Pool transactional) {}
+
+  // created on first use, so deployments using JDBC do not start the event loops
+  static class VertxHolder {
+    static final Vertx VERTX = Vertx.vertx();
+  }
+
+  static Clients clients(String ipAddress) {
+    return CLIENTS.computeIfAbsent(ipAddress, AlloyDBReactiveClient::createClients);
+  }
+
+  static Clients createClients(String ipAddress) {
+    var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
+    var poolConfig = alloyDBConfig.poolConfig();
+    var connectOptions =
+        new PgConnectOptions()
+            .setHost(ipAddress)
+            .setPort(5432)
+            .setDatabase(alloyDBConfig.databaseName())
+            .setUser(alloyDBConfig.user())
+            .setPassword(alloyDBConfig.password())
+            .setPipeliningLimit(poolConfig.pipeliningLimit())
+            .setCachePreparedStatements(true)
+            .setPreparedStatementCacheMaxSize(poolConfig.statementCacheSize());
+    // both clients share the connections budget of the host
+    var transactionalSize = Math.max(1, poolConfig.maxPoolSize() / 2);
+    var pipelinedSize = Math.max(1, poolConfig.maxPoolSize() - transactionalSize);
+    return new Clients(
+        PgBuilder.client()
+            .with(poolOptions(poolConfig, pipelinedSize))
+            .connectingTo(connectOptions)
+            .using(VertxHolder.VERTX)
+            .build(),
+        PgBuilder.pool()
+            .with(poolOptions(poolConfig, transactionalSize))
+            .connectingTo(connectOptions)
+            .using(VertxHolder.VERTX)
+            .build());
+  }
+
+  static PoolOptions poolOptions(GCPEnvironment.ConnectionPoolConfig poolConfig, int maxSize) {
+    return new PoolOptions()
+        .setMaxSize(maxSize)
+        .setMaxWaitQueueSize(poolConfig.maxQueuedRequests())
+        .setConnectionTimeout((int) poolConfig.connectionTimeout().toMillis())
+        .setConnectionTimeoutUnit(TimeUnit.MILLISECONDS)
+        .setMaxLifetime((int) poolConfig.maxLifetime().toMillis())
+        .setMaxLifetimeUnit(TimeUnit.MILLISECONDS);
+  }
+
+  /*
+  The Postgres protocol uses numbered placeholders instead of the JDBC ones. The statements built
+  by AlloyDB have no question marks in their literals or operators.
+  */
+  static String numberedPlaceholders(String sql) {
+    return NUMBERED_SQL.computeIfAbsent(
+        sql,
+        __ -> {
+          var numbered = new StringBuilder(sql.length() + 16);
+          var count = 0;
+          var inLiteral = false;
+          for (var c : sql.toCharArray()) {
+            if (c == '\'') {
+              inLiteral = !inLiteral;
+            }
+            if (c == '?' && !inLiteral) {
+              numbered.append('$').append(++count);
+            } else {
+              numbered.append(c);
+            }
+          }
+          return numbered.toString();
+        });
+  }
+
+  // vector types are unknown to the client, so they are sent with their text representation
+  static Tuple tuple(List<Object> parameters) {
+    var tuple = Tuple.tuple();
+    for (var parameter : parameters) {
+      tuple.addValue(
+          switch (parameter) {
+            case Float32Vector[] vectors -> PGvectorArray.textValue(Arrays.asList(vectors));
+            default -> parameter;
+          });
+    }
+    return tuple;
+  }
+
+  static CompletableFuture<RowSet<Row>> execute(
+      String ipAddress, AlloyDB.PreparedStmtParams params) {
+    var clients = clients(ipAddress);
+    var sql = numberedPlaceholders(params.sqlString());
+    var tuple = tuple(params.parameters());
+    var rows =
+        params.localSettings().isEmpty()
+            ? clients.pipelined().preparedQuery(sql).execute(tuple)
+            : clients
+                .transactional()
+                .withTransaction(
+                    connection -> {
+                      // a failed setting aborts the transaction, failing the statement after it
+                      params
+                          .localSettings()
+                          .forEach(setting -> connection.query(setting).execute());
+                      return connection.preparedQuery(sql).execute(tuple);
+                    });
+    return rows.toCompletionStage().toCompletableFuture();
+  }
+
+  static CompletableFuture<Result<? extends Vectors.SearchResponse, ErrorResponse>> search(
+      AlloyDB.SearchRequest request) {
+    var params = AlloyDB.searchPstmtParams(request);
+    return AlloyDBReadRouter.route(ipAddress -> execute(ipAddress, params))
+        .<Result<? extends Vectors.SearchResponse, ErrorResponse>>thenApply(
+            rows -> neighborsResponse(request, rows))
+        .exceptionally(error -> Result.failure("Errors occurred while executing search.", error));
+  }
+
+  static CompletableFuture<Result<Integer, ErrorResponse>> update(Vectors.Request request) {
+    return execute(
+            GCPEnvironment.config().alloyDBConfig().ipAddressDB(),
+            AlloyDB.getPstmtParams(request))
+        .thenApply(rows -> Result.<Integer, ErrorResponse>success(rows.rowCount()))
+        .exceptionally(error -> Result.failure("Errors occurred while executing update.", error));
+  }
+
+  static Vectors.Neighbor neighborFromRow(Row row) throws SQLException {
+    // columns: internalId, queryVectorId, neighborId, neighborEmbedding, distance
+    var embedding = row.getString(3);
+    return new Vectors.Neighbor(
+        row.getDouble(4),
+        new Vectors.Datapoint(
+            row.getString(2),
+            embedding == null
+                ? Float32Vector.empty()
+                : Float32Vector.wrap(new PGvector(embedding).toArray())));
+  }
+
+  // same single pass grouping as AlloyDB.neighborsResponseFromResultSet
+  static Result<AlloyDB.NeighborsResponse, ErrorResponse> neighborsResponse(
+      AlloyDB.SearchRequest request, RowSet<Row> rows) {
+    try {
+      var nearestNeighbors = new ArrayList<Vectors.Neighbors>(request.queries().size());
+      var currentInternalId = -1;
+      String currentQueryVectorId = null;
+      var currentNeighbors = new ArrayList<Vectors.Neighbor>();
+      for (var row : rows) {
+        var internalId = row.getInteger(0);
+        if (internalId != currentInternalId) {
+          if (currentInternalId >= 0) {
+            nearestNeighbors.add(new Vectors.Neighbors(currentQueryVectorId, currentNeighbors));
+            currentNeighbors = new ArrayList<>();
+          }
+          AlloyDB.addEmptyNeighbors(nearestNeighbors, request, internalId);
+          currentInternalId = internalId;
+          currentQueryVectorId = row.getString(1);
+        }
+        currentNeighbors.add(neighborFromRow(row));
+      }
+      if (currentInternalId >= 0) {
+        nearestNeighbors.add(new Vectors.Neighbors(currentQueryVectorId, currentNeighbors));
+      }
+      AlloyDB.addEmptyNeighbors(nearestNeighbors, request, request.queries().size());
+      return Result.success(new AlloyDB.NeighborsResponse(nearestNeighbors));
+    } catch (SQLException e) {
+      return Result.failure("Errors occurred while parsing search results", e);
+    }
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pso.rag.vector;
+
+import com.google.cloud.pso.rag.common.GCPEnvironment;
+import com.google.cloud.pso.rag.common.JDBCHelper;
+import java.net.SocketException;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Routes read only statements to the configured AlloyDB read pool instances, picking the one with
+ * the least outstanding requests among the ones not lagging behind the primary. Statements go to
+ * the primary when there is no usable replica, or when the connection to the chosen one fails.
+ * Other errors are returned as they are, the primary would fail on them too.
+ */
+class AlloyDBReadRouter {
+  private static final Logger LOG = LoggerFactory.getLogger(AlloyDBReadRouter.class);
+
+  // a replica that replayed all the WAL it received is up to date, even if the primary is idle
+  private static final String REPLICA_LAG_SQL =
+      "SELECT CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+          + "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) "
+          + "END::bigint";
+
+  private static final String CONNECTION_ERROR_CLASS = "08";
+
+  private static final Map<String, Replica> REPLICAS = new ConcurrentHashMap<>();
+  // rotates the first candidate, so replicas with the same outstanding requests share the load
+  private static final AtomicInteger NEXT = new AtomicInteger();
+
+  private AlloyDBReadRouter() {}
+
+  static class Replica {
+    private final String ipAddress;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong lastLagCheckMillis = new AtomicLong();
+    // not used until a lag check confirms it is up to date
+    private volatile boolean usable = false;
+    private volatile long lagMillis = -1;
+
+    Replica(String ipAddress) {
+      this.ipAddress = ipAddress;
+    }
+
+    String jdbcUrl() {
+      return AlloyDB.alloyJDBCUrl(ipAddress);
+    }
+
+    void maybeCheckLag(GCPEnvironment.ReadReplicasConfig config) {
+      var now = System.currentTimeMillis();
+      var lastCheck = lastLagCheckMillis.get();
+      if (now - lastCheck < config.lagCheckInterval().toMillis()
+          || !lastLagCheckMillis.compareAndSet(lastCheck, now)) {
+        return;
+      }
+      var alloyDBConfig = GCPEnvironment.config().alloyDBConfig();
+      JDBCHelper.executeQueryAsync(
+              jdbcUrl(),
+              alloyDBConfig.user(),
+              alloyDBConfig.password(),
+              alloyDBConfig.poolConfig(),
+              REPLICA_LAG_SQL,
+              pstmt -> {},
+              rs -> rs.next() ? rs.getLong(1) : 0L)
+          .whenComplete(
+              (lag, error) -> {
+                if (error != null) {
+                  LOG.warn("could not check the lag of read replica {}, skipping it", ipAddress);
+                  markUnusable();
+                  return;
+                }
+                lagMillis = lag;
+                usable = lag <= config.maxLag().toMillis();
+                if (!usable) {
+                  LOG.warn(
+                      "read replica {} is {} ms behind the primary, skipping it", ipAddress, lag);
+                }
+              });
+    }
+
+    void markUnusable() {
+      usable = false;
+      lagMillis = -1;
+    }
+
+    AlloyDB.ReadReplicaStatus status() {
+      return new AlloyDB.ReadReplicaStatus(ipAddress, usable, lagMillis, outstanding.get());
+    }
+  }
+
+  static List<Replica> replicas() {
+    return GCPEnvironment.config().alloyDBConfig().readReplicas().ipAddresses().stream()
+        .map(ipAddress -> REPLICAS.computeIfAbsent(ipAddress, Replica::new))
+        .toList();
+  }
+
+  static Optional<Replica> pick() {
+    var config = GCPEnvironment.config().alloyDBConfig().readReplicas();
+    var replicas = replicas();
+    if (replicas.isEmpty()) {
+      return Optional.empty();
+    }
+    var start = Math.floorMod(NEXT.getAndIncrement(), replicas.size());
+    Replica chosen = null;
+    for (int i = 0; i < replicas.size(); i++) {
+      var replica = replicas.get((start + i) % replicas.size());
+      replica.maybeCheckLag(config);
+      if (replica.usable
+          && (chosen == null || replica.outstanding.get() < chosen.outstanding.get())) {
+        chosen = replica;
+      }
+    }
+    return Optional.ofNullable(chosen);
+  }
+
+  /** Executes the statement with the IP address of the chosen instance. */
+  static <T> CompletableFuture<T> route(Function<String, CompletableFuture<T>> statement) {
+    var primary = GCPEnvironment.config().alloyDBConfig().ipAddressDB();
+    var maybeReplica = pick();
+    if (maybeReplica.isEmpty()) {
+      return statement.apply(primary);
+    }
+    var replica = maybeReplica.get();
+    replica.outstanding.incrementAndGet();
+    CompletableFuture<T> result;
+    try {
+      result = statement.apply(replica.ipAddress);
+    } catch (RuntimeException ex) {
+      result = CompletableFuture.failedFuture(ex);
+    }
+    return result
+        .whenComplete((__, ___) -> replica.outstanding.decrementAndGet())
+        .exceptionallyCompose(
+            error -> {
+              if (!isConnectionError(error)) {
+                return CompletableFuture.failedFuture(error);
+              }
+              LOG.warn(
+                  "statement failed on read replica {}, retrying on the primary.",
+                  replica.ipAddress,
+                  error);
+              replica.markUnusable();
+              return statement.apply(primary);
+            });
+  }
+
+  /** Connection errors are the SQLState class 08 ones, or the network failures causing them. */
+  static boolean isConnectionError(Throwable error) {
+    for (var cause = error; cause != null; cause = cause.getCause()) {
+      if (cause instanceof SQLTransientConnectionException
+          || cause instanceof SQLNonTransientConnectionException
+          || cause instanceof SocketException
+          || (cause instanceof SQLException sqlError
+              && sqlError.getSQLState() != null
+              && sqlError.getSQLState().startsWith(CONNECTION_ERROR_CLASS))) {
+        return true;
+      }
+      if (cause.getCause() == cause) {
+        break;
+      }
+    }
+    return false;
+  }
+
+  static List<AlloyDB.ReadReplicaStatus> status() {
+    return replicas().stream().map(Replica::status).toList();
+  }
+}
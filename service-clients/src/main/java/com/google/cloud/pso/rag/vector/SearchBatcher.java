@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pso.rag.vector;
+
+import com.google.cloud.pso.rag.common.Result;
+import com.google.cloud.pso.rag.common.Result.ErrorResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Coalesces concurrent searches into a single backend request. Searches that only differ on their
+ * queries are gathered until the window elapses or the max amount of queries is reached, then sent
+ * together, and each caller receives the neighbors of its own queries. A zero window disables the
+ * batching and sends each search as it arrives.
+ */
+public class SearchBatcher {
+
+  record Pending(
+      Vectors.Search request,
+      CompletableFuture<Result<? extends Vectors.SearchResponse, ErrorResponse>> response) {}
+
+  static class Batch {
+    final List<Pending> searches = new ArrayList<>();
+    int queries = 0;
+  }
+
+  private final Duration window;
+  private final int maxQueries;
+  private final Function<
+          Vectors.Search, CompletableFuture<Result<? extends Vectors.SearchResponse, ErrorResponse>>>
+      backend;
+  private final ScheduledExecutorService scheduler;
+  // open batches keyed by the search without its queries, guarded by this
+  private final Map<Vectors.Search, Batch> batches = new HashMap<>();
+
+  public SearchBatcher(
+      Duration window,
+      int maxQueries,
+      Function<
+              Vectors.Search,
+              CompletableFuture<Result<? extends Vectors.SearchResponse, ErrorResponse>>>
+          backend) {
+    this.window = window;
+    this.maxQueries = maxQueries;
+    this.backend = backend;
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              var thread = new Thread(runnable, "search-batcher");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  public SearchBatcher(Duration window, int maxQueries) {
+    this(window, maxQueries, Vectors::findNearestNeighbors);
+  }
+
+  public CompletableFuture<Result<? extends Vectors.SearchResponse, ErrorResponse>>
+      findNearestNeighbors(Vectors.Search request) {
+    var queries = queryCount(request);
+    if (window.isZero() || maxQueries <= 1 || queries >= maxQueries) {
+      return backend.apply(request);
+    }
+    var pending = new Pending(request, new CompletableFuture<>());
+    var key = withoutQueries(request);
+    var ready = new ArrayList<Batch>();
+    synchronized (this) {
+      var batch = batches.get(key);
+      // a search that does not fit in the open batch sends it and starts a new one
+      if (batch != null && batch.queries + queries > maxQueries) {
+        batches.remove(key);
+        ready.add(batch);
+        batch = null;
+      }
+      if (batch == null) {
+        var created = new Batch();
+        batches.put(key, created);
+        scheduler.schedule(() -> flush(key, created), window.toNanos(), TimeUnit.NANOSECONDS);
+        batch = created;
+      }
+      batch.searches.add(pending);
+      batch.queries += queries;
+      if (batch.queries == maxQueries) {
+        batches.remove(key);
+        ready.add(batch);
+      }
+    }
+    ready.forEach(this::send);
+    return pending.response();
+  }
+
+  void flush(Vectors.Search key, Batch batch) {
+    synchronized (this) {
+      // the batch may have already been sent when it filled up
+      if (!batches.remove(key, batch)) {
+        return;
+      }
+    }
+    send(batch);
+  }
+
+  void send(Batch batch) {
+    if (batch.searches.size() == 1) {
+      var single = batch.searches.get(0);
+      complete(single, apply(single.request()));
+      return;
+    }
+    // every query gets an id unique in the batch, responses are split back using them
+    var ids = new ArrayList<List<String>>();
+    var merged = new ArrayList<Vectors.Search>();
+    var next = 0;
+    for (var pending : batch.searches) {
+      var searchIds = new ArrayList<String>();
+      for (int i = 0; i < queryCount(pending.request()); i++) {
+        searchIds.add("q" + next++);
+      }
+      ids.add(searchIds);
+      merged.add(withQueryIds(pending.request(), searchIds));
+    }
+    apply(merge(merged))
+        .whenComplete(
+            (result, error) -> {
+              for (int i = 0; i < batch.searches.size(); i++) {
+                var pending = batch.searches.get(i);
+                if (error != null) {
+                  pending.response().completeExceptionally(error);
+                  continue;
+                }
+                var searchIds = ids.get(i);
+                pending
+                    .response()
+                    .complete(
+                        result.<Vectors.SearchResponse>map(
+                            value -> split(pending.request(), searchIds, value)));
+              }
+            });
+  }
+
+  CompletableFuture<Result<? extends Vectors.SearchResponse, ErrorResponse>> apply(
+      Vectors.Search request) {
+    try {
+      return backend.apply(request);
+    } catch (RuntimeException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+  }
+
+  static void complete(
+      Pending pending,
+      CompletableFuture<Result<? extends Vectors.SearchResponse, ErrorResponse>> response) {
+    response.whenComplete(
+        (result, error) -> {
+          if (error != null) {
+            pending.response().completeExceptionally(error);
+          } else {
+            pending.response().complete(result);
+          }
+        });
+  }
+
+  /*
+  Request type specific helpers.
+  */
+
+  static int queryCount(Vectors.Search request) {
+    return switch (request) {
+      case VectorSearch.SearchRequest search -> search.queries().size();
+      case AlloyDB.SearchRequest search -> search.queries().size();
+    };
+  }
+
+  static Vectors.Search withoutQueries(Vectors.Search request) {
+    return switch (request) {
+      case VectorSearch.SearchRequest search ->
+          new VectorSearch.SearchRequest(
+              search.deployedIndexId(), List.of(), search.returnEmbeddings(), search.transport());
+      case AlloyDB.SearchRequest search ->
+          new AlloyDB.SearchRequest(
+              List.of(),
+              search.mode(),
+              search.tuning(),
+              search.returnEmbeddings(),
+              search.filter(),
+              search.quantization());
+    };
+  }
+
+  static Vectors.Datapoint withId(Vectors.Datapoint datapoint, String id) {
+    return new Vectors.Datapoint(id, datapoint.featureVector(), datapoint.metadata());
+  }
+
+  static Vectors.Search withQueryIds(Vectors.Search request, List<String> ids) {
+    return switch (request) {
+      case VectorSearch.SearchRequest search ->
+          new VectorSearch.SearchRequest(
+              search.deployedIndexId(),
+              mapQueries(
+                  search.queries(),
+                  ids,
+                  (query, id) ->
+                      new VectorSearch.Query(
+                          withId(query.datapoint(), id), query.neighborCount(), query.filter())),
+              search.returnEmbeddings(),
+              search.transport());
+      case AlloyDB.SearchRequest search ->
+          new AlloyDB.SearchRequest(
+              mapQueries(
+                  search.queries(),
+                  ids,
+                  (query, id) ->
+                      new AlloyDB.Query(
+                          withId(query.datapoint(), id), query.neighborCount(), query.text())),
+              search.mode(),
+              search.tuning(),
+              search.returnEmbeddings(),
+              search.filter(),
+              search.quantization());
+    };
+  }
+
+  interface QueryMapper<Q> {
+    Q map(Q query, String id);
+  }
+
+  static <Q> List<Q> mapQueries(List<Q> queries, List<String> ids, QueryMapper<Q> mapper) {
+    var mapped = new ArrayList<Q>(queries.size());
+    for (int i = 0; i < queries.size(); i++) {
+      mapped.add(mapper.map(queries.get(i), ids.get(i)));
+    }
+    return mapped;
+  }
+
+  // searches in a batch share everything but their queries, so the first one carries the rest
+  static Vectors.Search merge(List<Vectors.Search> searches) {
+    return switch (searches.get(0)) {
+      case VectorSearch.SearchRequest first ->
+          new VectorSearch.SearchRequest(
+              first.deployedIndexId(),
+              searches.stream()
+                  .flatMap(search -> ((VectorSearch.SearchRequest) search).queries().stream())
+                  .toList(),
+              first.returnEmbeddings(),
+              first.transport());
+      case AlloyDB.SearchRequest first ->
+          new AlloyDB.SearchRequest(
+              searches.stream()
+                  .flatMap(search -> ((AlloyDB.SearchRequest) search).queries().stream())
+                  .toList(),
+              first.mode(),
+              first.tuning(),
+              first.returnEmbeddings(),
+              first.filter(),
+              first.quantization());
+    };
+  }
+
+  /**
+   * Picks the neighbors of the caller's queries, in their order and with their original ids.
+   * Queries without results may be missing from the backend response, they get no neighbors.
+   */
+  static Vectors.SearchResponse split(
+      Vectors.Search request, List<String> ids, Vectors.SearchResponse response) {
+    var byId = new HashMap<String, Vectors.Neighbors>();
+    for (var neighbors : response.nearestNeighbors()) {
+      byId.put(neighbors.id(), neighbors);
+    }
+    var originalIds = originalQueryIds(request);
+    var nearestNeighbors = new ArrayList<Vectors.Neighbors>(ids.size());
+    for (int i = 0; i < ids.size(); i++) {
+      var neighbors = byId.get(ids.get(i));
+      nearestNeighbors.add(
+          new Vectors.Neighbors(
+              originalIds.get(i), neighbors == null ? List.of() : neighbors.neighbors()));
+    }
+    return switch (response) {
+      case VectorSearch.NeighborsResponse __ ->
+          new VectorSearch.NeighborsResponse(nearestNeighbors);
+      case AlloyDB.NeighborsResponse __ -> new AlloyDB.NeighborsResponse(nearestNeighbors);
+    };
+  }
+
+  static List<String> originalQueryIds(Vectors.Search request) {
+    return switch (request) {
+      case VectorSearch.SearchRequest search ->
+          search.queries().stream().map(query -> query.datapoint().datapointId()).toList();
+      case AlloyDB.SearchRequest search ->
+          search.queries().stream().map(query -> query.datapoint().datapointId()).toList();
+    };
+  }
+}
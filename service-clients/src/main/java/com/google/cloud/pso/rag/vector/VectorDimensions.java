@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pso.rag.vector;
+
+import com.google.cloud.pso.rag.common.Result;
+import com.google.cloud.pso.rag.common.Result.ErrorResponse;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Checks the dimensions of the vectors a storage accepts, so a mismatch with the embeddings model
+ * output is reported once at startup instead of on every write or search.
+ */
+public class VectorDimensions {
+
+  private VectorDimensions() {}
+
+  public static CompletableFuture<Result<Integer, ErrorResponse>> dimensions(
+      String configurationEntry) {
+    return switch (configurationEntry) {
+      case "vector_search", "vector_search_grpc" -> VectorSearch.indexDimensions();
+      case "alloydb" -> AlloyDBAdmin.embeddingDimensions();
+      default ->
+          throw new IllegalArgumentException(
+              String.format(
+                  "Configuration entry (%s) not supported for vector storage.",
+                  configurationEntry));
+    };
+  }
+
+  /** Fails when the storage dimensions differ from the expected ones. */
+  public static Result<Integer, ErrorResponse> check(
+      String configurationEntry, Integer dimensions, Integer expected) {
+    return dimensions.equals(expected)
+        ? Result.success(dimensions)
+        : Result.failure(
+            String.format(
+                "The %s storage holds vectors of %d dimensions, but the embeddings are configured"
+                    + " with %d.",
+                configurationEntry, dimensions, expected));
+  }
+
+  /** Fails when the storage can not be reached or its dimensions differ from the expected ones. */
+  public static CompletableFuture<Result<Integer, ErrorResponse>> validate(
+      String configurationEntry, Integer expected) {
+    return dimensions(configurationEntry)
+        .thenApply(result -> result.flatMap(dims -> check(configurationEntry, dims, expected)));
+  }
+}
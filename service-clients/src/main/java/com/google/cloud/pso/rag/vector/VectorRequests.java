@@ -15,6 +15,7 @@
  */
 package com.google.cloud.pso.rag.vector;
 
+import com.google.cloud.pso.rag.common.Float32Vector;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.IntStream;
@@ -24,7 +25,31 @@ public class VectorRequests {
 
   private VectorRequests() {}
 
-  public record Vector(Optional<String> id, List<Double> values) {
+  public record Vector(Optional<String> id, Float32Vector values, Vectors.Metadata metadata) {
+    public Vector {
+      metadata = metadata == null ? Vectors.Metadata.empty() : metadata;
+    }
+
+    public Vector(Optional<String> id, Float32Vector values) {
+      this(id, values, Vectors.Metadata.empty());
+    }
+
+    public Vector(String id, Float32Vector values, Vectors.Metadata metadata) {
+      this(Optional.of(id), values, metadata);
+    }
+
+    public Vector(Float32Vector values) {
+      this(Optional.empty(), values);
+    }
+
+    public Vector(String id, Float32Vector values) {
+      this(Optional.of(id), values);
+    }
+
+    public Vector(Optional<String> id, List<Double> values) {
+      this(id, Float32Vector.fromDoubles(values));
+    }
+
     public Vector(List<Double> values) {
       this(Optional.empty(), values);
     }
@@ -34,23 +59,32 @@ public class VectorRequests {
     }
   }
 
+  /** The "vector_search_grpc" entry uses the same Vector Search index through gRPC. */
+  static VectorSearch.Transport vectorSearchTransport(String configurationEntry) {
+    return "vector_search_grpc".equals(configurationEntry)
+        ? VectorSearch.Transport.GRPC
+        : VectorSearch.Transport.REST;
+  }
+
   public static Vectors.Store store(String configurationEntry, List<Vector> vectors) {
     return store(configurationEntry, "", vectors);
   }
 
   public static Vectors.Store store(
       String configurationEntry, String idPrefix, List<Vector> vectors) {
-    var datapoints = IntStream.range(0, vectors.size())
+    var datapoints =
+        IntStream.range(0, vectors.size())
             .mapToObj(
-                    idx -> {
-                      var vector = vectors.get(idx);
-                      return new Vectors.Datapoint(
-                              vector.id().orElse(idPrefix + idx), vector.values());
-                    })
+                idx -> {
+                  var vector = vectors.get(idx);
+                  return new Vectors.Datapoint(
+                      vector.id().orElse(idPrefix + idx), vector.values(), vector.metadata());
+                })
             .toList();
 
     return switch (configurationEntry) {
-      case "vector_search" -> new VectorSearch.UpsertRequest(datapoints);
+      case "vector_search", "vector_search_grpc" ->
+          new VectorSearch.UpsertRequest(datapoints, vectorSearchTransport(configurationEntry));
       case "alloydb" -> new AlloyDB.UpsertRequest(datapoints);
       default ->
           throw new IllegalArgumentException(
@@ -60,23 +94,88 @@ public class VectorRequests {
     };
   }
 
+  /** Bulk store requests are only supported by AlloyDB, intended for large backfills. */
+  public static Vectors.Store bulkStore(
+      String configurationEntry, List<Vector> vectors, Integer batchSize, Integer parallelism) {
+    return switch (configurationEntry) {
+      case "alloydb" ->
+          new AlloyDB.BulkUpsertRequest(
+              vectors.stream()
+                  .map(
+                      vector ->
+                          new Vectors.Datapoint(
+                              vector.id().orElseThrow(
+                                  () ->
+                                      new IllegalArgumentException(
+                                          "Bulk stored vectors should have an id.")),
+                              vector.values(),
+                              vector.metadata()))
+                  .toList(),
+              new AlloyDB.BulkUpsertOptions(batchSize, parallelism));
+      default ->
+          throw new IllegalArgumentException(
+              String.format(
+                  "Configuration entry (%s) not supported for vector bulk store request creation.",
+                  configurationEntry));
+    };
+  }
+
   public static Vectors.Search find(
       String configurationEntry, List<Vector> vectors, Integer quantity) {
+    return find(configurationEntry, vectors, quantity, false);
+  }
+
+  public static Vectors.Search find(
+      String configurationEntry, List<Vector> vectors, Integer quantity, Boolean returnEmbeddings) {
+    return find(configurationEntry, vectors, quantity, returnEmbeddings, Vectors.Filter.none());
+  }
+
+  /** Searches only among the stored vectors matching the filter. */
+  public static Vectors.Search find(
+      String configurationEntry,
+      List<Vector> vectors,
+      Integer quantity,
+      Boolean returnEmbeddings,
+      Vectors.Filter filter) {
+    return find(configurationEntry, vectors, quantity, returnEmbeddings, filter, Optional.empty());
+  }
+
+  /**
+   * When a lexical query is present storages supporting it also match the text with the stored
+   * content, fusing both results (see ALLOY.md). Vector Search ignores it.
+   */
+  public static Vectors.Search find(
+      String configurationEntry,
+      List<Vector> vectors,
+      Integer quantity,
+      Boolean returnEmbeddings,
+      Vectors.Filter filter,
+      Optional<String> lexicalQuery) {
     return switch (configurationEntry) {
-      case "vector_search" ->
+      case "vector_search", "vector_search_grpc" ->
           new VectorSearch.SearchRequest(
               vectors.stream()
                   .map(
                       vector ->
-                          new VectorSearch.Query(new Vectors.Datapoint(vector.values()), quantity))
-                  .toList());
+                          new VectorSearch.Query(
+                              new Vectors.Datapoint(vector.values()), quantity, filter))
+                  .toList(),
+              returnEmbeddings,
+              vectorSearchTransport(configurationEntry));
       case "alloydb" ->
           new AlloyDB.SearchRequest(
               vectors.stream()
                   .map(
                       vector ->
-                          new AlloyDB.Query(new Vectors.Datapoint(vector.values()), quantity))
-                  .toList());
+                          new AlloyDB.Query(
+                              new Vectors.Datapoint(vector.values()),
+                              quantity,
+                              lexicalQuery.orElse(null)))
+                  .toList(),
+              lexicalQuery.isPresent() ? AlloyDB.SearchMode.HYBRID : AlloyDB.SearchMode.INDEXED,
+              Optional.empty(),
+              returnEmbeddings,
+              filter);
       default ->
           throw new IllegalArgumentException(
               String.format(
@@ -87,7 +186,8 @@ public class VectorRequests {
 
   public static Vectors.Delete remove(String configurationEntry, List<String> vectorIds) {
     return switch (configurationEntry) {
-      case "vector_search" -> new VectorSearch.RemoveRequest(vectorIds);
+      case "vector_search", "vector_search_grpc" ->
+          new VectorSearch.RemoveRequest(vectorIds, vectorSearchTransport(configurationEntry));
       case "alloydb" -> new AlloyDB.RemoveRequest(vectorIds);
       default ->
           throw new IllegalArgumentException(
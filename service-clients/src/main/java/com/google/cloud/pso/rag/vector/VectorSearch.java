@@ -15,13 +15,20 @@
  */
 package com.google.cloud.pso.rag.vector;
 
+import static com.google.cloud.pso.rag.common.InteractionHelper.EXEC;
 import static com.google.cloud.pso.rag.common.InteractionHelper.createHTTPBasedRequest;
 import static com.google.cloud.pso.rag.common.InteractionHelper.httpClient;
 import static com.google.cloud.pso.rag.common.InteractionHelper.jsonMapper;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.google.cloud.pso.rag.common.Float32Vector;
 import com.google.cloud.pso.rag.common.GCPEnvironment;
 import com.google.cloud.pso.rag.common.GoogleCredentialsCache;
+import com.google.cloud.pso.rag.common.InteractionHelper;
+import com.google.cloud.pso.rag.common.InteractionHelper.JsonBody;
 import com.google.cloud.pso.rag.common.Result;
 import com.google.cloud.pso.rag.common.Result.ErrorResponse;
 import com.google.cloud.pso.rag.common.Result.Failure;
@@ -29,10 +36,10 @@ import com.google.cloud.pso.rag.common.Result.Success;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.http.HttpResponse;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
-import java.util.function.Function;
 import java.util.stream.IntStream;
 
 /** */
@@ -40,8 +47,17 @@ public class VectorSearch {
 
   private VectorSearch() {}
 
+  /**
+   * How requests reach Vector Search: JSON over HTTP or protobuf over long lived gRPC channels (see
+   * {@link VectorSearchGrpc}). Selected by the configured vector storage entry.
+   */
+  public enum Transport {
+    REST,
+    GRPC
+  }
+
   public static SearchRequest requestFromValues(
-      Integer neighborCount, List<List<Double>> listOfValues) {
+      Integer neighborCount, List<Float32Vector> listOfValues) {
     return new SearchRequest(
         IntStream.range(0, listOfValues.size())
             .mapToObj(
@@ -76,29 +92,143 @@ public class VectorSearch {
             "https://%s-aiplatform.googleapis.com/v1/%s:removeDatapoints", region, indexId));
   }
 
+  static Result<URI, Exception> indexUri(String region, String indexId) {
+    return createUri(String.format("https://%s-aiplatform.googleapis.com/v1/%s", region, indexId));
+  }
+
   /*
   Nearest neighbor search types.
   */
 
   public record SearchRequest(
-      @JsonProperty("deployed_index_id") String deployedIndexId, List<Query> queries)
+      @JsonProperty("deployed_index_id") String deployedIndexId,
+      List<Query> queries,
+      @JsonProperty("return_full_datapoint") Boolean returnEmbeddings,
+      @JsonIgnore Transport transport)
       implements Vectors.Search {
+    public SearchRequest(String deployedIndexId, List<Query> queries, Boolean returnEmbeddings) {
+      this(deployedIndexId, queries, returnEmbeddings, Transport.REST);
+    }
+
+    public SearchRequest(List<Query> queries, Boolean returnEmbeddings, Transport transport) {
+      this(
+          GCPEnvironment.config().vectorSearchConfig().deploymentId(),
+          queries,
+          returnEmbeddings,
+          transport);
+    }
+
+    public SearchRequest(List<Query> queries, Boolean returnEmbeddings) {
+      this(queries, returnEmbeddings, Transport.REST);
+    }
+
     public SearchRequest(List<Query> queries) {
-      this(GCPEnvironment.config().vectorSearchConfig().deploymentId(), queries);
+      this(queries, false);
     }
   }
 
   public record NeighborsResponse(List<Vectors.Neighbors> nearestNeighbors)
       implements Vectors.SearchResponse {}
 
-  public record Query(
-      Vectors.Datapoint datapoint, @JsonProperty("neighbor_count") Integer neighborCount) {}
+  public record Query(Vectors.Datapoint datapoint, Integer neighborCount, Vectors.Filter filter) {
+    public Query(Vectors.Datapoint datapoint, Integer neighborCount) {
+      this(datapoint, neighborCount, Vectors.Filter.none());
+    }
+
+    @JsonValue
+    QueryPayload payload() {
+      return new QueryPayload(
+          new IndexDatapoint(
+              datapoint.datapointId(),
+              datapoint.featureVector(),
+              filterRestricts(filter),
+              filterNumericRestricts(filter)),
+          neighborCount);
+    }
+  }
+
+  /*
+  Metadata is stored as token restricts and the ingestion time as a numeric restrict, so the index
+  applies the query filters while searching instead of discarding neighbors afterwards.
+  */
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public record Restrict(String namespace, @JsonProperty("allow_list") List<String> allowList) {}
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public record NumericRestrict(
+      String namespace, @JsonProperty("value_int") Long valueInt, String op) {}
+
+  @JsonInclude(JsonInclude.Include.NON_EMPTY)
+  record IndexDatapoint(
+      String datapointId,
+      Float32Vector featureVector,
+      List<Restrict> restricts,
+      @JsonProperty("numeric_restricts") List<NumericRestrict> numericRestricts) {}
+
+  record QueryPayload(
+      IndexDatapoint datapoint, @JsonProperty("neighbor_count") Integer neighborCount) {}
+
+  record UpsertPayload(List<IndexDatapoint> datapoints) {}
+
+  static final String SOURCE_NAMESPACE = "source";
+  static final String MIME_TYPE_NAMESPACE = "mime_type";
+  static final String TENANT_NAMESPACE = "tenant";
+  static final String INGESTED_AT_NAMESPACE = "ingested_at";
+
+  static List<Restrict> restricts(String sourceId, String mimeType, String tenant) {
+    var restricts = new ArrayList<Restrict>();
+    Optional.ofNullable(sourceId)
+        .ifPresent(value -> restricts.add(new Restrict(SOURCE_NAMESPACE, List.of(value))));
+    Optional.ofNullable(mimeType)
+        .ifPresent(value -> restricts.add(new Restrict(MIME_TYPE_NAMESPACE, List.of(value))));
+    Optional.ofNullable(tenant)
+        .ifPresent(value -> restricts.add(new Restrict(TENANT_NAMESPACE, List.of(value))));
+    return restricts;
+  }
+
+  static List<Restrict> filterRestricts(Vectors.Filter filter) {
+    return restricts(filter.sourceId(), filter.mimeType(), filter.tenant());
+  }
+
+  static List<NumericRestrict> filterNumericRestricts(Vectors.Filter filter) {
+    var restricts = new ArrayList<NumericRestrict>();
+    Optional.ofNullable(filter.ingestedFrom())
+        .ifPresent(
+            value ->
+                restricts.add(new NumericRestrict(INGESTED_AT_NAMESPACE, value, "GREATER_EQUAL")));
+    Optional.ofNullable(filter.ingestedTo())
+        .ifPresent(
+            value -> restricts.add(new NumericRestrict(INGESTED_AT_NAMESPACE, value, "LESS")));
+    return restricts;
+  }
+
+  static IndexDatapoint indexDatapoint(Vectors.Datapoint datapoint) {
+    var metadata = datapoint.metadata();
+    return new IndexDatapoint(
+        datapoint.datapointId(),
+        datapoint.featureVector(),
+        restricts(metadata.sourceId(), metadata.mimeType(), metadata.tenant()),
+        Optional.ofNullable(metadata.ingestedAt())
+            .map(value -> List.of(new NumericRestrict(INGESTED_AT_NAMESPACE, value, null)))
+            .orElse(List.of()));
+  }
 
   /*
   Index datapoint store types.
   */
 
-  public record UpsertRequest(List<Vectors.Datapoint> datapoints) implements Vectors.Store {}
+  public record UpsertRequest(List<Vectors.Datapoint> datapoints, Transport transport)
+      implements Vectors.Store {
+    public UpsertRequest(List<Vectors.Datapoint> datapoints) {
+      this(datapoints, Transport.REST);
+    }
+
+    @JsonValue
+    UpsertPayload payload() {
+      return new UpsertPayload(datapoints.stream().map(VectorSearch::indexDatapoint).toList());
+    }
+  }
 
   public record UpsertResponse() implements Vectors.StoreResponse {}
 
@@ -106,7 +236,12 @@ public class VectorSearch {
   Remove datapoint types.
   */
 
-  public record RemoveRequest(List<String> datapointIds) implements Vectors.Delete {}
+  public record RemoveRequest(List<String> datapointIds, @JsonIgnore Transport transport)
+      implements Vectors.Delete {
+    public RemoveRequest(List<String> datapointIds) {
+      this(datapointIds, Transport.REST);
+    }
+  }
 
   public record RemoveResponse() implements Vectors.DeleteResponse {}
 
@@ -125,8 +260,8 @@ public class VectorSearch {
     };
   }
 
-  static Result<CompletableFuture<HttpResponse<String>>, Exception> executeRequest(
-      URI uri, String body) {
+  static <T> Result<CompletableFuture<HttpResponse<JsonBody<T>>>, Exception> executeRequest(
+      URI uri, String body, Class<? extends T> responseType) {
     try {
       return Result.success(
           httpClient()
@@ -136,65 +271,130 @@ public class VectorSearch {
                       body,
                       GoogleCredentialsCache.retrieveAccessToken(
                           GCPEnvironment.config().serviceAccountEmailSupplier())),
-                  HttpResponse.BodyHandlers.ofString()));
+                  InteractionHelper.<T>jsonBodyHandler(responseType)));
     } catch (URISyntaxException ex) {
       return Result.failure(ex);
     }
   }
 
-  static ErrorResponse error(HttpResponse<String> httpResponse, Vectors.Request request) {
+  static ErrorResponse error(int statusCode, String body, Vectors.Request request) {
     return new ErrorResponse(
         String.format(
             """
             Error returned by VectorSearch, code %d, message: %s.
             Request payload: %s""",
-            httpResponse.statusCode(), httpResponse.body(), request));
+            statusCode, body, request));
   }
 
-  static ErrorResponse marshalError(String response, Throwable error) {
+  static ErrorResponse marshalError(Throwable error) {
     return new ErrorResponse(
-        String.format("Problems while marshalling response from VectorSearch: %s", response),
-        Optional.of(error));
+        "Problems while marshalling response from VectorSearch.", Optional.of(error));
   }
 
   record HttpRequestParams(URI uri, String body) {}
 
+  /*
+  Index resource types, only the dimensions of its configuration are read.
+  */
+
+  record IndexConfig(Integer dimensions) {}
+
+  record IndexMetadata(IndexConfig config) {}
+
+  record Index(IndexMetadata metadata) {}
+
+  /** Returns the dimensions the configured index was created with. */
+  static CompletableFuture<Result<Integer, ErrorResponse>> indexDimensions() {
+    var config = GCPEnvironment.config();
+    return switch (indexUri(config.region(), config.vectorSearchConfig().indexId())) {
+      case Failure<URI, Exception>(var error) ->
+          CompletableFuture.completedFuture(
+              Result.failure("Errors occurred while generating the request.", error));
+      case Success<URI, Exception>(var uri) ->
+          httpClient()
+              .sendAsync(
+                  InteractionHelper.createHTTPBasedGetRequest(
+                      uri,
+                      GoogleCredentialsCache.retrieveAccessToken(
+                          config.serviceAccountEmailSupplier())),
+                  InteractionHelper.<Index>jsonBodyHandler(Index.class))
+              .thenApplyAsync(
+                  httpResponse ->
+                      switch (httpResponse.body()) {
+                        case JsonBody.Streamed<Index>(var decoder) ->
+                            decoder
+                                .get()
+                                .failMap(error -> marshalError(error))
+                                .flatMap(
+                                    index ->
+                                        Optional.ofNullable(index.metadata())
+                                            .map(IndexMetadata::config)
+                                            .map(IndexConfig::dimensions)
+                                            .map(Result::<Integer, ErrorResponse>success)
+                                            .orElse(
+                                                Result.failure(
+                                                    "The index metadata has no dimensions.")));
+                        case JsonBody.Error<Index>(var text) ->
+                            Result.<Integer, ErrorResponse>failure(
+                                String.format(
+                                    "Error returned by VectorSearch, code %d, message: %s.",
+                                    httpResponse.statusCode(), text));
+                      },
+                  EXEC)
+              .exceptionally(
+                  error -> Result.failure("Errors occurred while reading the index.", error));
+    };
+  }
+
   static <T> CompletableFuture<Result<? extends T, ErrorResponse>> postInternal(
-      Vectors.Request request, Function<String, Result<? extends T, Exception>> responseMapper) {
+      Vectors.Request request, Class<? extends T> responseType) {
     var requestFuture =
         jsonMapper(request)
             .flatMap(
                 body -> resolveRequestUri(request).map(uri -> new HttpRequestParams(uri, body)))
-            .flatMap(reqParams -> executeRequest(reqParams.uri(), reqParams.body()));
+            .flatMap(
+                reqParams ->
+                    VectorSearch.<T>executeRequest(
+                        reqParams.uri(), reqParams.body(), responseType));
     return switch (requestFuture) {
       case Failure<?, Exception>(var error) ->
           CompletableFuture.completedFuture(
               Result.failure("Errors occurred while generating the request.", error));
-      case Success<CompletableFuture<HttpResponse<String>>, ?>(var value) ->
-          value.thenApply(
+      // decoding reads the streamed body, so it runs on a virtual thread
+      case Success<CompletableFuture<HttpResponse<JsonBody<T>>>, ?>(var value) ->
+          value.thenApplyAsync(
               httpResponse ->
-                  switch (httpResponse.statusCode()) {
-                    case 200 ->
-                        responseMapper
-                            .apply(httpResponse.body())
-                            .failMap(error -> marshalError(httpResponse.body(), error));
-                    default -> Result.failure(error(httpResponse, request));
-                  });
+                  switch (httpResponse.body()) {
+                    case JsonBody.Streamed<T>(var decoder) ->
+                        decoder.get().failMap(error -> marshalError(error));
+                    case JsonBody.Error<T>(var text) ->
+                        Result.failure(error(httpResponse.statusCode(), text, request));
+                  },
+              EXEC);
     };
   }
 
   static CompletableFuture<Result<? extends Vectors.StoreResponse, ErrorResponse>> store(
       UpsertRequest request) {
-    return postInternal(request, body -> jsonMapper(body, UpsertResponse.class));
+    return switch (request.transport()) {
+      case REST -> postInternal(request, UpsertResponse.class);
+      case GRPC -> VectorSearchGrpc.store(request);
+    };
   }
 
   static CompletableFuture<Result<? extends Vectors.SearchResponse, ErrorResponse>> search(
       SearchRequest request) {
-    return postInternal(request, body -> jsonMapper(body, NeighborsResponse.class));
+    return switch (request.transport()) {
+      case REST -> postInternal(request, NeighborsResponse.class);
+      case GRPC -> VectorSearchGrpc.search(request);
+    };
   }
 
   static CompletableFuture<Result<? extends Vectors.DeleteResponse, ErrorResponse>> remove(
       RemoveRequest request) {
-    return postInternal(request, body -> jsonMapper(body, RemoveResponse.class));
+    return switch (request.transport()) {
+      case REST -> postInternal(request, RemoveResponse.class);
+      case GRPC -> VectorSearchGrpc.remove(request);
+    };
   }
 }
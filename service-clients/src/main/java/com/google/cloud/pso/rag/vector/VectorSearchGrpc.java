@@ -0,0 +1,488 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pso.rag.vector;
+
+import com.google.cloud.pso.rag.common.Float32Vector;
+import com.google.cloud.pso.rag.common.GCPEnvironment;
+import com.google.cloud.pso.rag.common.GoogleCredentialsCache;
+import com.google.cloud.pso.rag.common.Result;
+import com.google.cloud.pso.rag.common.Result.ErrorResponse;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import io.grpc.CallCredentials;
+import io.grpc.CallOptions;
+import io.grpc.ClientInterceptors;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.StreamObserver;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the Vector Search requests as protobuf messages over gRPC. Channels are created once per
+ * endpoint host and kept open, so concurrent calls are multiplexed on their HTTP/2 connections, and
+ * each call is bounded by the configured request deadline. The messages are encoded by hand with
+ * only the fields this module uses, which keeps the generated aiplatform client out of the
+ * classpath.
+ */
+class VectorSearchGrpc {
+
+  private static final Map<String, ManagedChannel> CHANNELS = new ConcurrentHashMap<>();
+  private static final int PORT = 443;
+  private static final long KEEPALIVE_SECONDS = 60;
+  // neighbors returned with their full datapoints can exceed the default 4MB limit
+  private static final int MAX_INBOUND_MESSAGE_SIZE = 64 * 1024 * 1024;
+  private static final Metadata.Key<String> REQUEST_PARAMS =
+      Metadata.Key.of("x-goog-request-params", Metadata.ASCII_STRING_MARSHALLER);
+  private static final CallCredentials CREDENTIALS = new AccessTokenCredentials();
+
+  static final MethodDescriptor<byte[], byte[]> FIND_NEIGHBORS =
+      unary("google.cloud.aiplatform.v1.MatchService", "FindNeighbors");
+  static final MethodDescriptor<byte[], byte[]> UPSERT_DATAPOINTS =
+      unary("google.cloud.aiplatform.v1.IndexService", "UpsertDatapoints");
+  static final MethodDescriptor<byte[], byte[]> REMOVE_DATAPOINTS =
+      unary("google.cloud.aiplatform.v1.IndexService", "RemoveDatapoints");
+
+  private VectorSearchGrpc() {}
+
+  enum BytesMarshaller implements MethodDescriptor.Marshaller<byte[]> {
+    INSTANCE;
+
+    @Override
+    public InputStream stream(byte[] value) {
+      return new ByteArrayInputStream(value);
+    }
+
+    @Override
+    public byte[] parse(InputStream stream) {
+      try {
+        return stream.readAllBytes();
+      } catch (IOException ex) {
+        throw Status.INTERNAL
+            .withDescription("Problems while reading the VectorSearch response.")
+            .withCause(ex)
+            .asRuntimeException();
+      }
+    }
+  }
+
+  static class AccessTokenCredentials extends CallCredentials {
+    private static final Metadata.Key<String> AUTHORIZATION =
+        Metadata.Key.of("authorization", Metadata.ASCII_STRING_MARSHALLER);
+
+    @Override
+    public void applyRequestMetadata(
+        RequestInfo requestInfo, Executor appExecutor, MetadataApplier applier) {
+      // the token cache may need to refresh, which blocks, so it is not done on the event loop
+      appExecutor.execute(
+          () -> {
+            try {
+              var headers = new Metadata();
+              headers.put(
+                  AUTHORIZATION,
+                  "Bearer "
+                      + GoogleCredentialsCache.retrieveAccessToken(
+                          GCPEnvironment.config().serviceAccountEmailSupplier()));
+              applier.apply(headers);
+            } catch (RuntimeException ex) {
+              applier.fail(
+                  Status.UNAUTHENTICATED
+                      .withDescription("Could not retrieve an access token.")
+                      .withCause(ex));
+            }
+          });
+    }
+
+    @Override
+    public void thisUsesUnstableApi() {}
+  }
+
+  static MethodDescriptor<byte[], byte[]> unary(String service, String method) {
+    return MethodDescriptor.<byte[], byte[]>newBuilder()
+        .setType(MethodDescriptor.MethodType.UNARY)
+        .setFullMethodName(MethodDescriptor.generateFullMethodName(service, method))
+        .setRequestMarshaller(BytesMarshaller.INSTANCE)
+        .setResponseMarshaller(BytesMarshaller.INSTANCE)
+        .build();
+  }
+
+  static ManagedChannel channel(String host) {
+    return CHANNELS.computeIfAbsent(
+        host,
+        __ ->
+            ManagedChannelBuilder.forAddress(host, PORT)
+                .useTransportSecurity()
+                .keepAliveTime(KEEPALIVE_SECONDS, TimeUnit.SECONDS)
+                .maxInboundMessageSize(MAX_INBOUND_MESSAGE_SIZE)
+                .build());
+  }
+
+  static String searchHost() {
+    return GCPEnvironment.config().vectorSearchConfig().indexDomain();
+  }
+
+  static String indexHost() {
+    return String.format("%s-aiplatform.googleapis.com", GCPEnvironment.config().region());
+  }
+
+  // the routing header lets the frontend send the call to the resource's location
+  static String routingParams(String name, String resource) {
+    return name + "=" + URLEncoder.encode(resource, StandardCharsets.UTF_8);
+  }
+
+  /** Sends an already encoded request, completing with the encoded response. */
+  static CompletableFuture<byte[]> call(
+      String host, MethodDescriptor<byte[], byte[]> method, String routingParams, byte[] request) {
+    var headers = new Metadata();
+    headers.put(REQUEST_PARAMS, routingParams);
+    var deadline = GCPEnvironment.config().vectorSearchConfig().requestDeadline();
+    var response = new CompletableFuture<byte[]>();
+    ClientCalls.asyncUnaryCall(
+        ClientInterceptors.intercept(
+                channel(host), MetadataUtils.newAttachHeadersInterceptor(headers))
+            .newCall(
+                method,
+                CallOptions.DEFAULT
+                    .withDeadlineAfter(deadline.toMillis(), TimeUnit.MILLISECONDS)
+                    .withCallCredentials(CREDENTIALS)),
+        request,
+        new StreamObserver<>() {
+          @Override
+          public void onNext(byte[] value) {
+            response.complete(value);
+          }
+
+          @Override
+          public void onError(Throwable error) {
+            response.completeExceptionally(error);
+          }
+
+          @Override
+          public void onCompleted() {}
+        });
+    return response;
+  }
+
+  static ErrorResponse error(Throwable error, Vectors.Request request) {
+    var status = Status.fromThrowable(error);
+    return new ErrorResponse(
+        String.format(
+            """
+            Error returned by VectorSearch, status %s, message: %s.
+            Request payload: %s""",
+            status.getCode(), status.getDescription(), request),
+        Optional.of(error));
+  }
+
+  interface ResponseDecoder<T> {
+    T decode(byte[] response) throws IOException;
+  }
+
+  static <T> CompletableFuture<Result<? extends T, ErrorResponse>> execute(
+      Vectors.Request request,
+      String host,
+      MethodDescriptor<byte[], byte[]> method,
+      String routingParams,
+      byte[] payload,
+      ResponseDecoder<T> decoder) {
+    CompletableFuture<byte[]> response;
+    try {
+      response = call(host, method, routingParams, payload);
+    } catch (RuntimeException ex) {
+      response = CompletableFuture.failedFuture(ex);
+    }
+    return response
+        .<Result<? extends T, ErrorResponse>>thenApply(
+            bytes -> {
+              try {
+                return Result.success(decoder.decode(bytes));
+              } catch (IOException ex) {
+                return Result.failure("Problems while decoding response from VectorSearch.", ex);
+              }
+            })
+        .exceptionally(error -> Result.failure(error(error, request)));
+  }
+
+  static CompletableFuture<Result<? extends Vectors.SearchResponse, ErrorResponse>> search(
+      VectorSearch.SearchRequest request) {
+    var indexEndpoint = GCPEnvironment.config().vectorSearchConfig().indexPath();
+    return execute(
+        request,
+        searchHost(),
+        FIND_NEIGHBORS,
+        routingParams("index_endpoint", indexEndpoint),
+        findNeighborsRequest(indexEndpoint, request),
+        VectorSearchGrpc::neighborsResponse);
+  }
+
+  static CompletableFuture<Result<? extends Vectors.StoreResponse, ErrorResponse>> store(
+      VectorSearch.UpsertRequest request) {
+    var index = GCPEnvironment.config().vectorSearchConfig().indexId();
+    return execute(
+        request,
+        indexHost(),
+        UPSERT_DATAPOINTS,
+        routingParams("index", index),
+        upsertDatapointsRequest(index, request),
+        __ -> new VectorSearch.UpsertResponse());
+  }
+
+  static CompletableFuture<Result<? extends Vectors.DeleteResponse, ErrorResponse>> remove(
+      VectorSearch.RemoveRequest request) {
+    var index = GCPEnvironment.config().vectorSearchConfig().indexId();
+    return execute(
+        request,
+        indexHost(),
+        REMOVE_DATAPOINTS,
+        routingParams("index", index),
+        removeDatapointsRequest(index, request),
+        __ -> new VectorSearch.RemoveResponse());
+  }
+
+  /*
+  Message encoding, the field numbers follow the google.cloud.aiplatform.v1 protos: FindNeighbors
+  in match_service.proto, Upsert/RemoveDatapoints in index_service.proto and IndexDatapoint in
+  index.proto.
+  */
+
+  interface MessageWriter {
+    void write(CodedOutputStream out) throws IOException;
+  }
+
+  static byte[] message(MessageWriter writer) {
+    try {
+      var bytes = new ByteArrayOutputStream();
+      var out = CodedOutputStream.newInstance(bytes);
+      writer.write(out);
+      out.flush();
+      return bytes.toByteArray();
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  static void writeString(CodedOutputStream out, int field, String value) throws IOException {
+    if (value != null && !value.isEmpty()) {
+      out.writeString(field, value);
+    }
+  }
+
+  static byte[] findNeighborsRequest(String indexEndpoint, VectorSearch.SearchRequest request) {
+    return message(
+        out -> {
+          writeString(out, 1, indexEndpoint);
+          writeString(out, 2, request.deployedIndexId());
+          for (var query : request.queries()) {
+            out.writeByteArray(3, query(query.payload()));
+          }
+          if (Boolean.TRUE.equals(request.returnEmbeddings())) {
+            out.writeBool(4, true);
+          }
+        });
+  }
+
+  static byte[] query(VectorSearch.QueryPayload query) {
+    return message(
+        out -> {
+          out.writeByteArray(1, indexDatapoint(query.datapoint()));
+          if (query.neighborCount() != null) {
+            out.writeInt32(2, query.neighborCount());
+          }
+        });
+  }
+
+  static byte[] upsertDatapointsRequest(String index, VectorSearch.UpsertRequest request) {
+    return message(
+        out -> {
+          writeString(out, 1, index);
+          for (var datapoint : request.payload().datapoints()) {
+            out.writeByteArray(2, indexDatapoint(datapoint));
+          }
+        });
+  }
+
+  static byte[] removeDatapointsRequest(String index, VectorSearch.RemoveRequest request) {
+    return message(
+        out -> {
+          writeString(out, 1, index);
+          for (var datapointId : request.datapointIds()) {
+            out.writeString(2, datapointId);
+          }
+        });
+  }
+
+  // feature values are sent packed, as 4 bytes each instead of their decimal text
+  static byte[] indexDatapoint(VectorSearch.IndexDatapoint datapoint) {
+    return message(
+        out -> {
+          writeString(out, 1, datapoint.datapointId());
+          var values = datapoint.featureVector();
+          if (values != null && values.dimensions() > 0) {
+            out.writeTag(2, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeUInt32NoTag(4 * values.dimensions());
+            for (int i = 0; i < values.dimensions(); i++) {
+              out.writeFloatNoTag(values.get(i));
+            }
+          }
+          for (var restrict : Optional.ofNullable(datapoint.restricts()).orElse(List.of())) {
+            out.writeByteArray(4, restrict(restrict));
+          }
+          for (var restrict :
+              Optional.ofNullable(datapoint.numericRestricts()).orElse(List.of())) {
+            out.writeByteArray(6, numericRestrict(restrict));
+          }
+        });
+  }
+
+  static byte[] restrict(VectorSearch.Restrict restrict) {
+    return message(
+        out -> {
+          writeString(out, 1, restrict.namespace());
+          for (var value : restrict.allowList()) {
+            out.writeString(2, value);
+          }
+        });
+  }
+
+  static byte[] numericRestrict(VectorSearch.NumericRestrict restrict) {
+    return message(
+        out -> {
+          writeString(out, 1, restrict.namespace());
+          if (restrict.valueInt() != null) {
+            out.writeInt64(2, restrict.valueInt());
+          }
+          if (restrict.op() != null) {
+            out.writeEnum(5, operator(restrict.op()));
+          }
+        });
+  }
+
+  static int operator(String op) {
+    return switch (op) {
+      case "LESS" -> 1;
+      case "LESS_EQUAL" -> 2;
+      case "EQUAL" -> 3;
+      case "GREATER_EQUAL" -> 4;
+      case "GREATER" -> 5;
+      case "NOT_EQUAL" -> 6;
+      default -> throw new IllegalArgumentException("Unknown numeric restrict operator: " + op);
+    };
+  }
+
+  /*
+  Response decoding, fields not used by this module are skipped.
+  */
+
+  static VectorSearch.NeighborsResponse neighborsResponse(byte[] response) throws IOException {
+    var in = CodedInputStream.newInstance(response);
+    var nearestNeighbors = new ArrayList<Vectors.Neighbors>();
+    int tag;
+    while ((tag = in.readTag()) != 0) {
+      if (WireFormat.getTagFieldNumber(tag) == 1) {
+        var limit = in.pushLimit(in.readRawVarint32());
+        nearestNeighbors.add(nearestNeighbors(in));
+        in.popLimit(limit);
+      } else {
+        in.skipField(tag);
+      }
+    }
+    return new VectorSearch.NeighborsResponse(nearestNeighbors);
+  }
+
+  static Vectors.Neighbors nearestNeighbors(CodedInputStream in) throws IOException {
+    String id = null;
+    var neighbors = new ArrayList<Vectors.Neighbor>();
+    int tag;
+    while ((tag = in.readTag()) != 0) {
+      switch (WireFormat.getTagFieldNumber(tag)) {
+        case 1 -> id = in.readStringRequireUtf8();
+        case 2 -> {
+          var limit = in.pushLimit(in.readRawVarint32());
+          neighbors.add(neighbor(in));
+          in.popLimit(limit);
+        }
+        default -> in.skipField(tag);
+      }
+    }
+    return new Vectors.Neighbors(id, neighbors);
+  }
+
+  static Vectors.Neighbor neighbor(CodedInputStream in) throws IOException {
+    Vectors.Datapoint datapoint = null;
+    var distance = 0.0;
+    int tag;
+    while ((tag = in.readTag()) != 0) {
+      switch (WireFormat.getTagFieldNumber(tag)) {
+        case 1 -> {
+          var limit = in.pushLimit(in.readRawVarint32());
+          datapoint = datapoint(in);
+          in.popLimit(limit);
+        }
+        case 2 -> distance = in.readDouble();
+        default -> in.skipField(tag);
+      }
+    }
+    return new Vectors.Neighbor(distance, datapoint);
+  }
+
+  static Vectors.Datapoint datapoint(CodedInputStream in) throws IOException {
+    String datapointId = null;
+    var values = new float[0];
+    int tag;
+    while ((tag = in.readTag()) != 0) {
+      switch (WireFormat.getTagFieldNumber(tag)) {
+        case 1 -> datapointId = in.readStringRequireUtf8();
+        case 2 -> {
+          // parsers should accept both the packed and the one value per tag encodings
+          if (WireFormat.getTagWireType(tag) == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+            var length = in.readRawVarint32();
+            var offset = values.length;
+            values = Arrays.copyOf(values, offset + length / 4);
+            for (int i = offset; i < values.length; i++) {
+              values[i] = in.readFloat();
+            }
+          } else {
+            values = Arrays.copyOf(values, values.length + 1);
+            values[values.length - 1] = in.readFloat();
+          }
+        }
+        default -> in.skipField(tag);
+      }
+    }
+    return new Vectors.Datapoint(
+        datapointId, values.length == 0 ? Float32Vector.empty() : Float32Vector.wrap(values));
+  }
+}
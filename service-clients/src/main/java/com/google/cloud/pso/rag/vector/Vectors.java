@@ -15,6 +15,7 @@
  */
 package com.google.cloud.pso.rag.vector;
 
+import com.google.cloud.pso.rag.common.Float32Vector;
 import com.google.cloud.pso.rag.common.Result;
 import com.google.cloud.pso.rag.common.Result.ErrorResponse;
 import java.util.List;
@@ -25,15 +26,20 @@ public interface Vectors {
 
   sealed interface Request permits Search, Store, Delete {}
 
-  sealed interface Search extends Request permits AlloyDB.SearchRequest, VectorSearch.SearchRequest {}
+  sealed interface Search extends Request permits AlloyDB.SearchRequest, VectorSearch.SearchRequest {
+    /** When false, neighbors are returned without their feature vectors. */
+    Boolean returnEmbeddings();
+  }
 
-  sealed interface Store extends Request permits AlloyDB.UpsertRequest, VectorSearch.UpsertRequest {}
+  sealed interface Store extends Request
+      permits AlloyDB.UpsertRequest, AlloyDB.BulkUpsertRequest, VectorSearch.UpsertRequest {}
 
   sealed interface Delete extends Request permits AlloyDB.RemoveRequest, VectorSearch.RemoveRequest {}
 
   sealed interface Response permits StoreResponse, SearchResponse, DeleteResponse {}
 
-  sealed interface StoreResponse extends Response permits AlloyDB.UpsertResponse, VectorSearch.UpsertResponse {}
+  sealed interface StoreResponse extends Response
+      permits AlloyDB.UpsertResponse, AlloyDB.BulkUpsertResponse, VectorSearch.UpsertResponse {}
 
   sealed interface SearchResponse extends Response permits AlloyDB.NeighborsResponse, VectorSearch.NeighborsResponse {
     List<Neighbors> nearestNeighbors();
@@ -41,7 +47,58 @@ public interface Vectors {
 
   sealed interface DeleteResponse extends Response permits AlloyDB.RemoveResponse, VectorSearch.RemoveResponse {}
 
-  record Datapoint(String datapointId, List<Double> featureVector) {
+  /**
+   * Attributes stored with each datapoint that searches can be restricted on, any of them can be
+   * null. The ingestion time is expressed as epoch millis. The content is the text the vector was
+   * computed from, storages supporting lexical matching index it for hybrid searches.
+   */
+  record Metadata(
+      String sourceId, String mimeType, Long ingestedAt, String tenant, String content) {
+    public Metadata(String sourceId, String mimeType, Long ingestedAt, String tenant) {
+      this(sourceId, mimeType, ingestedAt, tenant, null);
+    }
+
+    public static Metadata empty() {
+      return new Metadata(null, null, null, null, null);
+    }
+  }
+
+  /**
+   * Search restrictions, only the non null values are applied. The ingestion time range includes
+   * its start and excludes its end, both expressed as epoch millis.
+   */
+  record Filter(
+      String sourceId, String mimeType, Long ingestedFrom, Long ingestedTo, String tenant) {
+    public static Filter none() {
+      return new Filter(null, null, null, null, null);
+    }
+
+    public static Filter tenant(String tenant) {
+      return new Filter(null, null, null, null, tenant);
+    }
+
+    public Boolean isEmpty() {
+      return this.equals(none());
+    }
+  }
+
+  record Datapoint(String datapointId, Float32Vector featureVector, Metadata metadata) {
+    public Datapoint {
+      metadata = metadata == null ? Metadata.empty() : metadata;
+    }
+
+    public Datapoint(String datapointId, Float32Vector featureVector) {
+      this(datapointId, featureVector, Metadata.empty());
+    }
+
+    public Datapoint(Float32Vector values) {
+      this("dummyId", values);
+    }
+
+    public Datapoint(String datapointId, List<Double> featureVector) {
+      this(datapointId, Float32Vector.fromDoubles(featureVector));
+    }
+
     public Datapoint(List<Double> values) {
       this("dummyId", values);
     }
@@ -64,6 +121,7 @@ public interface Vectors {
     return switch (request) {
       case VectorSearch.UpsertRequest storeVector -> VectorSearch.store(storeVector);
       case AlloyDB.UpsertRequest alloyDBSearch -> AlloyDB.store(alloyDBSearch);
+      case AlloyDB.BulkUpsertRequest alloyDBBulk -> AlloyDB.bulkStore(alloyDBBulk);
     };
   }
 
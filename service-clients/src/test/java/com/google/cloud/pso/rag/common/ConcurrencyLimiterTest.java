@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pso.rag.common;
+
+import com.google.cloud.pso.rag.common.ConcurrencyLimiter.Feedback;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Assert;
+import org.junit.Test;
+
+/** */
+public class ConcurrencyLimiterTest {
+
+  private static final long NOW = Duration.ofSeconds(1).toNanos();
+
+  static ConcurrencyLimiter limiter(int initialLimit, int maxQueued, Duration maxQueueWait) {
+    return new ConcurrencyLimiter(
+        "test",
+        new GCPEnvironment.ConcurrencyLimitConfig(
+            initialLimit, 1, 10, maxQueued, maxQueueWait, 4.0));
+  }
+
+  static CompletableFuture<String> execute(
+      ConcurrencyLimiter limiter, CompletableFuture<String> response) {
+    return limiter.execute(() -> response, value -> Feedback.success(), Feedback::fromError);
+  }
+
+  static Throwable failure(CompletableFuture<?> response) throws Exception {
+    try {
+      response.get(5, TimeUnit.SECONDS);
+    } catch (ExecutionException ex) {
+      return ex.getCause();
+    }
+    throw new AssertionError("the request was expected to fail");
+  }
+
+  @Test
+  public void testGrowsAdditivelyWhileUsed() {
+    var limiter = limiter(4, 10, Duration.ofMinutes(1));
+    // unused capacity is not a reason to grow
+    limiter.update(Feedback.success(), 1_000_000, NOW);
+    Assert.assertEquals(4, (int) limiter.metrics().limit());
+
+    for (int i = 0; i < 3; i++) {
+      execute(limiter, new CompletableFuture<>());
+    }
+    for (int i = 0; i < 5; i++) {
+      limiter.update(Feedback.success(), 1_000_000, NOW);
+    }
+    Assert.assertEquals(5, (int) limiter.metrics().limit());
+
+    // stops growing once the requests in flight use less than half of it
+    for (int i = 0; i < 1000; i++) {
+      limiter.update(Feedback.success(), 1_000_000, NOW);
+    }
+    Assert.assertEquals(8, (int) limiter.metrics().limit());
+
+    for (int i = 0; i < 2; i++) {
+      execute(limiter, new CompletableFuture<>());
+    }
+    for (int i = 0; i < 1000; i++) {
+      limiter.update(Feedback.success(), 1_000_000, NOW);
+    }
+    Assert.assertEquals(10, (int) limiter.metrics().limit());
+  }
+
+  @Test
+  public void testHalvesOnOverloadOncePerRoundTrip() {
+    var limiter = limiter(8, 10, Duration.ofMinutes(1));
+    limiter.update(Feedback.overload(Optional.empty()), 0, NOW);
+    Assert.assertEquals(4, (int) limiter.metrics().limit());
+
+    // responses to requests sent before the decrease do not lower it again
+    limiter.update(Feedback.overload(Optional.empty()), 0, NOW + 1_000_000);
+    Assert.assertEquals(4, (int) limiter.metrics().limit());
+
+    limiter.update(Feedback.overload(Optional.empty()), 0, NOW + Duration.ofSeconds(1).toNanos());
+    Assert.assertEquals(2, (int) limiter.metrics().limit());
+    for (int i = 2; i < 10; i++) {
+      limiter.update(
+          Feedback.overload(Optional.empty()), 0, NOW + Duration.ofSeconds(i).toNanos());
+    }
+    Assert.assertEquals(1, (int) limiter.metrics().limit());
+    Assert.assertEquals(11, (long) limiter.metrics().overloads());
+  }
+
+  @Test
+  public void testDecreasesOnLatencySpikes() {
+    var limiter = limiter(10, 10, Duration.ofMinutes(1));
+    limiter.update(Feedback.success(), Duration.ofMillis(10).toNanos(), NOW);
+    limiter.update(Feedback.success(), Duration.ofMillis(20).toNanos(), NOW);
+    Assert.assertEquals(10, (int) limiter.metrics().limit());
+
+    limiter.update(Feedback.success(), Duration.ofMillis(100).toNanos(), NOW);
+    Assert.assertEquals(9, (int) limiter.metrics().limit());
+  }
+
+  @Test
+  public void testIgnoresUnrelatedFailures() {
+    var limiter = limiter(8, 10, Duration.ofMinutes(1));
+    limiter.update(Feedback.ignore(), Duration.ofMinutes(1).toNanos(), NOW);
+    Assert.assertEquals(8, (int) limiter.metrics().limit());
+    Assert.assertEquals(0, (long) limiter.metrics().overloads());
+  }
+
+  @Test
+  public void testRetryAfterHoldsNewRequests() {
+    var limiter = limiter(8, 10, Duration.ofMinutes(1));
+    limiter.update(Feedback.overload(Optional.of(Duration.ofSeconds(2))), 0, NOW);
+
+    Assert.assertFalse(limiter.canStart(NOW));
+    Assert.assertFalse(limiter.canStart(NOW + Duration.ofSeconds(1).toNanos()));
+    Assert.assertTrue(limiter.canStart(NOW + Duration.ofSeconds(2).toNanos()));
+  }
+
+  @Test
+  public void testHeldRequestsStartOnceRetryAfterElapses() throws Exception {
+    var limiter = limiter(8, 10, Duration.ofMinutes(1));
+    var start = System.nanoTime();
+    limiter.update(Feedback.overload(Optional.of(Duration.ofMillis(200))), 0, start);
+
+    var response = execute(limiter, CompletableFuture.completedFuture("done"));
+    Assert.assertFalse(response.isDone());
+    Assert.assertEquals("done", response.get(5, TimeUnit.SECONDS));
+    Assert.assertTrue(System.nanoTime() - start >= Duration.ofMillis(200).toNanos());
+  }
+
+  @Test
+  public void testQueuedRequestStartsWhenOneCompletes() throws Exception {
+    var limiter = limiter(1, 10, Duration.ofMinutes(1));
+    var first = new CompletableFuture<String>();
+    var started = new AtomicBoolean(false);
+    execute(limiter, first);
+    var second =
+        limiter.execute(
+            () -> {
+              started.set(true);
+              return CompletableFuture.completedFuture("second");
+            },
+            value -> Feedback.success(),
+            Feedback::fromError);
+
+    Assert.assertFalse(started.get());
+    Assert.assertEquals(1, (int) limiter.metrics().queued());
+    first.complete("first");
+    Assert.assertEquals("second", second.get(5, TimeUnit.SECONDS));
+    Assert.assertTrue(started.get());
+  }
+
+  @Test
+  public void testRejectsWhenQueueIsFull() throws Exception {
+    var limiter = limiter(1, 1, Duration.ofMinutes(1));
+    execute(limiter, new CompletableFuture<>());
+    var queued = execute(limiter, new CompletableFuture<>());
+    var rejected = execute(limiter, new CompletableFuture<>());
+
+    Assert.assertTrue(failure(rejected) instanceof RejectedExecutionException);
+    Assert.assertFalse(queued.isDone());
+    Assert.assertEquals(1, (int) limiter.metrics().queued());
+    Assert.assertEquals(1, (long) limiter.metrics().rejectedRequests());
+  }
+
+  @Test
+  public void testExpiresRequestsWaitingTooLong() throws Exception {
+    var limiter = limiter(1, 10, Duration.ofMillis(50));
+    var first = new CompletableFuture<String>();
+    execute(limiter, first);
+    var expired = execute(limiter, CompletableFuture.completedFuture("never sent"));
+
+    Assert.assertTrue(failure(expired) instanceof RejectedExecutionException);
+    Assert.assertEquals(0, (int) limiter.metrics().queued());
+    Assert.assertEquals(1, (long) limiter.metrics().rejectedRequests());
+
+    // the freed slot is not taken by the expired request
+    first.complete("first");
+    Assert.assertEquals(0, (int) limiter.metrics().inFlight());
+  }
+
+  @Test
+  public void testFeedbackClassification() {
+    Assert.assertEquals(Feedback.success(), Feedback.fromStatus(200, Optional.empty()));
+    Assert.assertEquals(Feedback.ignore(), Feedback.fromStatus(400, Optional.empty()));
+    Assert.assertEquals(
+        Feedback.overload(Optional.of(Duration.ofSeconds(3))),
+        Feedback.fromStatus(429, Optional.of("3")));
+    Assert.assertEquals(
+        Feedback.overload(Optional.empty()),
+        Feedback.fromStatus(503, Optional.of("Wed, 21 Oct 2015 07:28:00 GMT")));
+    Assert.assertEquals(
+        Feedback.overload(Optional.empty()),
+        Feedback.fromError(new CompletionException(new HttpTimeoutException("timed out"))));
+    Assert.assertEquals(Feedback.ignore(), Feedback.fromError(new IllegalStateException()));
+  }
+}
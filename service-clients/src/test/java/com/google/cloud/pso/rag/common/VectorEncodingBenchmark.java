@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pso.rag.common;
+
+import com.pgvector.PGvector;
+import java.nio.charset.StandardCharsets;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import org.postgresql.PGConnection;
+
+/**
+ * Compares the text and binary encodings used to send vectors to AlloyDB. Reports the bytes sent
+ * per batch and the time spent encoding them (and decoding, for text, which approximates the
+ * parsing the server needs). When a JDBC url, user and password are provided as arguments it also
+ * measures the round trip of binding each encoding.
+ *
+ * <p>Run with: {@code mvn -pl service-clients test-compile exec:java
+ * -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.google.cloud.pso.rag.common.VectorEncodingBenchmark
+ * [-Dexec.args="jdbc:postgresql://host:5432/db user password"]}
+ */
+public class VectorEncodingBenchmark {
+
+  static final int BATCH_SIZE = 16;
+  static final int WARMUP_ITERATIONS = 2_000;
+  static final int ITERATIONS = 5_000;
+
+  record Measurement(String encoding, int dimensions, long bytes, double micros) {
+    @Override
+    public String toString() {
+      return String.format(
+          "%-8s dims=%-5d bytes/batch=%-8d encode+decode/batch=%.1fus",
+          encoding, dimensions, bytes, micros);
+    }
+  }
+
+  static List<Float32Vector> randomVectors(int dimensions) {
+    var random = new Random(42);
+    return IntStream.range(0, BATCH_SIZE)
+        .mapToObj(
+            i -> {
+              var values = new float[dimensions];
+              for (int d = 0; d < dimensions; d++) {
+                values[d] = (float) random.nextGaussian() * 0.05f;
+              }
+              return Float32Vector.wrap(values);
+            })
+        .toList();
+  }
+
+  static double averageMicros(Supplier<Object> operation) {
+    Object sink = null;
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      sink = operation.get();
+    }
+    var start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      sink = operation.get();
+    }
+    var elapsed = System.nanoTime() - start;
+    if (sink == null) {
+      throw new IllegalStateException();
+    }
+    return elapsed / 1000.0 / ITERATIONS;
+  }
+
+  static Measurement text(List<Float32Vector> vectors) {
+    var bytes = new PGvectorArray(vectors, false, 0).getValue().getBytes(StandardCharsets.UTF_8);
+    var micros =
+        averageMicros(
+            () ->
+                vectors.stream()
+                    .map(
+                        vector -> {
+                          try {
+                            return new PGvector(vector.toString()).toArray();
+                          } catch (SQLException ex) {
+                            throw new RuntimeException(ex);
+                          }
+                        })
+                    .toList());
+    return new Measurement("text", vectors.getFirst().dimensions(), bytes.length, micros);
+  }
+
+  static Measurement binary(List<Float32Vector> vectors, boolean halfPrecision) {
+    var array = new PGvectorArray(vectors, halfPrecision, 0);
+    var micros =
+        averageMicros(
+            () -> {
+              var bytes = new byte[array.lengthInBytes()];
+              array.toBytes(bytes, 0);
+              return bytes;
+            });
+    return new Measurement(
+        halfPrecision ? "float16" : "float32",
+        vectors.getFirst().dimensions(),
+        array.lengthInBytes(),
+        micros);
+  }
+
+  static void roundTrips(String url, String user, String password, List<Float32Vector> vectors)
+      throws SQLException {
+    try (var connection = DriverManager.getConnection(url, user, password)) {
+      var pgConnection = connection.unwrap(PGConnection.class);
+      pgConnection.addDataType(PGvectorArray.VECTOR_ARRAY, PGvectorArray.class);
+      pgConnection.addDataType(PGvectorArray.HALFVEC_ARRAY, PGvectorArray.class);
+      var dims = vectors.getFirst().dimensions();
+      try (var text = connection.prepareStatement("SELECT cardinality(?::text::vector[])");
+          var float32 = connection.prepareStatement("SELECT cardinality(?::vector[])");
+          var float16 = connection.prepareStatement("SELECT cardinality(?::halfvec[])")) {
+        var textValue = new PGvectorArray(vectors, false, 0).getValue();
+        var float32Value =
+            PGvectorArray.of(connection, vectors, GCPEnvironment.VectorEncoding.FLOAT32);
+        var float16Value =
+            PGvectorArray.of(connection, vectors, GCPEnvironment.VectorEncoding.FLOAT16);
+        System.out.printf(
+            "round trip dims=%d text=%.1fus float32=%.1fus float16=%.1fus%n",
+            dims,
+            roundTripMicros(() -> execute(text, textValue)),
+            roundTripMicros(() -> execute(float32, float32Value)),
+            roundTripMicros(() -> execute(float16, float16Value)));
+      }
+    }
+  }
+
+  static Object execute(PreparedStatement statement, Object value) {
+    try {
+      statement.setObject(1, value);
+      try (var rs = statement.executeQuery()) {
+        rs.next();
+        return rs.getInt(1);
+      }
+    } catch (SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  static double roundTripMicros(Supplier<Object> operation) {
+    for (int i = 0; i < 100; i++) {
+      operation.get();
+    }
+    var start = System.nanoTime();
+    for (int i = 0; i < 500; i++) {
+      operation.get();
+    }
+    return (System.nanoTime() - start) / 1000.0 / 500;
+  }
+
+  public static void main(String[] args) throws SQLException {
+    for (var dimensions : List.of(768, 3072)) {
+      var vectors = randomVectors(dimensions);
+      System.out.println(text(vectors));
+      System.out.println(binary(vectors, false));
+      System.out.println(binary(vectors, true));
+      if (args.length == 3) {
+        roundTrips(args[0], args[1], args[2], vectors);
+      }
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pso.rag.vector;
+
+import com.google.cloud.pso.rag.common.Float32Vector;
+import com.google.cloud.pso.rag.common.GCPEnvironment;
+import com.google.cloud.pso.rag.common.Result;
+import com.google.cloud.pso.rag.common.Result.ErrorResponse;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Compares the JDBC and the non blocking drivers running 100, 500 and 2000 concurrent searches
+ * against an AlloyDB instance with an already populated embeddings table. Reports the throughput,
+ * the p50 and p99 latencies, the failed searches (ex: rejected by a full pool queue) and the peak
+ * amount of live threads of each run.
+ *
+ * <p>Run with: {@code mvn -pl service-clients test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.google.cloud.pso.rag.vector.AlloyDBDriverBenchmark
+ * -Dexec.args="ipAddress database user password schema table [dimensions]"}
+ */
+public class AlloyDBDriverBenchmark {
+
+  static final List<Integer> CONCURRENCY = List.of(100, 500, 2000);
+  static final int NEIGHBORS = 10;
+
+  record Measurement(
+      String driver,
+      int concurrency,
+      double searchesPerSecond,
+      double p50Millis,
+      double p99Millis,
+      long failures,
+      int peakThreads) {
+    @Override
+    public String toString() {
+      return String.format(
+          "%-8s concurrency=%-5d searches/sec=%-8.1f p50=%-7.1fms p99=%-7.1fms failures=%-5d "
+              + "peakThreads=%d",
+          driver, concurrency, searchesPerSecond, p50Millis, p99Millis, failures, peakThreads);
+    }
+  }
+
+  static AlloyDB.SearchRequest randomSearch(Random random, int dimensions) {
+    var values = new float[dimensions];
+    for (int d = 0; d < dimensions; d++) {
+      values[d] = (float) random.nextGaussian() * 0.05f;
+    }
+    return new AlloyDB.SearchRequest(
+        List.of(new AlloyDB.Query(new Vectors.Datapoint(Float32Vector.wrap(values)), NEIGHBORS)));
+  }
+
+  static Measurement run(
+      String driver,
+      Function<AlloyDB.SearchRequest, CompletableFuture<? extends Result<?, ErrorResponse>>> search,
+      int concurrency,
+      int dimensions) {
+    var random = new Random(42);
+    var requests = new ArrayList<AlloyDB.SearchRequest>();
+    for (int i = 0; i < concurrency; i++) {
+      requests.add(randomSearch(random, dimensions));
+    }
+    var threads = ManagementFactory.getThreadMXBean();
+    threads.resetPeakThreadCount();
+    var latencies = new long[concurrency];
+    var failures = new long[concurrency];
+    var start = System.nanoTime();
+    var searches = new ArrayList<CompletableFuture<?>>();
+    for (int i = 0; i < concurrency; i++) {
+      var index = i;
+      var searchStart = System.nanoTime();
+      CompletableFuture<? extends Result<?, ErrorResponse>> future;
+      try {
+        future = search.apply(requests.get(i));
+      } catch (RuntimeException ex) {
+        future = CompletableFuture.failedFuture(ex);
+      }
+      searches.add(
+          future.handle(
+              (result, error) -> {
+                latencies[index] = System.nanoTime() - searchStart;
+                failures[index] = error != null || result instanceof Result.Failure ? 1 : 0;
+                return null;
+              }));
+    }
+    CompletableFuture.allOf(searches.toArray(CompletableFuture[]::new)).join();
+    var elapsed = System.nanoTime() - start;
+    Arrays.sort(latencies);
+    return new Measurement(
+        driver,
+        concurrency,
+        concurrency * 1_000_000_000.0 / elapsed,
+        latencies[(int) (concurrency * 0.50)] / 1_000_000.0,
+        latencies[(int) (concurrency * 0.99)] / 1_000_000.0,
+        Arrays.stream(failures).sum(),
+        threads.getPeakThreadCount());
+  }
+
+  public static void main(String[] args) {
+    if (args.length < 6) {
+      System.err.println(
+          "Expected arguments: ipAddress database user password schema table [dimensions]");
+      System.exit(1);
+    }
+    GCPEnvironment.trySetup(
+        new GCPEnvironment.Config(
+            "",
+            "",
+            () -> "",
+            null,
+            new GCPEnvironment.AlloyDBConfig(
+                args[0], args[1], args[2], args[3], args[4], args[5])));
+    var dimensions = args.length > 6 ? Integer.parseInt(args[6]) : 768;
+    // warms up both paths: connections, prepared statements and JIT
+    run("jdbc", AlloyDB::jdbcSearch, 100, dimensions);
+    run("reactive", AlloyDBReactiveClient::search, 100, dimensions);
+    for (var concurrency : CONCURRENCY) {
+      System.out.println(run("jdbc", AlloyDB::jdbcSearch, concurrency, dimensions));
+      System.out.println(run("reactive", AlloyDBReactiveClient::search, concurrency, dimensions));
+    }
+    // the event loop threads of the reactive client are not daemon ones
+    System.exit(0);
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pso.rag.vector;
+
+import com.google.cloud.pso.rag.common.Float32Vector;
+import com.google.cloud.pso.rag.common.Result;
+import com.google.cloud.pso.rag.common.Result.ErrorResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.junit.Assert;
+import org.junit.Test;
+
+/** */
+public class SearchBatcherTest {
+
+  private final List<Vectors.Search> sent = new CopyOnWriteArrayList<>();
+
+  // the query text carries the original id, so the neighbors can be told apart after the re-ids
+  static AlloyDB.Query query(String id) {
+    return new AlloyDB.Query(new Vectors.Datapoint(id, Float32Vector.of(1f, 2f)), 5, id);
+  }
+
+  static AlloyDB.SearchRequest search(String... ids) {
+    return new AlloyDB.SearchRequest(Arrays.stream(ids).map(SearchBatcherTest::query).toList());
+  }
+
+  static Vectors.SearchResponse answer(Vectors.Search request) {
+    var queries = ((AlloyDB.SearchRequest) request).queries();
+    return new AlloyDB.NeighborsResponse(
+        queries.stream()
+            .map(
+                query ->
+                    new Vectors.Neighbors(
+                        query.datapoint().datapointId(),
+                        List.of(
+                            new Vectors.Neighbor(
+                                0.5,
+                                new Vectors.Datapoint(
+                                    "match-" + query.text(), Float32Vector.of(1f, 2f))))))
+            .toList());
+  }
+
+  static void assertNeighbors(Vectors.SearchResponse response, String... ids) {
+    Assert.assertEquals(
+        List.of(ids), response.nearestNeighbors().stream().map(Vectors.Neighbors::id).toList());
+    for (var neighbors : response.nearestNeighbors()) {
+      Assert.assertEquals(
+          List.of("match-" + neighbors.id()),
+          neighbors.neighbors().stream().map(n -> n.datapoint().datapointId()).toList());
+    }
+  }
+
+  static Vectors.SearchResponse value(
+      CompletableFuture<Result<? extends Vectors.SearchResponse, ErrorResponse>> response)
+      throws Exception {
+    return response
+        .get(5, TimeUnit.SECONDS)
+        .orElseThrow(error -> new RuntimeException(error.message()));
+  }
+
+  SearchBatcher batcher(Duration window, int maxQueries) {
+    return batcher(
+        window,
+        maxQueries,
+        request -> CompletableFuture.completedFuture(Result.success(answer(request))));
+  }
+
+  SearchBatcher batcher(
+      Duration window,
+      int maxQueries,
+      Function<
+              Vectors.Search,
+              CompletableFuture<Result<? extends Vectors.SearchResponse, ErrorResponse>>>
+          backend) {
+    return new SearchBatcher(
+        window,
+        maxQueries,
+        request -> {
+          sent.add(request);
+          return backend.apply(request);
+        });
+  }
+
+  @Test
+  public void testMergeAndSplit() {
+    var first = search("a", "b");
+    var second = search("c");
+    var merged =
+        SearchBatcher.merge(
+            List.of(
+                SearchBatcher.withQueryIds(first, List.of("q0", "q1")),
+                SearchBatcher.withQueryIds(second, List.of("q2"))));
+    Assert.assertEquals(List.of("q0", "q1", "q2"), SearchBatcher.originalQueryIds(merged));
+    Assert.assertEquals(SearchBatcher.withoutQueries(first), SearchBatcher.withoutQueries(merged));
+
+    var response = answer(merged);
+    assertNeighbors(SearchBatcher.split(first, List.of("q0", "q1"), response), "a", "b");
+    assertNeighbors(SearchBatcher.split(second, List.of("q2"), response), "c");
+  }
+
+  @Test
+  public void testSplitKeepsQueriesWithoutResults() {
+    var request = search("a", "b");
+    var response = answer(SearchBatcher.withQueryIds(search("b"), List.of("q1")));
+
+    var split = SearchBatcher.split(request, List.of("q0", "q1"), response);
+    Assert.assertEquals(
+        List.of("a", "b"), split.nearestNeighbors().stream().map(Vectors.Neighbors::id).toList());
+    Assert.assertTrue(split.nearestNeighbors().get(0).neighbors().isEmpty());
+    Assert.assertEquals(
+        "match-b", split.nearestNeighbors().get(1).neighbors().get(0).datapoint().datapointId());
+  }
+
+  @Test
+  public void testFlushWhenMaxQueriesReached() throws Exception {
+    var batcher = batcher(Duration.ofHours(1), 3);
+    var first = batcher.findNearestNeighbors(search("a", "b"));
+    Assert.assertFalse(first.isDone());
+    var second = batcher.findNearestNeighbors(search("c"));
+
+    Assert.assertEquals(1, sent.size());
+    Assert.assertEquals(3, SearchBatcher.queryCount(sent.get(0)));
+    assertNeighbors(value(first), "a", "b");
+    assertNeighbors(value(second), "c");
+  }
+
+  @Test
+  public void testFlushWhenWindowElapses() throws Exception {
+    var batcher = batcher(Duration.ofMillis(20), 100);
+    var first = batcher.findNearestNeighbors(search("a"));
+    var second = batcher.findNearestNeighbors(search("b", "c"));
+
+    assertNeighbors(value(first), "a");
+    assertNeighbors(value(second), "b", "c");
+    Assert.assertEquals(1, sent.size());
+    Assert.assertEquals(3, SearchBatcher.queryCount(sent.get(0)));
+  }
+
+  @Test
+  public void testSearchThatDoesNotFitStartsNewBatch() throws Exception {
+    var batcher = batcher(Duration.ofHours(1), 3);
+    var first = batcher.findNearestNeighbors(search("a", "b"));
+    var second = batcher.findNearestNeighbors(search("c", "d"));
+
+    // the open batch only had the first search, so it is sent as it was requested
+    Assert.assertEquals(List.of(search("a", "b")), sent);
+    assertNeighbors(value(first), "a", "b");
+    Assert.assertFalse(second.isDone());
+
+    var third = batcher.findNearestNeighbors(search("e"));
+    Assert.assertEquals(2, sent.size());
+    assertNeighbors(value(second), "c", "d");
+    assertNeighbors(value(third), "e");
+  }
+
+  @Test
+  public void testDifferentSearchesAreNotMerged() throws Exception {
+    var batcher = batcher(Duration.ofMillis(20), 100);
+    var first = batcher.findNearestNeighbors(search("a"));
+    var second =
+        batcher.findNearestNeighbors(new AlloyDB.SearchRequest(List.of(query("b")), true));
+
+    assertNeighbors(value(first), "a");
+    assertNeighbors(value(second), "b");
+    Assert.assertEquals(2, sent.size());
+  }
+
+  @Test
+  public void testLargeSearchesAreNotBatched() throws Exception {
+    var batcher = batcher(Duration.ofHours(1), 2);
+    var response = batcher.findNearestNeighbors(search("a", "b"));
+
+    Assert.assertEquals(List.of(search("a", "b")), sent);
+    assertNeighbors(value(response), "a", "b");
+  }
+
+  @Test
+  public void testFailedBatchFailsEverySearch() throws Exception {
+    var batcher =
+        batcher(
+            Duration.ofHours(1),
+            2,
+            request -> CompletableFuture.completedFuture(Result.failure("backend failed")));
+    var first = batcher.findNearestNeighbors(search("a"));
+    var second = batcher.findNearestNeighbors(search("b"));
+
+    for (var response : List.of(first, second)) {
+      Assert.assertEquals(
+          Result.failure(new ErrorResponse("backend failed")), response.get(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testErroredBatchFailsEverySearch() {
+    var batcher =
+        batcher(
+            Duration.ofHours(1),
+            2,
+            request -> CompletableFuture.failedFuture(new IllegalStateException("unreachable")));
+    var first = batcher.findNearestNeighbors(search("a"));
+    var second = batcher.findNearestNeighbors(search("b"));
+
+    Assert.assertTrue(first.isCompletedExceptionally());
+    Assert.assertTrue(second.isCompletedExceptionally());
+  }
+}
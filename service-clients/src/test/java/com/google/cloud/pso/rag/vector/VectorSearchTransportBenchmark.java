@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pso.rag.vector;
+
+import static com.google.cloud.pso.rag.common.InteractionHelper.jsonMapper;
+
+import com.google.cloud.pso.rag.common.Float32Vector;
+import com.google.cloud.pso.rag.common.GCPEnvironment;
+import com.google.cloud.pso.rag.common.Result;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+/**
+ * Compares the REST and gRPC transports of Vector Search. First reports the encoded request sizes
+ * of searches and upsert batches, then runs rounds of concurrent searches against a deployed index
+ * reporting the p50 and p99 latencies and the failed searches of each transport. Both runs return
+ * the full neighbor datapoints, the case where the JSON encoding of the vectors weighs the most.
+ *
+ * <p>Run with: {@code mvn -pl service-clients test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.google.cloud.pso.rag.vector.VectorSearchTransportBenchmark
+ * -Dexec.args="project region indexDomain indexEndpointPath indexId deploymentId [dimensions]"}
+ */
+public class VectorSearchTransportBenchmark {
+
+  static final List<Integer> CONCURRENCY = List.of(10, 50, 200);
+  static final List<Integer> UPSERT_BATCHES = List.of(1, 100, 1000);
+  static final int NEIGHBORS = 10;
+
+  record Measurement(
+      VectorSearch.Transport transport,
+      int concurrency,
+      double p50Millis,
+      double p99Millis,
+      long failures) {
+    @Override
+    public String toString() {
+      return String.format(
+          "%-5s concurrency=%-4d p50=%-7.1fms p99=%-7.1fms failures=%d",
+          transport, concurrency, p50Millis, p99Millis, failures);
+    }
+  }
+
+  static Float32Vector randomVector(Random random, int dimensions) {
+    var values = new float[dimensions];
+    for (int d = 0; d < dimensions; d++) {
+      values[d] = (float) random.nextGaussian() * 0.05f;
+    }
+    return Float32Vector.wrap(values);
+  }
+
+  static VectorSearch.SearchRequest randomSearch(
+      Random random, int dimensions, VectorSearch.Transport transport) {
+    return new VectorSearch.SearchRequest(
+        List.of(
+            new VectorSearch.Query(
+                new Vectors.Datapoint("query", randomVector(random, dimensions)), NEIGHBORS)),
+        true,
+        transport);
+  }
+
+  static int jsonSize(Object request) {
+    return jsonMapper(request)
+        .orElseThrow(error -> new RuntimeException(error))
+        .getBytes(StandardCharsets.UTF_8)
+        .length;
+  }
+
+  static void reportPayloadSizes(int dimensions) {
+    var random = new Random(42);
+    var search = randomSearch(random, dimensions, VectorSearch.Transport.REST);
+    System.out.println(
+        String.format(
+            "search       json=%-9d protobuf=%d bytes",
+            jsonSize(search),
+            VectorSearchGrpc.findNeighborsRequest(
+                    GCPEnvironment.config().vectorSearchConfig().indexPath(), search)
+                .length));
+    for (var batch : UPSERT_BATCHES) {
+      var upsert =
+          new VectorSearch.UpsertRequest(
+              IntStream.range(0, batch)
+                  .mapToObj(
+                      idx -> new Vectors.Datapoint("id" + idx, randomVector(random, dimensions)))
+                  .toList());
+      System.out.println(
+          String.format(
+              "upsert %-5d json=%-9d protobuf=%d bytes",
+              batch,
+              jsonSize(upsert),
+              VectorSearchGrpc.upsertDatapointsRequest(
+                      GCPEnvironment.config().vectorSearchConfig().indexId(), upsert)
+                  .length));
+    }
+  }
+
+  static Measurement run(VectorSearch.Transport transport, int concurrency, int dimensions) {
+    var random = new Random(42);
+    var requests = new ArrayList<VectorSearch.SearchRequest>();
+    for (int i = 0; i < concurrency; i++) {
+      requests.add(randomSearch(random, dimensions, transport));
+    }
+    var latencies = new long[concurrency];
+    var failures = new long[concurrency];
+    var searches = new ArrayList<CompletableFuture<?>>();
+    for (int i = 0; i < concurrency; i++) {
+      var index = i;
+      var searchStart = System.nanoTime();
+      searches.add(
+          Vectors.findNearestNeighbors(requests.get(i))
+              .handle(
+                  (result, error) -> {
+                    latencies[index] = System.nanoTime() - searchStart;
+                    failures[index] = error != null || result instanceof Result.Failure ? 1 : 0;
+                    return null;
+                  }));
+    }
+    CompletableFuture.allOf(searches.toArray(CompletableFuture[]::new)).join();
+    Arrays.sort(latencies);
+    return new Measurement(
+        transport,
+        concurrency,
+        latencies[(int) (concurrency * 0.50)] / 1_000_000.0,
+        latencies[(int) (concurrency * 0.99)] / 1_000_000.0,
+        Arrays.stream(failures).sum());
+  }
+
+  public static void main(String[] args) {
+    if (args.length < 6) {
+      System.err.println(
+          "Expected arguments: project region indexDomain indexEndpointPath indexId deploymentId"
+              + " [dimensions]");
+      System.exit(1);
+    }
+    GCPEnvironment.trySetup(
+        new GCPEnvironment.Config(
+            args[0],
+            args[1],
+            () -> "",
+            new GCPEnvironment.VectorSearchConfig(args[2], args[3], args[4], args[5]),
+            null));
+    var dimensions = args.length > 6 ? Integer.parseInt(args[6]) : 768;
+    reportPayloadSizes(dimensions);
+    // warms up both paths: connections, channels, access tokens and JIT
+    run(VectorSearch.Transport.REST, 10, dimensions);
+    run(VectorSearch.Transport.GRPC, 10, dimensions);
+    for (var concurrency : CONCURRENCY) {
+      System.out.println(run(VectorSearch.Transport.REST, concurrency, dimensions));
+      System.out.println(run(VectorSearch.Transport.GRPC, concurrency, dimensions));
+    }
+    // the gRPC channels keep non daemon threads alive
+    System.exit(0);
+  }
+}
@@ -18,6 +18,7 @@ package com.google.cloud.pso.data.services.beans;
 import com.google.cloud.pso.rag.common.GCPEnvironment;
 import com.google.cloud.pso.rag.common.Utilities;
 import com.google.cloud.pso.rag.drive.GoogleDriveClient;
+import com.google.cloud.pso.rag.vector.SearchBatcher;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import jakarta.annotation.PostConstruct;
@@ -26,6 +27,7 @@ import jakarta.enterprise.inject.Produces;
 import jakarta.inject.Inject;
 import jakarta.inject.Named;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.Optional;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.slf4j.Logger;
@@ -61,6 +63,8 @@ public class BeansProducer {
   private String alloyDBTable;
   private Boolean logInteraction;
   private Interactions interactions;
+  private SearchBatcher searchBatcher;
+  private ServiceTypes.EmbeddingsCacheConfiguration embeddingsCacheConfiguration;
 
   private final Integer maxNeighbors = 3;
   private final Double minNeighborDistance = 0.4;
@@ -125,6 +129,7 @@ public class BeansProducer {
     alloyDBPassword = configuration.get("alloy.password").getAsString();
     alloyDBSchema = configuration.get("alloy.schema").getAsString();
     alloyDBTable = configuration.get("alloy.table").getAsString();
+    var alloyDBPoolConfig = alloyDBPoolConfiguration(configuration);
 
     // we assume the service account for the current container has permissions to make requests to
     // the needed Google services.
@@ -137,20 +142,145 @@ public class BeansProducer {
                 matchingEngineIndexEndpointDomain,
                 matchingEngineIndexEndpointId,
                 matchingEngineIndexId,
-                matchingEngineIndexDeploymentId),
+                matchingEngineIndexDeploymentId,
+                Optional.ofNullable(configuration.get("matchingengine.grpc.deadlineMillis"))
+                    .map(jse -> Duration.ofMillis(jse.getAsLong()))
+                    .orElse(Duration.ofSeconds(10))),
             new GCPEnvironment.AlloyDBConfig(
                 alloyDBipAddress,
                 alloyDBDatabaseName,
                 alloyDBUser,
                 alloyDBPassword,
                 alloyDBSchema,
-                alloyDBTable)));
+                alloyDBTable,
+                alloyDBPoolConfig,
+                Optional.ofNullable(configuration.get("alloy.vectorEncoding"))
+                    .map(jse -> GCPEnvironment.VectorEncoding.valueOf(jse.getAsString()))
+                    .orElse(GCPEnvironment.VectorEncoding.FLOAT32),
+                alloyDBReadReplicasConfiguration(configuration),
+                alloyDBQuantizedSearchConfiguration(configuration),
+                Optional.ofNullable(configuration.get("alloy.driver"))
+                    .map(jse -> GCPEnvironment.AlloyDBDriver.valueOf(jse.getAsString()))
+                    .orElse(GCPEnvironment.AlloyDBDriver.JDBC)),
+            vertexAILimitsConfiguration(configuration)));
+    // searches arriving within the window are sent together, a zero window disables it
+    searchBatcher =
+        new SearchBatcher(
+            Optional.ofNullable(configuration.get("vectors.batch.windowMillis"))
+                .map(jse -> Duration.ofMillis(jse.getAsLong()))
+                .orElse(Duration.ZERO),
+            Optional.ofNullable(configuration.get("vectors.batch.maxQueries"))
+                .map(jse -> jse.getAsInt())
+                .orElse(32));
+    embeddingsCacheConfiguration =
+        new ServiceTypes.EmbeddingsCacheConfiguration(
+            Optional.ofNullable(configuration.get("embeddings.cache.maxBytes"))
+                .map(jse -> jse.getAsLong())
+                .orElse(64L * 1024 * 1024),
+            Optional.ofNullable(configuration.get("embeddings.cache.bt.table"))
+                .map(jse -> jse.getAsString()),
+            Optional.ofNullable(configuration.get("embeddings.cache.bt.columnfamily"))
+                .map(jse -> jse.getAsString())
+                .orElse("data"),
+            Optional.ofNullable(configuration.get("embeddings.cache.ttlMinutes"))
+                .map(jse -> Duration.ofMinutes(jse.getAsLong()))
+                .orElse(Duration.ofDays(1)));
     interactions =
         new Interactions(
             configuration.get("embeddings_models").getAsJsonArray().get(0).getAsString(),
             configuration.get("vector_storages").getAsJsonArray().get(0).getAsString(),
             configuration.get("chunkers").getAsJsonArray().get(0).getAsString(),
-            configuration.get("llms").getAsJsonArray().get(0).getAsString());
+            configuration.get("llms").getAsJsonArray().get(0).getAsString(),
+            // reduced vectors are smaller to store and faster to search, the storage must match
+            Optional.ofNullable(configuration.get("embeddings.outputDimensionality"))
+                .map(jse -> jse.getAsInt()));
+  }
+
+  static GCPEnvironment.ConnectionPoolConfig alloyDBPoolConfiguration(JsonObject configuration) {
+    var defaults = GCPEnvironment.ConnectionPoolConfig.defaults();
+    return new GCPEnvironment.ConnectionPoolConfig(
+        Optional.ofNullable(configuration.get("alloy.pool.maxSize"))
+            .map(jse -> jse.getAsInt())
+            .orElse(defaults.maxPoolSize()),
+        Optional.ofNullable(configuration.get("alloy.pool.maxQueuedRequests"))
+            .map(jse -> jse.getAsInt())
+            .orElse(defaults.maxQueuedRequests()),
+        Optional.ofNullable(configuration.get("alloy.pool.connectionTimeoutMillis"))
+            .map(jse -> Duration.ofMillis(jse.getAsLong()))
+            .orElse(defaults.connectionTimeout()),
+        Optional.ofNullable(configuration.get("alloy.pool.keepaliveMillis"))
+            .map(jse -> Duration.ofMillis(jse.getAsLong()))
+            .orElse(defaults.keepaliveTime()),
+        Optional.ofNullable(configuration.get("alloy.pool.maxLifetimeMillis"))
+            .map(jse -> Duration.ofMillis(jse.getAsLong()))
+            .orElse(defaults.maxLifetime()),
+        Optional.ofNullable(configuration.get("alloy.pool.leakDetectionMillis"))
+            .map(jse -> Duration.ofMillis(jse.getAsLong()))
+            .orElse(defaults.leakDetectionThreshold()),
+        Optional.ofNullable(configuration.get("alloy.pool.prepareThreshold"))
+            .map(jse -> jse.getAsInt())
+            .orElse(defaults.prepareThreshold()),
+        Optional.ofNullable(configuration.get("alloy.pool.statementCacheSize"))
+            .map(jse -> jse.getAsInt())
+            .orElse(defaults.statementCacheSize()),
+        Optional.ofNullable(configuration.get("alloy.pool.pipeliningLimit"))
+            .map(jse -> jse.getAsInt())
+            .orElse(defaults.pipeliningLimit()));
+  }
+
+  static GCPEnvironment.ConcurrencyLimitConfig vertexAILimitsConfiguration(
+      JsonObject configuration) {
+    var defaults = GCPEnvironment.ConcurrencyLimitConfig.defaults();
+    return new GCPEnvironment.ConcurrencyLimitConfig(
+        Optional.ofNullable(configuration.get("vertexai.limits.initial"))
+            .map(jse -> jse.getAsInt())
+            .orElse(defaults.initialLimit()),
+        Optional.ofNullable(configuration.get("vertexai.limits.min"))
+            .map(jse -> jse.getAsInt())
+            .orElse(defaults.minLimit()),
+        Optional.ofNullable(configuration.get("vertexai.limits.max"))
+            .map(jse -> jse.getAsInt())
+            .orElse(defaults.maxLimit()),
+        Optional.ofNullable(configuration.get("vertexai.limits.maxQueuedRequests"))
+            .map(jse -> jse.getAsInt())
+            .orElse(defaults.maxQueuedRequests()),
+        Optional.ofNullable(configuration.get("vertexai.limits.maxQueueWaitMillis"))
+            .map(jse -> Duration.ofMillis(jse.getAsLong()))
+            .orElse(defaults.maxQueueWait()),
+        Optional.ofNullable(configuration.get("vertexai.limits.latencyTolerance"))
+            .map(jse -> jse.getAsDouble())
+            .orElse(defaults.latencyTolerance()));
+  }
+
+  static GCPEnvironment.ReadReplicasConfig alloyDBReadReplicasConfiguration(
+      JsonObject configuration) {
+    var defaults = GCPEnvironment.ReadReplicasConfig.none();
+    return new GCPEnvironment.ReadReplicasConfig(
+        Optional.ofNullable(configuration.get("alloy.readIpAddresses"))
+            .map(
+                jse ->
+                    jse.getAsJsonArray().asList().stream()
+                        .map(address -> address.getAsString())
+                        .toList())
+            .orElse(defaults.ipAddresses()),
+        Optional.ofNullable(configuration.get("alloy.replicas.maxLagMillis"))
+            .map(jse -> Duration.ofMillis(jse.getAsLong()))
+            .orElse(defaults.maxLag()),
+        Optional.ofNullable(configuration.get("alloy.replicas.lagCheckMillis"))
+            .map(jse -> Duration.ofMillis(jse.getAsLong()))
+            .orElse(defaults.lagCheckInterval()));
+  }
+
+  static GCPEnvironment.QuantizedSearch alloyDBQuantizedSearchConfiguration(
+      JsonObject configuration) {
+    var defaults = GCPEnvironment.QuantizedSearch.none();
+    return new GCPEnvironment.QuantizedSearch(
+        Optional.ofNullable(configuration.get("alloy.quantization"))
+            .map(jse -> GCPEnvironment.Quantization.valueOf(jse.getAsString()))
+            .orElse(defaults.quantization()),
+        Optional.ofNullable(configuration.get("alloy.quantization.oversampling"))
+            .map(jse -> jse.getAsInt())
+            .orElse(defaults.oversampling()));
   }
 
   @Produces
@@ -185,11 +315,21 @@ public class BeansProducer {
         projectId);
   }
 
+  @Produces
+  public ServiceTypes.EmbeddingsCacheConfiguration produceEmbeddingsCacheConfiguration() {
+    return embeddingsCacheConfiguration;
+  }
+
   @Produces
   public Interactions interactions() {
     return interactions;
   }
 
+  @Produces
+  public SearchBatcher searchBatcher() {
+    return searchBatcher;
+  }
+
   @Produces
   @ApplicationScoped
   public PubSubService producePubSubService() throws IOException {
@@ -218,5 +358,21 @@ public class BeansProducer {
   }
 
   public record Interactions(
-      String embeddingsModel, String vectorStorage, String chunker, String llm) {}
+      String embeddingsModel,
+      String vectorStorage,
+      String chunker,
+      String llm,
+      Optional<Integer> embeddingsDimensionality) {
+
+    public Interactions(String embeddingsModel, String vectorStorage, String chunker, String llm) {
+      this(embeddingsModel, vectorStorage, chunker, llm, Optional.empty());
+    }
+
+    /** Identifies the vectors the embeddings model returns, different sizes are not comparable. */
+    public String embeddingsModelVersion() {
+      return embeddingsDimensionality
+          .map(dims -> embeddingsModel + "@" + dims)
+          .orElse(embeddingsModel);
+    }
+  }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pso.data.services.beans;
+
+import com.google.cloud.pso.rag.common.JDBCHelper;
+import com.google.cloud.pso.rag.common.JDBCHelper.PoolMetrics;
+import com.google.cloud.pso.rag.vector.AlloyDB;
+import com.google.cloud.pso.rag.vector.AlloyDB.ReadReplicaStatus;
+import io.quarkus.runtime.Startup;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+
+/** Exposes the state of the database connection pools, aggregated across all of them. */
+@Startup
+@ApplicationScoped
+public class DatabaseMetrics {
+
+  @Gauge(name = "db.pool.connections.active", unit = MetricUnits.NONE)
+  public Integer activeConnections() {
+    return JDBCHelper.allPoolMetrics().stream().mapToInt(PoolMetrics::activeConnections).sum();
+  }
+
+  @Gauge(name = "db.pool.connections.idle", unit = MetricUnits.NONE)
+  public Integer idleConnections() {
+    return JDBCHelper.allPoolMetrics().stream().mapToInt(PoolMetrics::idleConnections).sum();
+  }
+
+  @Gauge(name = "db.pool.connections.awaiting", unit = MetricUnits.NONE)
+  public Integer threadsAwaitingConnection() {
+    return JDBCHelper.allPoolMetrics().stream()
+        .mapToInt(PoolMetrics::threadsAwaitingConnection)
+        .sum();
+  }
+
+  @Gauge(name = "db.pool.requests.queued", unit = MetricUnits.NONE)
+  public Integer queuedRequests() {
+    return JDBCHelper.allPoolMetrics().stream().mapToInt(PoolMetrics::queuedRequests).sum();
+  }
+
+  @Gauge(name = "db.pool.wait.average", unit = MetricUnits.MILLISECONDS)
+  public Double averageWait() {
+    var metrics = JDBCHelper.allPoolMetrics();
+    var acquired = metrics.stream().mapToLong(PoolMetrics::connectionsAcquired).sum();
+    return acquired == 0
+        ? 0.0
+        : metrics.stream().mapToDouble(m -> m.averageWaitMillis() * m.connectionsAcquired()).sum()
+            / acquired;
+  }
+
+  @Gauge(name = "db.pool.wait.max", unit = MetricUnits.MILLISECONDS)
+  public Double maxWait() {
+    return JDBCHelper.allPoolMetrics().stream()
+        .mapToDouble(PoolMetrics::maxWaitMillis)
+        .max()
+        .orElse(0.0);
+  }
+
+  @Gauge(name = "db.pool.timeouts", unit = MetricUnits.NONE)
+  public Long connectionTimeouts() {
+    return JDBCHelper.allPoolMetrics().stream().mapToLong(PoolMetrics::connectionTimeouts).sum();
+  }
+
+  @Gauge(name = "db.pool.rejections", unit = MetricUnits.NONE)
+  public Long rejectedRequests() {
+    return JDBCHelper.allPoolMetrics().stream().mapToLong(PoolMetrics::rejectedRequests).sum();
+  }
+
+  @Gauge(name = "db.replicas.usable", unit = MetricUnits.NONE)
+  public Long usableReadReplicas() {
+    return AlloyDB.readReplicas().stream().filter(ReadReplicaStatus::usable).count();
+  }
+
+  @PreDestroy
+  public void close() {
+    JDBCHelper.closePools();
+  }
+}
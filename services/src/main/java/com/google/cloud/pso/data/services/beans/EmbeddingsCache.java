@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pso.data.services.beans;
+
+import static com.google.cloud.bigtable.data.v2.models.Filters.FILTERS;
+
+import com.google.cloud.bigtable.data.v2.BigtableDataClient;
+import com.google.cloud.bigtable.data.v2.BigtableDataSettings;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowMutation;
+import com.google.cloud.pso.rag.common.Float32Vector;
+import com.google.cloud.pso.rag.common.InteractionHelper;
+import com.google.cloud.pso.rag.common.Result;
+import com.google.cloud.pso.rag.common.Result.ErrorResponse;
+import com.google.cloud.pso.rag.embeddings.Embeddings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.ByteString;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the embeddings computed for the user queries, keyed by the model and the hash of the
+ * normalized query text. Lookups go to a bounded in process cache first and then, when configured,
+ * to a BigTable table shared by all the service instances. Only the embeddings values are cached.
+ * The model is part of the key, so entries computed with another model are never served and age
+ * out of the local cache by size.
+ */
+@ApplicationScoped
+public class EmbeddingsCache {
+  private static final Logger LOG = LoggerFactory.getLogger(EmbeddingsCache.class);
+  private static final String COLUMN_QUALIFIER = "values";
+
+  record Key(String model, String textHash) {
+    String rowKey() {
+      return model + "#" + textHash;
+    }
+  }
+
+  private final ServiceTypes.EmbeddingsCacheConfiguration config;
+  private final ServiceTypes.BigTableConfiguration btConfig;
+  private final Cache<Key, List<Float32Vector>> local;
+  private final AtomicLong localHits = new AtomicLong();
+  private final AtomicLong sharedHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong missNanos = new AtomicLong();
+  private final AtomicLong hitNanos = new AtomicLong();
+  private BigtableDataClient bigTableClient;
+
+  public EmbeddingsCache(
+      ServiceTypes.EmbeddingsCacheConfiguration config,
+      ServiceTypes.BigTableConfiguration btConfig) {
+    this.config = config;
+    this.btConfig = btConfig;
+    this.local =
+        CacheBuilder.newBuilder()
+            .maximumWeight(config.maxBytes())
+            .<Key, List<Float32Vector>>weigher(
+                (key, values) ->
+                    key.model().length()
+                        + key.textHash().length()
+                        + values.stream().mapToInt(value -> value.dimensions() * 4).sum())
+            .build();
+  }
+
+  @PostConstruct
+  public void init() throws IOException {
+    if (config.tableName().isPresent()) {
+      bigTableClient =
+          BigtableDataClient.create(
+              BigtableDataSettings.newBuilder()
+                  .setInstanceId(btConfig.instanceName())
+                  .setProjectId(btConfig.projectId())
+                  .build());
+    }
+  }
+
+  // casing and spacing differences do not change the meaning of a query
+  static String normalize(String text) {
+    return text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+  }
+
+  static Key key(String model, String text) {
+    return new Key(
+        model, Hashing.sha256().hashString(normalize(text), StandardCharsets.UTF_8).toString());
+  }
+
+  static ByteString encode(List<Float32Vector> values) {
+    var size = values.stream().mapToInt(value -> 4 + value.dimensions() * 4).sum();
+    var buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    for (var value : values) {
+      buffer.putInt(value.dimensions());
+      for (int i = 0; i < value.dimensions(); i++) {
+        buffer.putFloat(value.get(i));
+      }
+    }
+    return ByteString.copyFrom(buffer.flip());
+  }
+
+  static List<Float32Vector> decode(ByteString bytes) {
+    var buffer = bytes.asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    var values = new ArrayList<Float32Vector>();
+    while (buffer.hasRemaining()) {
+      var floats = new float[buffer.getInt()];
+      buffer.asFloatBuffer().get(floats);
+      buffer.position(buffer.position() + floats.length * 4);
+      values.add(Float32Vector.wrap(floats));
+    }
+    return values;
+  }
+
+  /**
+   * Returns the cached embeddings for the text, or computes them with the loader and caches them.
+   */
+  public CompletableFuture<Result<? extends Embeddings.Response, ErrorResponse>> retrieve(
+      String model,
+      String text,
+      Supplier<CompletableFuture<Result<? extends Embeddings.Response, ErrorResponse>>> loader) {
+    var start = System.nanoTime();
+    var key = key(model, text);
+    var cached = local.getIfPresent(key);
+    if (cached != null) {
+      localHits.incrementAndGet();
+      hitNanos.addAndGet(System.nanoTime() - start);
+      return CompletableFuture.completedFuture(Result.success(Embeddings.textResponse(cached)));
+    }
+    return readShared(key)
+        .thenCompose(
+            shared -> {
+              if (shared.isPresent()) {
+                local.put(key, shared.get());
+                sharedHits.incrementAndGet();
+                hitNanos.addAndGet(System.nanoTime() - start);
+                return CompletableFuture.completedFuture(
+                    Result.success(Embeddings.textResponse(shared.get())));
+              }
+              return loader.get().thenApply(result -> cacheLoaded(key, start, result));
+            });
+  }
+
+  Result<? extends Embeddings.Response, ErrorResponse> cacheLoaded(
+      Key key, long start, Result<? extends Embeddings.Response, ErrorResponse> result) {
+    if (result instanceof Result.Success<? extends Embeddings.Response, ErrorResponse> success) {
+      misses.incrementAndGet();
+      missNanos.addAndGet(System.nanoTime() - start);
+      var values = Embeddings.extractValuesFromEmbeddings(success.value());
+      local.put(key, values);
+      writeShared(key, values);
+    }
+    return result;
+  }
+
+  // a shared level failure is logged and treated as a miss, it should never fail the query
+  CompletableFuture<Optional<List<Float32Vector>>> readShared(Key key) {
+    if (bigTableClient == null) {
+      return CompletableFuture.completedFuture(Optional.empty());
+    }
+    return InteractionHelper.toCompletableFuture(
+            bigTableClient.readRowAsync(
+                config.tableName().get(),
+                key.rowKey(),
+                FILTERS
+                    .chain()
+                    .filter(FILTERS.family().exactMatch(config.columnFamily()))
+                    .filter(FILTERS.qualifier().exactMatch(COLUMN_QUALIFIER))
+                    // garbage collection is eventual, expired cells may still be returned
+                    .filter(
+                        FILTERS
+                            .timestamp()
+                            .range()
+                            .startClosed(
+                                Instant.now().minus(config.ttl()).toEpochMilli() * 1000))
+                    .filter(FILTERS.limit().cellsPerColumn(1))))
+        .thenApply(
+            row ->
+                Optional.ofNullable(row)
+                    .map(Row::getCells)
+                    .filter(cells -> !cells.isEmpty())
+                    .map(cells -> decode(cells.getFirst().getValue())))
+        .exceptionally(
+            error -> {
+              LOG.warn("problems while reading cached embeddings from BigTable.", error);
+              return Optional.empty();
+            });
+  }
+
+  void writeShared(Key key, List<Float32Vector> values) {
+    if (bigTableClient == null) {
+      return;
+    }
+    InteractionHelper.toCompletableFuture(
+            bigTableClient.mutateRowAsync(
+                RowMutation.create(config.tableName().get(), key.rowKey())
+                    .setCell(
+                        config.columnFamily(),
+                        ByteString.copyFromUtf8(COLUMN_QUALIFIER),
+                        Instant.now().toEpochMilli() * 1000,
+                        encode(values))))
+        .exceptionally(
+            error -> {
+              LOG.warn("problems while caching embeddings on BigTable.", error);
+              return null;
+            });
+  }
+
+  @Gauge(name = "embeddings.cache.hits.local", unit = MetricUnits.NONE)
+  public Long localHits() {
+    return localHits.get();
+  }
+
+  @Gauge(name = "embeddings.cache.hits.shared", unit = MetricUnits.NONE)
+  public Long sharedHits() {
+    return sharedHits.get();
+  }
+
+  @Gauge(name = "embeddings.cache.misses", unit = MetricUnits.NONE)
+  public Long misses() {
+    return misses.get();
+  }
+
+  @Gauge(name = "embeddings.cache.hitrate", unit = MetricUnits.PERCENT)
+  public Double hitRate() {
+    var hits = localHits.get() + sharedHits.get();
+    var total = hits + misses.get();
+    return total == 0 ? 0.0 : hits * 100.0 / total;
+  }
+
+  /** Estimated as the average latency of the misses minus the latency of each hit. */
+  @Gauge(name = "embeddings.cache.latency.saved", unit = MetricUnits.MILLISECONDS)
+  public Double savedLatency() {
+    var missCount = misses.get();
+    if (missCount == 0) {
+      return 0.0;
+    }
+    var hits = localHits.get() + sharedHits.get();
+    var averageMissNanos = missNanos.get() / (double) missCount;
+    return Math.max(0.0, hits * averageMissNanos - hitNanos.get()) / 1_000_000.0;
+  }
+
+  @PreDestroy
+  public void close() {
+    if (bigTableClient != null) {
+      bigTableClient.close();
+    }
+  }
+}
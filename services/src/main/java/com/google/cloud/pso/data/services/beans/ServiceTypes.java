@@ -15,13 +15,18 @@
  */
 package com.google.cloud.pso.data.services.beans;
 
+import com.google.cloud.pso.rag.common.GCPEnvironment;
 import com.google.cloud.pso.rag.common.Ingestion.RawData;
 import com.google.cloud.pso.rag.common.Ingestion.Request;
 import com.google.cloud.pso.rag.common.Ingestion.SupportedType;
 import com.google.cloud.pso.rag.common.Result;
 import com.google.cloud.pso.rag.llm.LLM;
+import com.google.cloud.pso.rag.vector.AlloyDB;
+import com.google.cloud.pso.rag.vector.Vectors;
 import jakarta.ws.rs.FormParam;
+import java.time.Duration;
 import java.util.List;
+import java.util.Optional;
 
 /** */
 public class ServiceTypes {
@@ -41,7 +46,9 @@ public class ServiceTypes {
       Double temperature,
       Integer maxOutputTokens,
       Integer topK,
-      Double topP) {}
+      Double topP,
+      Vectors.Filter filter,
+      Boolean hybridSearch) {}
 
   public record UserQuery(String text, String sessionId, QueryParameters parameters) {}
 
@@ -102,6 +109,13 @@ public class ServiceTypes {
       String columnQualifierContext,
       String projectId) {}
 
+  /**
+   * The in process level is bounded by the estimated bytes of the cached vectors. The BigTable level
+   * is only used when a table is configured, its entries expire after the ttl.
+   */
+  public record EmbeddingsCacheConfiguration(
+      Long maxBytes, Optional<String> tableName, String columnFamily, Duration ttl) {}
+
   public record ContentByKeyResponse(String key, String content, String sourceLink) {
 
     public static ContentByKeyResponse empty() {
@@ -121,4 +135,16 @@ public class ServiceTypes {
   }
 
   public record ConversationContextBySessionResponse(String session, List<QAndA> qAndAs) {}
+
+  public record SearchExplainRequest(
+      String text,
+      Integer neighborCount,
+      AlloyDB.SearchMode mode,
+      AlloyDB.SearchTuning tuning,
+      Vectors.Filter filter) {}
+
+  public record QuantizedColumnRequest(
+      GCPEnvironment.Quantization quantization, Integer dimensions) {}
+
+  public record DimensionsRequest(Integer dimensions) {}
 }
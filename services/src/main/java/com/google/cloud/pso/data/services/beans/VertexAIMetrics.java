@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pso.data.services.beans;
+
+import com.google.cloud.pso.rag.common.ConcurrencyLimiter;
+import com.google.cloud.pso.rag.common.ConcurrencyLimiter.LimiterMetrics;
+import io.quarkus.runtime.Startup;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+
+/** Exposes the state of the Vertex AI concurrency limiters, aggregated across all the models. */
+@Startup
+@ApplicationScoped
+public class VertexAIMetrics {
+
+  @Gauge(name = "vertexai.limiter.limit", unit = MetricUnits.NONE)
+  public Integer limit() {
+    return ConcurrencyLimiter.allMetrics().stream().mapToInt(LimiterMetrics::limit).sum();
+  }
+
+  @Gauge(name = "vertexai.limiter.inflight", unit = MetricUnits.NONE)
+  public Integer inFlight() {
+    return ConcurrencyLimiter.allMetrics().stream().mapToInt(LimiterMetrics::inFlight).sum();
+  }
+
+  @Gauge(name = "vertexai.limiter.queued", unit = MetricUnits.NONE)
+  public Integer queued() {
+    return ConcurrencyLimiter.allMetrics().stream().mapToInt(LimiterMetrics::queued).sum();
+  }
+
+  @Gauge(name = "vertexai.limiter.rejections", unit = MetricUnits.NONE)
+  public Long rejectedRequests() {
+    return ConcurrencyLimiter.allMetrics().stream()
+        .mapToLong(LimiterMetrics::rejectedRequests)
+        .sum();
+  }
+
+  @Gauge(name = "vertexai.limiter.overloads", unit = MetricUnits.NONE)
+  public Long overloads() {
+    return ConcurrencyLimiter.allMetrics().stream().mapToLong(LimiterMetrics::overloads).sum();
+  }
+}
@@ -22,23 +22,66 @@ import com.google.cloud.pso.rag.embeddings.Embeddings;
 import com.google.cloud.pso.rag.embeddings.EmbeddingsRequests;
 import com.google.cloud.pso.rag.llm.LLM;
 import com.google.cloud.pso.rag.llm.LLMRequests;
+import com.google.cloud.pso.rag.vector.SearchBatcher;
+import com.google.cloud.pso.rag.vector.VectorDimensions;
 import com.google.cloud.pso.rag.vector.VectorRequests;
 import com.google.cloud.pso.rag.vector.Vectors;
+import io.quarkus.runtime.Startup;
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 import org.eclipse.microprofile.metrics.MetricUnits;
 import org.eclipse.microprofile.metrics.annotation.Timed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /** */
+@Startup
 @ApplicationScoped
 public class VertexAIService {
+  private static final Logger LOG = LoggerFactory.getLogger(VertexAIService.class);
+  private static final Duration DIMENSIONS_CHECK_TIMEOUT = Duration.ofSeconds(30);
 
   @Inject ServiceTypes.ResourceConfiguration configuration;
   @Inject BeansProducer.Interactions interactions;
+  @Inject SearchBatcher searchBatcher;
+  @Inject EmbeddingsCache embeddingsCache;
+
+  /**
+   * Fails the startup when the vector storage holds vectors of a different size than the configured
+   * embeddings, a storage that can not be reached in time is only logged.
+   */
+  @PostConstruct
+  public void validateDimensions() {
+    var expected =
+        EmbeddingsRequests.dimensions(
+            interactions.embeddingsModel(), interactions.embeddingsDimensionality());
+    var storage = interactions.vectorStorage();
+    var dimensions =
+        VectorDimensions.dimensions(storage)
+            .orTimeout(DIMENSIONS_CHECK_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)
+            .exceptionally(
+                error ->
+                    Result.failure("Errors occurred while retrieving the dimensions.", error))
+            .join();
+    switch (dimensions) {
+      case Result.Failure<Integer, ErrorResponse>(var error) ->
+          LOG.warn(
+              "Could not check the vector storage dimensions: {}",
+              error.message(),
+              error.cause().orElse(null));
+      case Result.Success<Integer, ErrorResponse>(var dims) ->
+          VectorDimensions.check(storage, dims, expected)
+              .orElseThrow(error -> new IllegalStateException(error.message()));
+    }
+  }
 
   @Timed(name = "palm.exchanges.summarization", unit = MetricUnits.MILLISECONDS)
   public CompletableFuture<Result<? extends LLM.SummarizationResponse, ErrorResponse>>
@@ -55,42 +98,67 @@ public class VertexAIService {
                 configuration.topP())));
   }
 
+  List<LLM.Exchange> chatExchanges(
+      List<ServiceTypes.QAndA> lastsQAndAs, ServiceTypes.UserQuery query) {
+    return Stream.concat(
+            lastsQAndAs.stream()
+                .flatMap(
+                    qaa ->
+                        Stream.of(
+                            new LLM.Exchange("user", qaa.question()),
+                            new LLM.Exchange("model", qaa.answer()))),
+            Stream.of(new LLM.Exchange("user", query.text())))
+        .toList();
+  }
+
   @Timed(name = "palm.chat.prediction", unit = MetricUnits.MILLISECONDS)
   public CompletableFuture<Result<? extends LLM.ChatResponse, ErrorResponse>> retrieveChatResponse(
       List<ServiceTypes.QAndA> lastsQAndAs, ServiceTypes.UserQuery query, String context) {
-
-    var exchanges =
-        Stream.concat(
-                lastsQAndAs.stream()
-                    .flatMap(
-                        qaa ->
-                            Stream.of(
-                                new LLM.Exchange("user", qaa.question()),
-                                new LLM.Exchange("model", qaa.answer()))),
-                Stream.of(new LLM.Exchange("user", query.text())))
-            .toList();
-
     return LLM.chat(
         LLMRequests.chat(
             interactions.llm(),
             context,
-            exchanges,
+            chatExchanges(lastsQAndAs, query),
             llmParameters(Optional.ofNullable(query.parameters()))));
   }
 
+  /** Same as the chat response, but the answer text is handed to the consumer as it arrives. */
+  public CompletableFuture<Result<? extends LLM.ChatResponse, ErrorResponse>>
+      retrieveStreamedChatResponse(
+          List<ServiceTypes.QAndA> lastsQAndAs,
+          ServiceTypes.UserQuery query,
+          String context,
+          Consumer<String> onText) {
+    return LLM.chatStream(
+        LLMRequests.chat(
+            interactions.llm(),
+            context,
+            chatExchanges(lastsQAndAs, query),
+            llmParameters(Optional.ofNullable(query.parameters()))),
+        onText);
+  }
+
   @Timed(name = "embeddings.prediction", unit = MetricUnits.MILLISECONDS)
   public CompletableFuture<Result<? extends Embeddings.Response, ErrorResponse>> retrieveEmbeddings(
       ServiceTypes.UserQuery query, String previousSummarizedConversation) {
-    return Embeddings.retrieveEmbeddings(
-        EmbeddingsRequests.create(
-            interactions.embeddingsModel(), Embeddings.Types.TEXT, List.of(query.text())));
+    // repeated queries reuse the embeddings computed for them before
+    return embeddingsCache.retrieve(
+        interactions.embeddingsModelVersion(),
+        query.text(),
+        () ->
+            Embeddings.retrieveEmbeddings(
+                EmbeddingsRequests.create(
+                    interactions.embeddingsModel(),
+                    Embeddings.Types.TEXT,
+                    List.of(query.text()),
+                    interactions.embeddingsDimensionality())));
   }
 
   @Timed(name = "vectorseach.ann", unit = MetricUnits.MILLISECONDS)
   public CompletableFuture<Result<? extends Vectors.SearchResponse, ErrorResponse>>
       retrieveNearestNeighbors(Embeddings.Response embResponse, ServiceTypes.UserQuery query) {
 
-    return Vectors.findNearestNeighbors(
+    return searchBatcher.findNearestNeighbors(
         VectorRequests.find(
             interactions.vectorStorage(),
             Embeddings.extractValuesFromEmbeddings(embResponse).stream()
@@ -101,7 +169,17 @@ public class VertexAIService {
                 configuration.maxNeighbors(),
                 Optional.ofNullable(query.parameters())
                     .flatMap(params -> Optional.ofNullable(params.maxNeighbors()))
-                    .orElse(Integer.MAX_VALUE))));
+                    .orElse(Integer.MAX_VALUE)),
+            false,
+            // restrict the search on the index instead of discarding neighbors afterwards
+            Optional.ofNullable(query.parameters())
+                .flatMap(params -> Optional.ofNullable(params.filter()))
+                .orElse(Vectors.Filter.none()),
+            // hybrid searches also match the query text, helps with names and codes
+            Optional.ofNullable(query.parameters())
+                .flatMap(params -> Optional.ofNullable(params.hybridSearch()))
+                .filter(Boolean::booleanValue)
+                .map(__ -> query.text())));
   }
 
   LLM.Parameters llmParameters(Optional<ServiceTypes.QueryParameters> parameters) {
@@ -34,6 +34,7 @@ import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.core.MediaType;
 import java.io.IOException;
+import java.util.List;
 import java.util.stream.Collectors;
 import org.eclipse.microprofile.metrics.MetricUnits;
 import org.eclipse.microprofile.metrics.annotation.Timed;
@@ -118,7 +119,7 @@ public class AdminResource {
   @Consumes(MediaType.APPLICATION_JSON)
   @Timed(name = "content.admin.delete.key", unit = MetricUnits.MILLISECONDS)
   public void deleteContentKey(ContentKeys contentKeys) {
-    Vectors.removeVectors(VectorRequests.remove(interactions.vectorStorage(), contentKeys.keys()));
+    removeVectors(contentKeys.keys());
     btService.deleteRowsByKeys(contentKeys.keys());
   }
 
@@ -143,7 +144,17 @@ public class AdminResource {
         contentIdsToDelete.add(key);
       }
     }
-    Vectors.removeVectors(VectorRequests.remove(interactions.vectorStorage(), contentIdsToDelete));
+    removeVectors(contentIdsToDelete);
     btService.deleteRowsByKeys(contentIdsToDelete);
   }
+
+  // content is only deleted once the storage acknowledged its vectors removal
+  void removeVectors(List<String> ids) {
+    var response =
+        Vectors.removeVectors(VectorRequests.remove(interactions.vectorStorage(), ids))
+            .join()
+            .orElseThrow(
+                error -> new RuntimeException(error.message(), error.cause().orElse(null)));
+    LOG.info("Removed vectors for {} content ids, response: {}", ids.size(), response);
+  }
 }
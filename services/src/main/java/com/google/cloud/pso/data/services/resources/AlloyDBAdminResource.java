@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pso.data.services.resources;
+
+import com.google.cloud.pso.data.services.beans.ServiceTypes.DimensionsRequest;
+import com.google.cloud.pso.data.services.beans.ServiceTypes.QuantizedColumnRequest;
+import com.google.cloud.pso.data.services.beans.ServiceTypes.SearchExplainRequest;
+import com.google.cloud.pso.data.services.beans.ServiceTypes.UserQuery;
+import com.google.cloud.pso.data.services.beans.VertexAIService;
+import com.google.cloud.pso.rag.common.Result.ErrorResponse;
+import com.google.cloud.pso.rag.embeddings.Embeddings;
+import com.google.cloud.pso.rag.vector.AlloyDB;
+import com.google.cloud.pso.rag.vector.AlloyDBAdmin;
+import com.google.cloud.pso.rag.vector.Vectors;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import java.util.List;
+import java.util.Optional;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Timed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Manages the vector indexes of the AlloyDB storage and inspects how searches get planned. */
+@Path("/admin/alloydb")
+@ApplicationScoped
+public class AlloyDBAdminResource {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AlloyDBAdminResource.class);
+
+  @Inject VertexAIService vertexaiService;
+
+  @GET
+  @Path("/indexes")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Timed(name = "alloydb.admin.indexes.list", unit = MetricUnits.MILLISECONDS)
+  public List<AlloyDBAdmin.IndexInfo> listIndexes() {
+    return AlloyDBAdmin.listIndexes().join().orElseThrow(AlloyDBAdminResource::adminException);
+  }
+
+  @POST
+  @Path("/indexes")
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Timed(name = "alloydb.admin.indexes.create", unit = MetricUnits.MILLISECONDS)
+  public void createIndex(AlloyDBAdmin.IndexDefinition definition) {
+    LOG.info("Creating index {}.", definition);
+    AlloyDBAdmin.createIndex(definition).join().orElseThrow(AlloyDBAdminResource::adminException);
+  }
+
+  @DELETE
+  @Path("/indexes/{name}")
+  @Timed(name = "alloydb.admin.indexes.drop", unit = MetricUnits.MILLISECONDS)
+  public void dropIndex(@PathParam("name") String name) {
+    LOG.info("Dropping index {}.", name);
+    AlloyDBAdmin.dropIndex(name).join().orElseThrow(AlloyDBAdminResource::adminException);
+  }
+
+  @POST
+  @Path("/tuning")
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Timed(name = "alloydb.admin.tuning", unit = MetricUnits.MILLISECONDS)
+  public void setDefaultTuning(AlloyDB.SearchTuning tuning) {
+    LOG.info("Setting default search tuning {}.", tuning);
+    AlloyDBAdmin.setDefaultTuning(tuning).join().orElseThrow(AlloyDBAdminResource::adminException);
+  }
+
+  @POST
+  @Path("/explain")
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Produces(MediaType.APPLICATION_JSON)
+  @Timed(name = "alloydb.admin.explain", unit = MetricUnits.MILLISECONDS)
+  public AlloyDBAdmin.SearchPlan explainSearch(SearchExplainRequest request) {
+    return vertexaiService
+        .retrieveEmbeddings(new UserQuery(request.text(), "", null), "")
+        .thenCompose(
+            embResponse ->
+                embResponse
+                    .map(
+                        embs ->
+                            AlloyDBAdmin.explainSearch(
+                                new AlloyDB.SearchRequest(
+                                    Embeddings.extractValuesFromEmbeddings(embs).stream()
+                                        .map(
+                                            values ->
+                                                new AlloyDB.Query(
+                                                    new Vectors.Datapoint(values),
+                                                    Optional.ofNullable(request.neighborCount())
+                                                        .orElse(10),
+                                                    request.text()))
+                                        .toList(),
+                                    Optional.ofNullable(request.mode())
+                                        .orElse(AlloyDB.SearchMode.INDEXED),
+                                    Optional.ofNullable(request.tuning()),
+                                    false,
+                                    request.filter())))
+                    .orElseThrow(AlloyDBAdminResource::adminException))
+        .join()
+        .orElseThrow(AlloyDBAdminResource::adminException);
+  }
+
+  @POST
+  @Path("/quantization")
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Timed(name = "alloydb.admin.quantization.add", unit = MetricUnits.MILLISECONDS)
+  public void addQuantizedColumn(QuantizedColumnRequest request) {
+    LOG.info("Adding quantized column {}.", request);
+    AlloyDBAdmin.addQuantizedColumn(request.quantization(), request.dimensions())
+        .join()
+        .orElseThrow(AlloyDBAdminResource::adminException);
+  }
+
+  @POST
+  @Path("/quantization/evaluate")
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Produces(MediaType.APPLICATION_JSON)
+  @Timed(name = "alloydb.admin.quantization.evaluate", unit = MetricUnits.MILLISECONDS)
+  public AlloyDBAdmin.QuantizationEvaluationResult evaluateQuantization(
+      AlloyDBAdmin.QuantizationEvaluation evaluation) {
+    return AlloyDBAdmin.evaluateQuantization(evaluation)
+        .join()
+        .orElseThrow(AlloyDBAdminResource::adminException);
+  }
+
+  @GET
+  @Path("/dimensions")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Timed(name = "alloydb.admin.dimensions.get", unit = MetricUnits.MILLISECONDS)
+  public Integer embeddingDimensions() {
+    return AlloyDBAdmin.embeddingDimensions()
+        .join()
+        .orElseThrow(AlloyDBAdminResource::adminException);
+  }
+
+  @POST
+  @Path("/dimensions")
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Produces(MediaType.APPLICATION_JSON)
+  @Timed(name = "alloydb.admin.dimensions.reduce", unit = MetricUnits.MILLISECONDS)
+  public AlloyDBAdmin.DimensionsMigration reduceDimensions(DimensionsRequest request) {
+    LOG.info("Reducing the stored vectors to {} dimensions.", request.dimensions());
+    return AlloyDBAdmin.reduceDimensions(request.dimensions())
+        .join()
+        .orElseThrow(AlloyDBAdminResource::adminException);
+  }
+
+  static RuntimeException adminException(ErrorResponse error) {
+    return new RuntimeException(error.message(), error.cause().orElse(null));
+  }
+}
@@ -21,12 +21,14 @@ import com.google.cloud.pso.data.services.beans.ServiceTypes.ContentAndMetadata;
 import com.google.cloud.pso.data.services.beans.ServiceTypes.LinkAndDistance;
 import com.google.cloud.pso.data.services.beans.ServiceTypes.QueryResult;
 import com.google.cloud.pso.data.services.beans.ServiceTypes.ResourceConfiguration;
+import com.google.cloud.pso.data.services.beans.ServiceTypes.SimpleResponse;
 import com.google.cloud.pso.data.services.beans.ServiceTypes.UserQuery;
 import com.google.cloud.pso.data.services.beans.VertexAIService;
 import com.google.cloud.pso.data.services.exceptions.QueryResourceException;
 import com.google.cloud.pso.data.services.utils.PromptUtilities;
 import com.google.cloud.pso.rag.common.Result.ErrorResponse;
 import com.google.cloud.pso.rag.llm.Gemini;
+import com.google.cloud.pso.rag.llm.LLM;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -37,11 +39,18 @@ import jakarta.inject.Named;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import org.eclipse.microprofile.metrics.MetricUnits;
 import org.eclipse.microprofile.metrics.annotation.Timed;
@@ -91,162 +100,173 @@ public class QueryResource {
         GSON.toJsonTree(response).toString());
   }
 
+  void validate(UserQuery query) {
+    Preconditions.checkState(
+        query.sessionId() != null, "Session id should be present, even if empty.");
+    Preconditions.checkState(query.text() != null, "A valid question should be provided.");
+    Preconditions.checkState(!query.text().trim().isEmpty(), "Provided query is empty.");
+  }
+
+  List<ServiceTypes.QAndA> lastQAndAs(UserQuery query) {
+    // retrieve the previous q and as from the conversation context removing the repeated and
+    // negative answers coming from the model
+    var qAndAs =
+        removeRepeatedAndNegaviteAnswers(
+            btService.retrieveConversationContext(query.sessionId()).qAndAs());
+
+    // keep the embeddings context as the last 5 questions (summarization may become too
+    // clumsy).
+    return qAndAs.size() > 5 ? qAndAs.subList(qAndAs.size() - 6, qAndAs.size() - 1) : qAndAs;
+  }
+
+  CompletableFuture<String> previousSummary(
+      List<ServiceTypes.QAndA> lastsQAndAs, UserQuery query) {
+    // retrieve the summary of the previous conversation and generate embeddings adding that
+    // context to the user query
+    return lastsQAndAs.isEmpty()
+        ? CompletableFuture.completedFuture("")
+        : vertexaiService
+            .retrievePreviousSummarizedConversation(lastsQAndAs)
+            .thenApply(
+                summary ->
+                    summary
+                        .map(resp -> resp.content())
+                        .orElseThrow(error -> processErrorResponse(error, query)));
+  }
+
+  CompletableFuture<List<ContentAndMetadata>> retrieveContext(
+      UserQuery query, CompletableFuture<String> previousFuture) {
+    return previousFuture.thenCompose(
+        previousSummarizedConversation ->
+            // given the query and previous conversation summary, retrieve embeddings
+            vertexaiService
+                .retrieveEmbeddings(query, previousSummarizedConversation)
+                // and their nearest neighbors
+                .thenCompose(
+                    embResponse ->
+                        embResponse
+                            .map(embs -> vertexaiService.retrieveNearestNeighbors(embs, query))
+                            .orElseThrow(error -> processErrorResponse(error, query)))
+                // given the retrieved neighbors, use their ids to retrieve the chunks
+                // text content
+                .thenApply(
+                    nnResp ->
+                        nnResp
+                            .map(
+                                resp ->
+                                    resp.nearestNeighbors().stream()
+                                        .flatMap(n -> n.neighbors().stream())
+                                        // filter out the dummy index initial vector
+                                        .filter(
+                                            n -> n.distance() > configuration.minNeighborDistance())
+                                        .sorted(
+                                            (n1, n2) -> -n1.distance().compareTo(n2.distance()))
+                                        // we keep only the most relevant context entries
+                                        .limit(configuration.maxNeighbors())
+                                        // capture content and link from storage and preserve
+                                        // distance from original query
+                                        .map(
+                                            nn -> {
+                                              var content =
+                                                  btService.queryByPrefix(
+                                                      nn.datapoint().datapointId());
+                                              return new ContentAndMetadata(
+                                                  content.content(),
+                                                  content.sourceLink(),
+                                                  nn.distance());
+                                            })
+                                        .toList())
+                            .orElseThrow(error -> processErrorResponse(error, query))));
+  }
+
+  String chatContext(UserQuery query, List<ContentAndMetadata> context) {
+    // given the textual context and the previously retrieved existing conversation request a
+    // chat response to the model using the provided query.
+    return PromptUtilities.formatChatContextPrompt(
+        context.stream().map(ContentAndMetadata::content).toList(),
+        // if there is a query param knowledge setup we use that
+        Optional.ofNullable(query.parameters())
+            .map(p -> Optional.ofNullable(p.botContextExpertise()))
+            // or default to whatever was configured, if anything
+            .orElse(Optional.ofNullable(configuredBotContextExpertise)),
+        // also use the query configured knowledge enrichment, if tis there.
+        Optional.ofNullable(query.parameters())
+            .flatMap(p -> Optional.ofNullable(p.includeOwnKnowledgeEnrichment()))
+            // or default to whatever was configured, if anything
+            .orElse(Optional.ofNullable(includeOwnKnowledgeEnrichment).orElse(true)));
+  }
+
+  static String answerText(LLM.ChatResponse chat) {
+    return switch (chat) {
+      case Gemini.ChatResponse(var __, var blocked) when blocked.isPresent() ->
+          "Response blocked by model. " + blocked.get();
+      case Gemini.ChatResponse(var exchange, var __) -> exchange.content();
+    };
+  }
+
+  QueryResult queryResult(
+      UserQuery query,
+      List<ContentAndMetadata> context,
+      String responseText,
+      String previousSummarizedConversation) {
+    // the context source links
+    var sourceLinks =
+        context.stream()
+            // discard content
+            .map(ContentAndMetadata::toLinkAndDistance)
+            // filter empty links
+            .filter(ld -> !ld.link().isBlank())
+            // get max distance value per link
+            .collect(
+                Collectors.toMap(
+                    LinkAndDistance::link,
+                    LinkAndDistance::distance,
+                    (d1, d2) -> d1 > d2 ? d1 : d2))
+            // deduplicate
+            .entrySet()
+            .stream()
+            // order descending by distance
+            .sorted((e1, e2) -> -e1.getValue().compareTo(e2.getValue()))
+            .map(e -> new LinkAndDistance(e.getKey(), e.getValue()))
+            .toList();
+    var responseLinks =
+        PromptUtilities.checkNegativeAnswer(responseText)
+                || responseText.contains(PromptUtilities.FOUND_IN_INTERNET)
+            ? List.<LinkAndDistance>of()
+            : sourceLinks;
+    // store the new exchange
+    btService.storeQueryToContext(query.sessionId(), query.text(), responseText);
+    // to finally return a query response
+    var response = new QueryResult(responseText, previousSummarizedConversation, responseLinks);
+    logInteraction(query, response);
+    return response;
+  }
+
   @POST
   @Produces(MediaType.APPLICATION_JSON)
   @Timed(name = "content.query", unit = MetricUnits.MILLISECONDS)
   public CompletableFuture<QueryResult> query(UserQuery query) {
     try {
-      Preconditions.checkState(
-          query.sessionId() != null, "Session id should be present, even if empty.");
-      Preconditions.checkState(query.text() != null, "A valid question should be provided.");
-      Preconditions.checkState(!query.text().trim().isEmpty(), "Provided query is empty.");
-
-      // retrieve the previous q and as from the conversation context removing the repeated and
-      // negative answers coming from the model
-      var qAndAs =
-          removeRepeatedAndNegaviteAnswers(
-              btService.retrieveConversationContext(query.sessionId()).qAndAs());
-
-      // keep the embeddings context as the last 5 questions (summarization may become too
-      // clumsy).
-      var lastsQAndAs =
-          qAndAs.size() > 5 ? qAndAs.subList(qAndAs.size() - 6, qAndAs.size() - 1) : qAndAs;
-
-      // retrieve the summary of the previous conversation and generate embeddings adding that
-      // context to the user query
-      var previousFuture =
-          lastsQAndAs.isEmpty()
-              ? CompletableFuture.completedFuture("")
-              : vertexaiService
-                  .retrievePreviousSummarizedConversation(lastsQAndAs)
-                  .thenApply(
-                      summary ->
-                          summary
-                              .map(resp -> resp.content())
-                              .orElseThrow(error -> processErrorResponse(error, query)));
-      var contextFuture =
-          previousFuture.thenCompose(
-              previousSummarizedConversation ->
-                  // given the query and previous conversation summary, retrieve embeddings
-                  vertexaiService
-                      .retrieveEmbeddings(query, previousSummarizedConversation)
-                      // and their nearest neighbors
-                      .thenCompose(
-                          embResponse ->
-                              embResponse
-                                  .map(
-                                      embs -> vertexaiService.retrieveNearestNeighbors(embs, query))
-                                  .orElseThrow(error -> processErrorResponse(error, query)))
-                      // given the retrieved neighbors, use their ids to retrieve the chunks
-                      // text content
-                      .thenApply(
-                          nnResp ->
-                              nnResp
-                                  .map(
-                                      resp ->
-                                          resp.nearestNeighbors().stream()
-                                              .flatMap(n -> n.neighbors().stream())
-                                              // filter out the dummy index initial vector
-                                              .filter(
-                                                  n ->
-                                                      n.distance()
-                                                          > configuration.minNeighborDistance())
-                                              .sorted(
-                                                  (n1, n2) ->
-                                                      -n1.distance().compareTo(n2.distance()))
-                                              // we keep only the most relevant context entries
-                                              .limit(configuration.maxNeighbors())
-                                              // capture content and link from storage and preserve
-                                              // distance from
-                                              // original
-                                              // query
-                                              .map(
-                                                  nn -> {
-                                                    var content =
-                                                        btService.queryByPrefix(
-                                                            nn.datapoint().datapointId());
-                                                    return new ContentAndMetadata(
-                                                        content.content(),
-                                                        content.sourceLink(),
-                                                        nn.distance());
-                                                  })
-                                              .toList())
-                                  .orElseThrow(error -> processErrorResponse(error, query))));
+      validate(query);
+      var lastsQAndAs = lastQAndAs(query);
+      var previousFuture = previousSummary(lastsQAndAs, query);
+      var contextFuture = retrieveContext(query, previousFuture);
       var textResponseFuture =
           contextFuture
               .thenCompose(
-                  context -> {
-                    // given the textual context and the previously retrieved existing conversation
-                    // request a chat
-                    // response to the model using the provided query.
-                    var palmRequestContext =
-                        PromptUtilities.formatChatContextPrompt(
-                            context.stream().map(ContentAndMetadata::content).toList(),
-                            // if there is a query param knowledge setup we use that
-                            Optional.ofNullable(query.parameters())
-                                .map(p -> Optional.ofNullable(p.botContextExpertise()))
-                                // or default to whatever was configured, if anything
-                                .orElse(Optional.ofNullable(configuredBotContextExpertise)),
-                            // also use the query configured knowledge enrichment, if tis there.
-                            Optional.ofNullable(query.parameters())
-                                .flatMap(
-                                    p -> Optional.ofNullable(p.includeOwnKnowledgeEnrichment()))
-                                // or default to whatever was configured, if anything
-                                .orElse(
-                                    Optional.ofNullable(includeOwnKnowledgeEnrichment)
-                                        .orElse(true)));
-                    return vertexaiService.retrieveChatResponse(
-                        lastsQAndAs, query, palmRequestContext);
-                  })
+                  context ->
+                      vertexaiService.retrieveChatResponse(
+                          lastsQAndAs, query, chatContext(query, context)))
               .thenApply(
                   response ->
                       response
-                          .map(
-                              chat ->
-                                  switch (chat) {
-                                    case Gemini.ChatResponse(var __, var blocked) when blocked
-                                            .isPresent() ->
-                                        "Response blocked by model. " + blocked.get();
-                                    case Gemini.ChatResponse(var exchange, var __) ->
-                                        exchange.content();
-                                  })
+                          .map(QueryResource::answerText)
                           .orElseThrow(error -> processErrorResponse(error, query)));
 
       return contextFuture.thenCombine(
           textResponseFuture,
-          (context, responseText) -> {
-            // the context source links
-            var sourceLinks =
-                context.stream()
-                    // discard content
-                    .map(ContentAndMetadata::toLinkAndDistance)
-                    // filter empty links
-                    .filter(ld -> !ld.link().isBlank())
-                    // get max distance value per link
-                    .collect(
-                        Collectors.toMap(
-                            LinkAndDistance::link,
-                            LinkAndDistance::distance,
-                            (d1, d2) -> d1 > d2 ? d1 : d2))
-                    // deduplicate
-                    .entrySet()
-                    .stream()
-                    // order descending by distance
-                    .sorted((e1, e2) -> -e1.getValue().compareTo(e2.getValue()))
-                    .map(e -> new LinkAndDistance(e.getKey(), e.getValue()))
-                    .toList();
-            var responseLinks =
-                PromptUtilities.checkNegativeAnswer(responseText)
-                        || responseText.contains(PromptUtilities.FOUND_IN_INTERNET)
-                    ? List.<LinkAndDistance>of()
-                    : sourceLinks;
-            // store the new exchange
-            btService.storeQueryToContext(query.sessionId(), query.text(), responseText);
-            // to finally return a query response
-            var response = new QueryResult(responseText, previousFuture.join(), responseLinks);
-            logInteraction(query, response);
-            return response;
-          });
+          (context, responseText) ->
+              queryResult(query, context, responseText, previousFuture.join()));
     } catch (Exception ex) {
       var msg = "Problems while executing the query resource. ";
       LOG.error(msg, ex);
@@ -254,6 +274,95 @@ public class QueryResource {
     }
   }
 
+  /**
+   * Streams the answer as server sent events: "token" events carry the answer text as the model
+   * generates it, and a final "result" event carries the complete query result, with the source
+   * links and the conversation summary. Failures once the stream started end it with an "error"
+   * event. The exchange is stored once the answer is complete, even if the client went away.
+   */
+  @POST
+  @Path("/stream")
+  @Produces(MediaType.SERVER_SENT_EVENTS)
+  public void queryStream(UserQuery query, @Context SseEventSink eventSink, @Context Sse sse) {
+    try {
+      validate(query);
+      var lastsQAndAs = lastQAndAs(query);
+      var previousFuture = previousSummary(lastsQAndAs, query);
+      var start = System.nanoTime();
+      var firstToken = new AtomicBoolean(true);
+      retrieveContext(query, previousFuture)
+          .thenCompose(
+              context ->
+                  vertexaiService
+                      .retrieveStreamedChatResponse(
+                          lastsQAndAs,
+                          query,
+                          chatContext(query, context),
+                          text -> {
+                            if (firstToken.getAndSet(false)) {
+                              LOG.debug(
+                                  "first token after {}ms",
+                                  (System.nanoTime() - start) / 1_000_000);
+                            }
+                            send(
+                                eventSink,
+                                sse.newEventBuilder()
+                                    .name("token")
+                                    .mediaType(MediaType.TEXT_PLAIN_TYPE)
+                                    .data(String.class, text)
+                                    .build());
+                          })
+                      .thenApply(
+                          response ->
+                              response
+                                  .map(QueryResource::answerText)
+                                  .orElseThrow(error -> processErrorResponse(error, query)))
+                      .thenApply(
+                          responseText ->
+                              queryResult(query, context, responseText, previousFuture.join())))
+          .whenComplete(
+              (result, error) -> {
+                var event =
+                    error == null
+                        ? sse.newEventBuilder()
+                            .name("result")
+                            .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                            .data(QueryResult.class, result)
+                            .build()
+                        : errorEvent(sse, query, error);
+                send(eventSink, event).whenComplete((__, sendError) -> eventSink.close());
+              });
+    } catch (Exception ex) {
+      var msg = "Problems while executing the query resource. ";
+      LOG.error(msg, ex);
+      throw new QueryResourceException(msg + ex.getMessage(), query.text(), query.sessionId(), ex);
+    }
+  }
+
+  // a client that went away does not stop the generation, the answer is still stored
+  static CompletionStage<?> send(SseEventSink eventSink, OutboundSseEvent event) {
+    return eventSink.isClosed() ? CompletableFuture.completedFuture(null) : eventSink.send(event);
+  }
+
+  OutboundSseEvent errorEvent(Sse sse, UserQuery query, Throwable error) {
+    var cause = error instanceof CompletionException ? error.getCause() : error;
+    var msg = "Problems while executing the query resource. ";
+    LOG.error(msg, cause);
+    var message =
+        switch (cause) {
+          case QueryResourceException qre ->
+              qre.getMessage()
+                  + String.format(
+                      " Query: '%s'. Session id: '%s'", qre.getQueryText(), qre.getSessionId());
+          default -> msg + cause.getMessage();
+        };
+    return sse.newEventBuilder()
+        .name("error")
+        .mediaType(MediaType.APPLICATION_JSON_TYPE)
+        .data(SimpleResponse.class, new SimpleResponse(message))
+        .build();
+  }
+
   QueryResourceException processErrorResponse(ErrorResponse error, UserQuery query) {
     return new QueryResourceException(
         error.message(), query.text(), query.sessionId(), error.cause().get());